@@ -25,6 +25,8 @@ import org.seasar.aptina.beans.example.BoundBeanState;
 import org.seasar.aptina.beans.example.ConstrainedBeanState;
 import org.seasar.aptina.beans.example.FooBeanState;
 import org.seasar.aptina.unit.AptinaTestCase;
+import org.seasar.aptina.unit.SourceSynthesizer;
+import org.seasar.aptina.unit.SourceSynthesizer.Preset;
 
 /**
  * 
@@ -100,6 +102,25 @@ public class BeansProcessorTest extends AptinaTestCase {
         assertGeneratedSource("org.seasar.aptina.beans.example.BoundAndConstrainedBean");
     }
 
+    /**
+     * @throws Exception
+     */
+    public void testSynthetic() throws Exception {
+        final SourceSynthesizer synthesizer = new SourceSynthesizer(
+            0L,
+            Preset.BEAN_STATE);
+        addProcessor(new BeansProcessor());
+        for (int i = 0; i < 100; ++i) {
+            addCompilationUnit(synthesizer.getClassName(i), synthesizer
+                .getSource(i));
+        }
+        compile();
+        assertTrue(getCompiledResult());
+        for (int i = 0; i < 100; ++i) {
+            assertNotNull(getGeneratedSource("synthetic.Synthetic" + i + "Bean"));
+        }
+    }
+
     void assertGeneratedSource(final String generatedClassName)
             throws IOException {
         final String expectedResourceName = getClass().getSimpleName() + "/"
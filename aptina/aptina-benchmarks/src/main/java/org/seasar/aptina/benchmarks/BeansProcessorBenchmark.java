@@ -0,0 +1,53 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.benchmarks;
+
+import javax.annotation.processing.Processor;
+
+import org.seasar.aptina.beans.BeanState;
+import org.seasar.aptina.beans.internal.BeansProcessor;
+
+/**
+ * {@link BeansProcessor} のベースラインとなるベンチマークです．
+ * <p>
+ * {@link BeanState} を付けたプリミティブ型， 参照型， 配列， パラメータ化された型のフィールドを持つクラスをコンパイルします．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class BeansProcessorBenchmark extends ProcessorBenchmark {
+
+    @Override
+    protected Processor createProcessor() {
+        return new BeansProcessor();
+    }
+
+    @Override
+    protected String getClassName(final int index) {
+        return "bench.Bench" + index + "BeanState";
+    }
+
+    @Override
+    protected String createSource(final int index) {
+        return "package bench;\n" + "@" + BeanState.class.getName() + "\n"
+                + "public class Bench" + index + "BeanState {\n"
+                + "    int id;\n" + "    String name;\n"
+                + "    boolean active;\n" + "    long[] values;\n"
+                + "    java.util.List<String> tags;\n"
+                + "    java.util.Map<String, Integer> counts;\n" + "}\n";
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.benchmarks;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import javax.annotation.processing.Processor;
+
+import org.seasar.aptina.unit.PrintingProcessor;
+
+/**
+ * {@link PrintingProcessor} のベースラインとなるベンチマークです．
+ * <p>
+ * 出力は破棄されるため， {@link javax.lang.model.element.Element} 階層の走査と整形だけが計測されます．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class PrintingProcessorBenchmark extends ProcessorBenchmark {
+
+    @Override
+    protected Processor createProcessor() {
+        return new PrintingProcessor(new PrintWriter(new NullWriter()));
+    }
+
+    @Override
+    protected String getClassName(final int index) {
+        return "bench.Bench" + index;
+    }
+
+    @Override
+    protected String createSource(final int index) {
+        return "package bench;\n" + "public class Bench" + index
+                + "<T extends Comparable<T>> {\n" + "    int id;\n"
+                + "    T value;\n" + "    java.util.List<T> values;\n"
+                + "    public Bench" + index + "(int id, T value) {\n"
+                + "        this.id = id;\n" + "        this.value = value;\n"
+                + "    }\n" + "    public T getValue() {\n"
+                + "        return value;\n" + "    }\n"
+                + "    public <E extends Exception> void check(T other) "
+                + "throws E {\n" + "    }\n" + "}\n";
+    }
+
+    /**
+     * 書き込まれた文字を破棄する {@link Writer} です．
+     * 
+     * @author koichik
+     */
+    static class NullWriter extends Writer {
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
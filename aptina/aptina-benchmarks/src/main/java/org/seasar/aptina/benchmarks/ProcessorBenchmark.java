@@ -0,0 +1,214 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.processing.Processor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.seasar.aptina.unit.Compilation;
+import org.seasar.aptina.unit.CompilationResult;
+import org.seasar.aptina.unit.CompilerSession;
+import org.seasar.aptina.unit.DiagnosticSinks;
+import org.seasar.aptina.unit.ProcessorStatistics;
+
+/**
+ * {@link Processor} をメモリ上のコンパイルで駆動するベンチマークの基底クラスです．
+ * <p>
+ * サブクラスは計測する {@link Processor} とコンパイル対象のソースを提供します．
+ * コンパイル対象のソースはトライアルの開始時に一度だけ作成され， {@link CompilerSession}
+ * はトライアルの間共有されます． {@link Processor} はコンパイルのたびに新しいインスタンスが作成されます．
+ * </p>
+ * 
+ * @author koichik
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode( { Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class ProcessorBenchmark {
+
+    /** 一回のコンパイルで使用するコンパイル対象の最大数 */
+    public static final int MAX_COMPILATION_UNITS = 100;
+
+    /** コンパイル対象のソースの文字セット */
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    CompilerSession compilerSession;
+
+    final List<String> classNames = new ArrayList<String>();
+
+    final List<String> sources = new ArrayList<String>();
+
+    /**
+     * コンパイル対象のソースを作成し， {@link CompilerSession} を開始します．
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        compilerSession = new CompilerSession();
+        for (int i = 0; i < MAX_COMPILATION_UNITS; ++i) {
+            classNames.add(getClassName(i));
+            sources.add(createSource(i));
+        }
+    }
+
+    /**
+     * {@link CompilerSession} をクローズします．
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        compilerSession.close();
+        classNames.clear();
+        sources.clear();
+    }
+
+    /**
+     * 一つのクラスをコンパイルします．
+     * 
+     * @param counters
+     *            補助カウンタ
+     * @return コンパイラの実行結果
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    @Benchmark
+    @OperationsPerInvocation(1)
+    public boolean compile1(final RoundCounters counters) throws IOException {
+        return compile(1, counters);
+    }
+
+    /**
+     * 10 個のクラスをまとめてコンパイルします．
+     * 
+     * @param counters
+     *            補助カウンタ
+     * @return コンパイラの実行結果
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    @Benchmark
+    @OperationsPerInvocation(10)
+    public boolean compile10(final RoundCounters counters) throws IOException {
+        return compile(10, counters);
+    }
+
+    /**
+     * 100 個のクラスをまとめてコンパイルします．
+     * 
+     * @param counters
+     *            補助カウンタ
+     * @return コンパイラの実行結果
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    @Benchmark
+    @OperationsPerInvocation(MAX_COMPILATION_UNITS)
+    public boolean compile100(final RoundCounters counters) throws IOException {
+        return compile(MAX_COMPILATION_UNITS, counters);
+    }
+
+    /**
+     * 指定された数のクラスをコンパイルします．
+     * 
+     * @param count
+     *            コンパイルするクラスの数
+     * @param counters
+     *            補助カウンタ
+     * @return コンパイラの実行結果
+     * @throws IOException
+     *             入出力例外が発生した場合
+     * @throws IllegalStateException
+     *             コンパイルに失敗した場合
+     */
+    protected boolean compile(final int count, final RoundCounters counters)
+            throws IOException, IllegalStateException {
+        final Compilation compilation = new Compilation();
+        compilation.setLocale(Locale.ENGLISH);
+        compilation.setCharset(UTF8);
+        compilation.setCompilerSession(compilerSession);
+        compilation.setDiagnosticSink(DiagnosticSinks.off());
+        compilation.addProcessor(createProcessor());
+        for (int i = 0; i < count; ++i) {
+            compilation.addCompilationUnit(classNames.get(i), sources.get(i));
+        }
+        final CompilationResult result = compilation.compile();
+        try {
+            if (!Boolean.TRUE.equals(result.getCompiledResult())) {
+                throw new IllegalStateException(result
+                    .getDiagnostics()
+                    .toString());
+            }
+            for (final ProcessorStatistics statistics : result
+                .getProcessorStatistics()) {
+                counters.rounds += statistics.getProcessCount();
+                counters.processNanos += statistics
+                    .getProcessTime(TimeUnit.NANOSECONDS);
+            }
+            return true;
+        } finally {
+            result.close();
+        }
+    }
+
+    /**
+     * 計測する {@link Processor} を作成します．
+     * <p>
+     * このメソッドはコンパイルのたびに呼び出されます．
+     * </p>
+     * 
+     * @return 計測する {@link Processor}
+     */
+    protected abstract Processor createProcessor();
+
+    /**
+     * コンパイル対象のクラスの完全限定名を返します．
+     * 
+     * @param index
+     *            コンパイル対象のインデックス
+     * @return コンパイル対象のクラスの完全限定名
+     */
+    protected abstract String getClassName(int index);
+
+    /**
+     * コンパイル対象のソースを作成します．
+     * 
+     * @param index
+     *            コンパイル対象のインデックス
+     * @return コンパイル対象のソース
+     */
+    protected abstract String createSource(int index);
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 計測した {@link javax.annotation.processing.Processor} のラウンド数と処理時間を報告する補助カウンタです．
+ * <p>
+ * {@link #processNanos} を {@link #rounds} で割るとラウンドあたりの処理時間になります．
+ * </p>
+ * 
+ * @author koichik
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class RoundCounters {
+
+    /** {@link javax.annotation.processing.Processor#process} が呼び出された回数 */
+    public long rounds;
+
+    /** {@link javax.annotation.processing.Processor#process} の処理時間の合計 (ナノ秒) */
+    public long processNanos;
+
+    /**
+     * カウンタをリセットします．
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+        rounds = 0;
+        processNanos = 0;
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+/**
+ * Aptina Unit のメモリ上のコンパイルで Annotation Processor を駆動する JMH のベンチマークです．
+ * <p>
+ * このモジュールはプロファイル {@code benchmark} を指定した場合だけビルドされます．
+ * </p>
+ * 
+ * <pre>
+ * mvn -Pbenchmark package
+ * java -jar aptina-benchmarks/target/benchmarks.jar -prof gc
+ * </pre>
+ * <p>
+ * ベンチマークメソッド {@code compileN} は一回の呼び出しで {@code N} 個のクラスをコンパイルし，
+ * {@code N} 回の操作として計測されます． そのため， スループット ({@code ops/s}) や平均時間，
+ * GC プロファイラの {@code gc.alloc.rate.norm} はコンパイルしたクラス一つあたりの値になります．
+ * 補助カウンタの {@code rounds} と {@code processNanos} は {@link javax.annotation.processing.Processor#process}
+ * が呼び出されたラウンド数とその処理時間の合計で， 後者を前者で割るとラウンドあたりの処理時間になります．
+ * </p>
+ * <p>
+ * 任意の {@link javax.annotation.processing.Processor} を計測するには，
+ * {@link org.seasar.aptina.benchmarks.ProcessorBenchmark} のサブクラスを作成します．
+ * </p>
+ */
+package org.seasar.aptina.benchmarks;
+
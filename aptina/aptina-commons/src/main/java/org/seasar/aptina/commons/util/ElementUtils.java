@@ -16,8 +16,11 @@
 package org.seasar.aptina.commons.util;
 
 import java.lang.annotation.Annotation;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Field;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.Element;
@@ -41,11 +44,37 @@ import static org.seasar.aptina.commons.util.TypeMirrorUtils.*;
  */
 /**
  * {@link Element} を扱うユーティリティです．
+ * <p>
+ * フィールドやコンストラクタ， メソッドを検索するメソッドは， 型エレメントごとに名前と引数の型名で索引付けした
+ * {@link MemberIndex} を使います． 索引は最初の検索で作成され， 型エレメントが到達不能になるかメモリが不足するまでキャッシュされます．
+ * </p>
+ * <p>
+ * コンパイラによっては注釈処理のラウンドや {@link javax.annotation.processing.ProcessingEnvironment}
+ * を越えて同じ型エレメントのインスタンスを使い回し， そのメンバだけを作り直します．
+ * そのため索引は検索のたびに {@link TypeElement#getEnclosedElements()} が返すメンバと同一であることを確認し，
+ * 異なっていれば作り直されます． この確認はメンバの数に比例する時間がかかるため， 検索は一定時間ではなく O(メンバの数)
+ * で完了します． 索引が省くのはメンバごとの名前と引数の型名の文字列比較であり， その分だけ索引を使わない検索より速く完了します．
+ * </p>
  * 
  * @author koichik
  */
 public class ElementUtils {
 
+    /** 索引のキーでメソッド名と引数の型名を区切る文字 */
+    static final char SIGNATURE_SEPARATOR = '\0';
+
+    /** コンストラクタの名前 */
+    static final String CONSTRUCTOR_NAME = "<init>";
+
+    /**
+     * 型エレメントごとの {@link MemberIndex} のキャッシュ
+     * <p>
+     * 索引は型エレメントのメンバを保持しており， メンバは {@link Element#getEnclosingElement()}
+     * で型エレメントを参照しているため， 値を {@link SoftReference} で保持しないと型エレメントが回収されなくなります．
+     * </p>
+     */
+    static final Map<TypeElement, SoftReference<MemberIndex>> memberIndexes = new WeakHashMap<TypeElement, SoftReference<MemberIndex>>();
+
     private ElementUtils() {
     }
 
@@ -125,13 +154,7 @@ public class ElementUtils {
             final TypeElement typeElement, final String fieldName) {
         assertNotNull("typeElement", typeElement);
         assertNotEmpty("fieldName", fieldName);
-        for (final VariableElement variableElement : ElementFilter
-            .fieldsIn(typeElement.getEnclosedElements())) {
-            if (fieldName.equals(variableElement.getSimpleName().toString())) {
-                return variableElement;
-            }
-        }
-        return null;
+        return getMemberIndex(typeElement).fields.get(fieldName);
     }
 
     /**
@@ -144,13 +167,9 @@ public class ElementUtils {
     public static ExecutableElement getConstructorElement(
             final TypeElement typeElement) {
         assertNotNull("typeElement", typeElement);
-        for (final ExecutableElement executableElement : ElementFilter
-            .constructorsIn(typeElement.getEnclosedElements())) {
-            if (executableElement.getParameters().size() == 0) {
-                return executableElement;
-            }
-        }
-        return null;
+        return getMemberIndex(typeElement).executables.get(toSignatureKey(
+            CONSTRUCTOR_NAME,
+            new String[0]));
     }
 
     /**
@@ -170,13 +189,9 @@ public class ElementUtils {
             final TypeElement typeElement, final Class<?>... parameterTypes) {
         assertNotNull("typeElement", typeElement);
         assertNotNull("parameterTypes", parameterTypes);
-        for (final ExecutableElement executableElement : ElementFilter
-            .constructorsIn(typeElement.getEnclosedElements())) {
-            if (isSameTypes(parameterTypes, executableElement.getParameters())) {
-                return executableElement;
-            }
-        }
-        return null;
+        return getMemberIndex(typeElement).executables.get(toSignatureKey(
+            CONSTRUCTOR_NAME,
+            getQualifiedNameArray(parameterTypes)));
     }
 
     /**
@@ -199,14 +214,9 @@ public class ElementUtils {
             final TypeElement typeElement, final String... parameterTypeNames) {
         assertNotNull("typeElement", typeElement);
         assertNotNull("parameterTypeNames", parameterTypeNames);
-        for (final ExecutableElement executableElement : ElementFilter
-            .constructorsIn(typeElement.getEnclosedElements())) {
-            if (isSameTypes(parameterTypeNames, executableElement
-                .getParameters())) {
-                return executableElement;
-            }
-        }
-        return null;
+        return getMemberIndex(typeElement).executables.get(toSignatureKey(
+            CONSTRUCTOR_NAME,
+            parameterTypeNames));
     }
 
     /**
@@ -222,17 +232,9 @@ public class ElementUtils {
             final TypeElement typeElement, final String methodName) {
         assertNotNull("typeElement", typeElement);
         assertNotEmpty("methodName", methodName);
-        for (final ExecutableElement executableElement : ElementFilter
-            .methodsIn(typeElement.getEnclosedElements())) {
-            if (!methodName
-                .equals(executableElement.getSimpleName().toString())) {
-                continue;
-            }
-            if (executableElement.getParameters().size() == 0) {
-                return executableElement;
-            }
-        }
-        return null;
+        return getMemberIndex(typeElement).executables.get(toSignatureKey(
+            methodName,
+            new String[0]));
     }
 
     /**
@@ -256,17 +258,9 @@ public class ElementUtils {
         assertNotNull("typeElement", typeElement);
         assertNotEmpty("methodName", methodName);
         assertNotNull("parameterTypes", parameterTypes);
-        for (final ExecutableElement executableElement : ElementFilter
-            .methodsIn(typeElement.getEnclosedElements())) {
-            if (!methodName
-                .equals(executableElement.getSimpleName().toString())) {
-                continue;
-            }
-            if (isSameTypes(parameterTypes, executableElement.getParameters())) {
-                return executableElement;
-            }
-        }
-        return null;
+        return getMemberIndex(typeElement).executables.get(toSignatureKey(
+            methodName,
+            getQualifiedNameArray(parameterTypes)));
     }
 
     /**
@@ -293,18 +287,9 @@ public class ElementUtils {
         assertNotNull("typeElement", typeElement);
         assertNotEmpty("methodName", methodName);
         assertNotNull("parameterTypeNames", parameterTypeNames);
-        for (final ExecutableElement executableElement : ElementFilter
-            .methodsIn(typeElement.getEnclosedElements())) {
-            if (!methodName
-                .equals(executableElement.getSimpleName().toString())) {
-                continue;
-            }
-            if (isSameTypes(parameterTypeNames, executableElement
-                .getParameters())) {
-                return executableElement;
-            }
-        }
-        return null;
+        return getMemberIndex(typeElement).executables.get(toSignatureKey(
+            methodName,
+            parameterTypeNames));
     }
 
     /**
@@ -343,6 +328,55 @@ public class ElementUtils {
         return null;
     }
 
+    /**
+     * 型エレメントのメンバの索引を返します．
+     * <p>
+     * キャッシュされていないか， キャッシュされた索引のメンバが型エレメントの現在のメンバと同一でなければ作成してキャッシュします．
+     * 複数のスレッドが同時に同じ型エレメントの索引を作成することがありますが， 作成される索引は同じ内容です．
+     * </p>
+     * 
+     * @param typeElement
+     *            型エレメント
+     * @return 型エレメントのメンバの索引
+     */
+    static MemberIndex getMemberIndex(final TypeElement typeElement) {
+        final List<? extends Element> enclosedElements = typeElement
+            .getEnclosedElements();
+        synchronized (memberIndexes) {
+            final SoftReference<MemberIndex> reference = memberIndexes
+                .get(typeElement);
+            final MemberIndex memberIndex = reference == null ? null
+                    : reference.get();
+            if (memberIndex != null && memberIndex.isValid(enclosedElements)) {
+                return memberIndex;
+            }
+        }
+        final MemberIndex memberIndex = new MemberIndex(enclosedElements);
+        synchronized (memberIndexes) {
+            memberIndexes.put(typeElement, new SoftReference<MemberIndex>(
+                memberIndex));
+        }
+        return memberIndex;
+    }
+
+    /**
+     * 名前と引数の型名から索引のキーを作成します．
+     * 
+     * @param name
+     *            メソッド名またはコンストラクタの場合は {@value #CONSTRUCTOR_NAME}
+     * @param typeNames
+     *            引数の型名の配列
+     * @return 索引のキー
+     */
+    static String toSignatureKey(final String name, final String[] typeNames) {
+        final StringBuilder buf = new StringBuilder(64);
+        buf.append(name);
+        for (final String typeName : typeNames) {
+            buf.append(SIGNATURE_SEPARATOR).append(typeName);
+        }
+        return new String(buf);
+    }
+
     /**
      * 引数型の配列と{@link VariableElement}のリストの， それぞれの要素の型名が等しければ {@code true} を返します．
      * 
@@ -420,7 +454,7 @@ public class ElementUtils {
             final List<? extends TypeMirror> bounds = typeParameter.getBounds();
             buf.append(parameterPrefix).append(typeParameter.getSimpleName());
             if (bounds.size() > 1
-                    || bounds.get(0).toString() == "java.lang.Object") {
+                    || !"java.lang.Object".equals(bounds.get(0).toString())) {
                 buf.append(" extends ").append(
                     join(toTypeNameList(bounds), " & "));
             }
@@ -450,4 +484,98 @@ public class ElementUtils {
         return new String(buf);
     }
 
+    /**
+     * 型エレメントに定義されたフィールドとコンストラクタ， メソッドの索引です．
+     * <p>
+     * フィールドは名前で， コンストラクタとメソッドは名前と引数の型名 ({@link TypeMirror#toString()})
+     * で索引付けされます． 引数の型名は {@link ElementUtils#isSameTypes(String[], List)}
+     * と同じく型引数を含んだ文字列です． 同じキーを持つメンバが複数ある場合は， 先に宣言されたメンバが登録されます．
+     * </p>
+     * 
+     * @author koichik
+     */
+    static class MemberIndex {
+
+        /** 索引を作成した時点の型エレメントのメンバ */
+        final Element[] members;
+
+        /** フィールド名をキーとするフィールドのマップ */
+        final Map<String, VariableElement> fields = newHashMap();
+
+        /** 名前と引数の型名をキーとするコンストラクタとメソッドのマップ */
+        final Map<String, ExecutableElement> executables = newHashMap();
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param enclosedElements
+         *            型エレメントのメンバ
+         */
+        MemberIndex(final List<? extends Element> enclosedElements) {
+            members = enclosedElements.toArray(new Element[enclosedElements
+                .size()]);
+            for (final VariableElement field : ElementFilter
+                .fieldsIn(enclosedElements)) {
+                final String name = field.getSimpleName().toString();
+                if (!fields.containsKey(name)) {
+                    fields.put(name, field);
+                }
+            }
+            for (final ExecutableElement constructor : ElementFilter
+                .constructorsIn(enclosedElements)) {
+                put(CONSTRUCTOR_NAME, constructor);
+            }
+            for (final ExecutableElement method : ElementFilter
+                .methodsIn(enclosedElements)) {
+                put(method.getSimpleName().toString(), method);
+            }
+        }
+
+        /**
+         * 索引を作成した時点のメンバが型エレメントの現在のメンバと同一なら {@code true} を返します．
+         * <p>
+         * メンバは {@link Object#equals(Object)} ではなく同一性で比較します．
+         * メンバの数に比例する時間がかかりますが， 文字列の生成や比較は行いません．
+         * </p>
+         * 
+         * @param enclosedElements
+         *            型エレメントの現在のメンバ
+         * @return 索引を作成した時点のメンバが型エレメントの現在のメンバと同一なら {@code true}
+         */
+        boolean isValid(final List<? extends Element> enclosedElements) {
+            if (members.length != enclosedElements.size()) {
+                return false;
+            }
+            int i = 0;
+            for (final Element element : enclosedElements) {
+                if (members[i++] != element) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * コンストラクタまたはメソッドを登録します．
+         * 
+         * @param name
+         *            メソッド名またはコンストラクタの場合は {@value ElementUtils#CONSTRUCTOR_NAME}
+         * @param executableElement
+         *            コンストラクタまたはメソッド
+         */
+        void put(final String name, final ExecutableElement executableElement) {
+            final List<? extends VariableElement> parameters = executableElement
+                .getParameters();
+            final String[] typeNames = new String[parameters.size()];
+            for (int i = 0; i < typeNames.length; ++i) {
+                typeNames[i] = parameters.get(i).asType().toString();
+            }
+            final String key = toSignatureKey(name, typeNames);
+            if (!executables.containsKey(key)) {
+                executables.put(key, executableElement);
+            }
+        }
+
+    }
+
 }
@@ -15,6 +15,7 @@
  */
 package org.seasar.aptina.commons.util;
 
+import java.io.IOException;
 import java.util.Iterator;
 
 /**
@@ -151,4 +152,67 @@ public class StringUtils {
         return new String(buf);
     }
 
+    /**
+     * 文字列を JSON の文字列リテラルに変換して返します．
+     * 
+     * @param s
+     *            文字列
+     * @return JSON の文字列リテラル
+     */
+    public static String toJsonString(final CharSequence s) {
+        final StringBuilder buf = new StringBuilder(s.length() + 2);
+        try {
+            appendJsonString(buf, s);
+        } catch (final IOException e) {
+            // StringBuilder は例外をスローしない
+            throw new AssertionError(e);
+        }
+        return new String(buf);
+    }
+
+    /**
+     * 文字列を JSON の文字列リテラルに変換して出力先に追加します．
+     * <p>
+     * 引用符とバックスラッシュ， 制御文字はエスケープされます．
+     * </p>
+     * 
+     * @param out
+     *            出力先
+     * @param s
+     *            文字列
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    public static void appendJsonString(final Appendable out,
+            final CharSequence s) throws IOException {
+        out.append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                out.append("\\\"");
+                break;
+            case '\\':
+                out.append("\\\\");
+                break;
+            case '\n':
+                out.append("\\n");
+                break;
+            case '\r':
+                out.append("\\r");
+                break;
+            case '\t':
+                out.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    out.append(String.format("\\u%04x", (int) c));
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+        out.append('"');
+    }
+
 }
@@ -15,8 +15,10 @@
  */
 package org.seasar.aptina.commons.util;
 
+import java.lang.ref.SoftReference;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.TypeKind;
@@ -35,6 +37,14 @@ import static org.seasar.aptina.commons.util.ElementUtils.*;
  */
 /**
  * {@link TypeMirror} を扱うユーティリティです．
+ * <p>
+ * {@link #getTypeMirror(Types, Elements, Class)} および
+ * {@link #getTypeMirror(Types, Elements, String)} が返した {@link TypeMirror}
+ * は， クラスまたはクラス名をキーとして処理環境ごとにキャッシュされます． 配列の場合は要素型もキャッシュされます．
+ * 対応する型が存在しなかった場合はキャッシュされません．
+ * 処理環境のキャッシュは公開メソッドの呼び出しごとに一度だけ検索され， 配列の要素型や
+ * {@link #toTypeMirrors(Types, Elements, Class...)} の各要素の変換では検索済みのキャッシュが使われます．
+ * </p>
  * 
  * @author koichik
  */
@@ -56,6 +66,17 @@ public class TypeMirrorUtils {
         PRIMITIVE_TYPES = unmodifiableMap(map);
     }
 
+    /**
+     * 処理環境ごとの {@link TypeMirror} のキャッシュ
+     * <p>
+     * javac は {@link Elements} のインスタンスを注釈処理のラウンドをまたいで使い回しますが，
+     * シンボルテーブルはラウンドごとに作り直すため， {@code java.lang.Object} の {@link TypeElement}
+     * をキーとします． キャッシュした {@link TypeMirror} はキーの {@link TypeElement}
+     * を参照しているため， 値を {@link SoftReference} で保持しないとキーが回収されなくなります．
+     * </p>
+     */
+    static final Map<TypeElement, SoftReference<Map<Object, TypeMirror>>> typeMirrorCaches = new WeakHashMap<TypeElement, SoftReference<Map<Object, TypeMirror>>>();
+
     private TypeMirrorUtils() {
     }
 
@@ -75,13 +96,48 @@ public class TypeMirrorUtils {
         assertNotNull("typeUtils", typeUtils);
         assertNotNull("elementUtils", elementUtils);
         assertNotNull("clazz", clazz);
+        return getTypeMirror(
+            typeUtils,
+            elementUtils,
+            getTypeMirrorCache(elementUtils),
+            clazz);
+    }
+
+    /**
+     * キャッシュを使ってクラスに対応する {@link TypeMirror} を返します．
+     * 
+     * @param typeUtils
+     *            {@link Types}
+     * @param elementUtils
+     *            {@link Elements}
+     * @param cache
+     *            処理環境の {@link TypeMirror} のキャッシュ， キャッシュしない場合は {@code null}
+     * @param clazz
+     *            クラス
+     * @return クラスに対応する{@link TypeMirror}， クラスが存在しない場合は {@literal null}
+     */
+    static TypeMirror getTypeMirror(final Types typeUtils,
+            final Elements elementUtils, final Map<Object, TypeMirror> cache,
+            final Class<?> clazz) {
+        TypeMirror typeMirror = get(cache, clazz);
+        if (typeMirror != null) {
+            return typeMirror;
+        }
         if (clazz.isArray()) {
-            return toArrayType(typeUtils, getTypeMirror(
+            typeMirror = toArrayType(typeUtils, getTypeMirror(
                 typeUtils,
                 elementUtils,
+                cache,
                 clazz.getComponentType()));
+        } else {
+            typeMirror = getTypeMirror(
+                typeUtils,
+                elementUtils,
+                cache,
+                clazz.getName());
         }
-        return getTypeMirror(typeUtils, elementUtils, clazz.getName());
+        put(cache, clazz, typeMirror);
+        return typeMirror;
     }
 
     /**
@@ -104,12 +160,64 @@ public class TypeMirrorUtils {
         assertNotNull("typeUtils", typeUtils);
         assertNotNull("elementUtils", elementUtils);
         assertNotEmpty("className", className);
+        return getTypeMirror(
+            typeUtils,
+            elementUtils,
+            getTypeMirrorCache(elementUtils),
+            className);
+    }
+
+    /**
+     * キャッシュを使ってクラス名に対応する {@link TypeMirror} を返します．
+     * 
+     * @param typeUtils
+     *            {@link Types}
+     * @param elementUtils
+     *            {@link Elements}
+     * @param cache
+     *            処理環境の {@link TypeMirror} のキャッシュ， キャッシュしない場合は {@code null}
+     * @param className
+     *            クラスの完全限定名
+     * @return クラスに対応する{@link TypeMirror}， クラスが存在しない場合は {@code null}
+     */
+    static TypeMirror getTypeMirror(final Types typeUtils,
+            final Elements elementUtils, final Map<Object, TypeMirror> cache,
+            final String className) {
+        TypeMirror typeMirror = get(cache, className);
+        if (typeMirror == null) {
+            typeMirror = resolveTypeMirror(
+                typeUtils,
+                elementUtils,
+                cache,
+                className);
+            put(cache, className, typeMirror);
+        }
+        return typeMirror;
+    }
+
+    /**
+     * クラス名を解析して対応する {@link TypeMirror} を返します．
+     * 
+     * @param typeUtils
+     *            {@link Types}
+     * @param elementUtils
+     *            {@link Elements}
+     * @param cache
+     *            処理環境の {@link TypeMirror} のキャッシュ， キャッシュしない場合は {@code null}
+     * @param className
+     *            クラスの完全限定名
+     * @return クラスに対応する{@link TypeMirror}， クラスが存在しない場合は {@code null}
+     */
+    static TypeMirror resolveTypeMirror(final Types typeUtils,
+            final Elements elementUtils, final Map<Object, TypeMirror> cache,
+            final String className) {
         if (className.endsWith("[]")) {
             final String componentTypeName = className.substring(0, className
                 .length() - 2);
             return toArrayType(typeUtils, getTypeMirror(
                 typeUtils,
                 elementUtils,
+                cache,
                 componentTypeName));
         }
         if (className.startsWith("[") && className.endsWith(";")) {
@@ -120,6 +228,7 @@ public class TypeMirrorUtils {
             TypeMirror typeMirror = getTypeMirror(
                 typeUtils,
                 elementUtils,
+                cache,
                 componentTypeName);
             for (int i = 0; i < pos; ++i) {
                 typeMirror = toArrayType(typeUtils, typeMirror);
@@ -137,6 +246,73 @@ public class TypeMirrorUtils {
         return typeElement.asType();
     }
 
+    /**
+     * 処理環境の {@link TypeMirror} のキャッシュを返します．
+     * 
+     * @param elementUtils
+     *            {@link Elements}
+     * @return 処理環境の {@link TypeMirror} のキャッシュ， キャッシュできない場合は {@code null}
+     */
+    static Map<Object, TypeMirror> getTypeMirrorCache(
+            final Elements elementUtils) {
+        final TypeElement objectElement = elementUtils
+            .getTypeElement(Object.class.getName());
+        if (objectElement == null) {
+            return null;
+        }
+        synchronized (typeMirrorCaches) {
+            final SoftReference<Map<Object, TypeMirror>> reference = typeMirrorCaches
+                .get(objectElement);
+            Map<Object, TypeMirror> cache = reference == null ? null
+                    : reference.get();
+            if (cache == null) {
+                cache = newHashMap();
+                typeMirrorCaches.put(
+                    objectElement,
+                    new SoftReference<Map<Object, TypeMirror>>(cache));
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * キャッシュから {@link TypeMirror} を返します．
+     * 
+     * @param cache
+     *            キャッシュ
+     * @param key
+     *            クラスまたはクラス名
+     * @return キャッシュされた {@link TypeMirror}， キャッシュされていない場合は {@code null}
+     */
+    static TypeMirror get(final Map<Object, TypeMirror> cache, final Object key) {
+        if (cache == null) {
+            return null;
+        }
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+    /**
+     * {@link TypeMirror} をキャッシュします．
+     * 
+     * @param cache
+     *            キャッシュ
+     * @param key
+     *            クラスまたはクラス名
+     * @param typeMirror
+     *            {@link TypeMirror}， {@code null} の場合はキャッシュしません
+     */
+    static void put(final Map<Object, TypeMirror> cache, final Object key,
+            final TypeMirror typeMirror) {
+        if (cache == null || typeMirror == null) {
+            return;
+        }
+        synchronized (cache) {
+            cache.put(key, typeMirror);
+        }
+    }
+
     /**
      * 引数の型を要素とする配列の {@link TypeMirror} を返します．
      * 
@@ -174,11 +350,13 @@ public class TypeMirrorUtils {
         assertNotNull("typeUtils", typeUtils);
         assertNotNull("elementUtils", elementUtils);
         assertNotNull("types", types);
+        final Map<Object, TypeMirror> cache = getTypeMirrorCache(elementUtils);
         final List<TypeMirror> typeMirrors = newArrayList();
         for (final Class<?> type : types) {
             final TypeMirror typeMirror = getTypeMirror(
                 typeUtils,
                 elementUtils,
+                cache,
                 type);
             if (typeMirror == null) {
                 throw new IllegalArgumentException("unknown type : " + type);
@@ -206,11 +384,13 @@ public class TypeMirrorUtils {
         assertNotNull("typeUtils", typeUtils);
         assertNotNull("elementUtils", elementUtils);
         assertNotNull("typeNames", typeNames);
+        final Map<Object, TypeMirror> cache = getTypeMirrorCache(elementUtils);
         final List<TypeMirror> typeMirrors = newArrayList();
         for (final String typeName : typeNames) {
             final TypeMirror typeMirror = getTypeMirror(
                 typeUtils,
                 elementUtils,
+                cache,
                 typeName);
             if (typeMirror == null) {
                 throw new IllegalArgumentException("unknown type : " + typeName);
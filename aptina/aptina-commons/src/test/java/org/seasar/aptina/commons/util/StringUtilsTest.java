@@ -53,6 +53,19 @@ public class StringUtilsTest extends TestCase {
         assertEquals("FOO", decapitalize("FOO"));
     }
 
+    /**
+     * @throws Exception
+     */
+    public void testToJsonString() throws Exception {
+        assertEquals("\"\"", toJsonString(""));
+        assertEquals("\"foo\"", toJsonString("foo"));
+        assertEquals("\"a\\\"b\\\\c\"", toJsonString("a\"b\\c"));
+        assertEquals(
+            "\"\\n\\r\\t\\u0001\"",
+            toJsonString("\n\r\t\u0001"));
+        assertEquals("\"\u3042\"", toJsonString("\u3042"));
+    }
+
     /**
      * @throws Exception
      */
@@ -19,24 +19,16 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.StringReader;
 import java.io.Writer;
 import java.lang.reflect.Field;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.Processor;
-import javax.annotation.processing.RoundEnvironment;
-import javax.annotation.processing.SupportedAnnotationTypes;
-import javax.annotation.processing.SupportedSourceVersion;
-import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
@@ -45,22 +37,16 @@ import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
-import javax.tools.DiagnosticCollector;
-import javax.tools.DiagnosticListener;
 import javax.tools.JavaCompiler;
-import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.StandardJavaFileManager;
-import javax.tools.StandardLocation;
-import javax.tools.ToolProvider;
 import javax.tools.JavaCompiler.CompilationTask;
-import javax.tools.JavaFileObject.Kind;
 
+import junit.framework.AssertionFailedError;
 import junit.framework.ComparisonFailure;
 import junit.framework.TestCase;
 
 import org.seasar.aptina.commons.util.AssertionUtils;
-import org.seasar.aptina.commons.util.DiagnosticUtils;
 import org.seasar.aptina.commons.util.ElementUtils;
 import org.seasar.aptina.commons.util.TypeMirrorUtils;
 
@@ -68,7 +54,6 @@ import static java.util.Arrays.*;
 
 import static org.seasar.aptina.commons.util.AssertionUtils.*;
 import static org.seasar.aptina.commons.util.CollectionUtils.*;
-import static org.seasar.aptina.commons.util.IOUtils.*;
 
 /**
  * {@link Processor} をテストするための抽象クラスです．
@@ -86,6 +71,15 @@ import static org.seasar.aptina.commons.util.IOUtils.*;
  * <li>{@link #setCharset(Charset)}</li>
  * <li>{@link #setCharset(String)}</li>
  * <li>{@link #setOut(Writer)}</li>
+ * <li>{@link #setCompilerSession(CompilerSession)}</li>
+ * <li>{@link #setCompilationCache(CompilationCache)}</li>
+ * <li>{@link #setDiagnosticSink(DiagnosticSink)}</li>
+ * <li>{@link #setIncremental(boolean)}</li>
+ * <li>{@link #setProcessingOnly(boolean)}</li>
+ * <li>{@link #setUpdateGoldenFiles(boolean)}</li>
+ * <li>{@link #setMeasureRetainedHeap(boolean)}</li>
+ * <li>{@link #setCompileTimeout(long, TimeUnit)}</li>
+ * <li>{@link #setTracer(CompilationTracer)}</li>
  * <li>{@link #addSourcePath(File...)}</li>
  * <li>{@link #addSourcePath(String...)}</li>
  * <li>{@link #addOption(String...)}</li>
@@ -106,6 +100,7 @@ import static org.seasar.aptina.commons.util.IOUtils.*;
  * <li>{@link #getDiagnostics(javax.tools.Diagnostic.Kind)}</li>
  * <li>{@link #getDiagnostics(Class, javax.tools.Diagnostic.Kind)}</li>
  * <li>{@link #getDiagnostics(String, javax.tools.Diagnostic.Kind)}</li>
+ * <li>{@link #getDiagnosticsWithCode(String)}</li>
  * <li>{@link #getProcessingEnvironment()}</li>
  * <li>{@link #getElementUtils()}</li>
  * <li>{@link #getTypeUtils()}</li>
@@ -123,6 +118,10 @@ import static org.seasar.aptina.commons.util.IOUtils.*;
  * <li>{@link #getTypeMirror(String)}</li>
  * <li>{@link #getGeneratedSource(Class)}</li>
  * <li>{@link #getGeneratedSource(String)}</li>
+ * <li>{@link #getClassLoader()}</li>
+ * <li>{@link #getProcessorStatistics()}</li>
+ * <li>{@link #getAllocatedBytes()}</li>
+ * <li>{@link #getRetainedHeapBytes()}</li>
  * </ul>
  * </dd>
  * <dt>{@link #compile()} 後に以下のメソッドを呼び出して生成されたソースの内容を検証することができます．</dt>
@@ -140,8 +139,19 @@ import static org.seasar.aptina.commons.util.IOUtils.*;
  * <li>{@link #assertEqualsGeneratedSourceWithResource(String, String)}</li>
  * </ul>
  * </dd>
+ * <dt>{@link #compile()} 後に以下のメソッドを呼び出してコンパイル中のメモリの使用量を検証することができます．</dt>
+ * <dd>
+ * <ul>
+ * <li>{@link #assertAllocatedLessThan(long)}</li>
+ * <li>{@link #assertRetainedLessThan(long)}</li>
+ * </ul>
+ * </dd>
  * </dl>
  * <p>
+ * {@link #compile()} の代わりに {@link #assertCompilesWithin(long, TimeUnit)}
+ * を呼び出すと， コンパイルが指定された時間内に完了することを検証できます．
+ * </p>
+ * <p>
  * {@link #compile()} を呼び出した後に状態をリセットしてコンパイル前の状態に戻すには， {@link #reset()} を呼び出します．
  * </p>
  * 
@@ -189,28 +199,42 @@ public abstract class AptinaTestCase extends TestCase {
 
     Writer out;
 
-    final List<String> options = newArrayList();
+    CompilerSession compilerSession = CompilerSession.getDefaultSession();
 
-    final List<File> sourcePaths = newArrayList();
+    CompilationCache compilationCache = CompilationCache.getDefaultCache();
 
-    final List<Processor> processors = newArrayList();
-    {
-        processors.add(new AptinaUnitProcessor());
-    }
+    DiagnosticSink diagnosticSink = DiagnosticSinks.createDefault();
+
+    boolean incremental;
 
-    final List<CompilationUnit> compilationUnits = newArrayList();
+    boolean processingOnly;
 
-    JavaCompiler javaCompiler;
+    boolean updateGoldenFiles = GoldenFiles.isUpdateEnabled();
 
-    DiagnosticCollector<JavaFileObject> diagnostics;
+    final GoldenFiles goldenFiles = new GoldenFiles();
 
-    StandardJavaFileManager standardJavaFileManager;
+    boolean measureRetainedHeap;
 
-    JavaFileManager testingJavaFileManager;
+    long allocatedBytes = -1;
 
-    ProcessingEnvironment processingEnvironment;
+    long heapBaseline = -1;
 
-    Boolean compiledResult;
+    long compileTimeoutNanos = Compilation.getDefaultTimeoutNanos();
+
+    CompilationTracer tracer = CompilationTracer.getTraceDirectory() != null ? new CompilationTracer()
+            : null;
+
+    final List<String> options = newArrayList();
+
+    final List<File> sourcePaths = newArrayList();
+
+    final List<Processor> processors = newArrayList();
+
+    final List<Compilation.CompilationUnit> compilationUnits = newArrayList();
+
+    CompilationResult compilationResult;
+
+    ClassLoader classLoader;
 
     /**
      * インスタンスを構築します．
@@ -229,13 +253,21 @@ public abstract class AptinaTestCase extends TestCase {
     }
 
     @Override
-    protected void tearDown() throws Exception {
-        if (testingJavaFileManager != null) {
-            try {
-                testingJavaFileManager.close();
-            } catch (final Exception ignore) {
-            }
+    protected void runTest() throws Throwable {
+        try {
+            super.runTest();
+        } catch (final Throwable t) {
+            diagnosticSink.flush(true);
+            throw t;
         }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        closeCompilationResult();
+        diagnosticSink.flush(false);
+        goldenFiles.write();
+        writeTrace();
         super.tearDown();
     }
 
@@ -328,6 +360,261 @@ public abstract class AptinaTestCase extends TestCase {
         this.out = out;
     }
 
+    /**
+     * コンパイラとファイルマネージャを共有する {@link CompilerSession} を返します．
+     * 
+     * @return {@link CompilerSession} または {@code null}
+     */
+    protected CompilerSession getCompilerSession() {
+        return compilerSession;
+    }
+
+    /**
+     * コンパイラとファイルマネージャを共有する {@link CompilerSession} を設定します．
+     * <p>
+     * 設定されなかった場合は {@link #compile()} のたびに {@link JavaCompiler} と
+     * {@link StandardJavaFileManager} が生成されます． ただし， システムプロパティ
+     * {@value CompilerSession#SHARED_SESSION_PROPERTY} に {@code true} が指定されている場合は
+     * {@link CompilerSession#getSharedSession()} が使われます．
+     * </p>
+     * 
+     * @param compilerSession
+     *            {@link CompilerSession}
+     */
+    protected void setCompilerSession(final CompilerSession compilerSession) {
+        this.compilerSession = compilerSession;
+    }
+
+    /**
+     * コンパイル中に作成された {@link Diagnostic} の出力先を返します．
+     * 
+     * @return {@link Diagnostic} の出力先
+     */
+    protected DiagnosticSink getDiagnosticSink() {
+        return diagnosticSink;
+    }
+
+    /**
+     * コンパイル中に作成された {@link Diagnostic} の出力先を設定します．
+     * <p>
+     * 設定されなかった場合は {@link DiagnosticSinks#createDefault()} が返す {@link DiagnosticSink}
+     * が使われます． 出力先はテストが失敗した時点と {@link #tearDown()} でフラッシュされます．
+     * {@link #reset()} を呼び出しても出力先はリセットされません．
+     * </p>
+     * 
+     * @param diagnosticSink
+     *            {@link Diagnostic} の出力先
+     */
+    protected void setDiagnosticSink(final DiagnosticSink diagnosticSink) {
+        AssertionUtils.assertNotNull("diagnosticSink", diagnosticSink);
+        this.diagnosticSink = diagnosticSink;
+    }
+
+    /**
+     * 注釈処理と解析だけを行う場合は {@code true} を返します．
+     * 
+     * @return 注釈処理と解析だけを行う場合は {@code true}
+     */
+    protected boolean isProcessingOnly() {
+        return processingOnly;
+    }
+
+    /**
+     * 注釈処理と解析だけを行い， クラスファイルを生成しないかどうかを設定します．
+     * <p>
+     * {@code true} を設定すると， {@link #compile()} は注釈処理と生成されたソースを含めた解析までを行い，
+     * バイトコードの生成を省略します． {@link #getGeneratedSource(String)} や
+     * {@link #getDiagnostics()} などはそのまま使うことができますが， {@link #getClassLoader()}
+     * で生成されたクラスをロードすることはできません． コンパイラの実行結果は， エラーの {@link Diagnostic}
+     * が作成されなかった場合に {@code true} となります．
+     * </p>
+     * 
+     * @param processingOnly
+     *            注釈処理と解析だけを行う場合は {@code true}
+     * @see Compilation#setProcessingOnly(boolean)
+     */
+    protected void setProcessingOnly(final boolean processingOnly) {
+        this.processingOnly = processingOnly;
+    }
+
+    /**
+     * ゴールデンファイルの更新モードの場合は {@code true} を返します．
+     * 
+     * @return ゴールデンファイルの更新モードの場合は {@code true}
+     */
+    protected boolean isUpdateGoldenFiles() {
+        return updateGoldenFiles;
+    }
+
+    /**
+     * ゴールデンファイルの更新モードを設定します．
+     * <p>
+     * 更新モードでは， {@link #assertEqualsGeneratedSourceWithFile(File, String)} や
+     * {@link #assertEqualsGeneratedSourceWithResource(String, String)} などは検証を行わず，
+     * 生成されたソースを期待される内容のファイルに書き込みます． 書き込みは {@link #tearDown()}
+     * でまとめて行われ， 内容が変わらないファイルは書き込まれません． クラスパス上のリソースは， システムプロパティ
+     * {@value GoldenFiles#RESOURCE_DIRECTORY_PROPERTY} にディレクトリが指定されていればその下に，
+     * そうでなければリソースのURLが表すファイルに書き込まれます．
+     * </p>
+     * <p>
+     * 設定されなかった場合は， システムプロパティ {@value GoldenFiles#UPDATE_PROPERTY} が
+     * {@code true} なら更新モードになります．
+     * </p>
+     * 
+     * @param updateGoldenFiles
+     *            ゴールデンファイルの更新モードの場合は {@code true}
+     */
+    protected void setUpdateGoldenFiles(final boolean updateGoldenFiles) {
+        this.updateGoldenFiles = updateGoldenFiles;
+    }
+
+    /**
+     * コンパイル後に残ったヒープの大きさを計測する場合は {@code true} を返します．
+     * 
+     * @return コンパイル後に残ったヒープの大きさを計測する場合は {@code true}
+     */
+    protected boolean isMeasureRetainedHeap() {
+        return measureRetainedHeap;
+    }
+
+    /**
+     * コンパイル後に残ったヒープの大きさを計測するかどうかを設定します．
+     * <p>
+     * {@code true} を設定すると， {@link #compile()} はコンパイルの前にガベージコレクションを実行してヒープの使用量を記録します．
+     * {@link #getRetainedHeapBytes()} や {@link #assertRetainedLessThan(long)}
+     * はこの値を基準にします． ガベージコレクションを繰り返すため， {@link #compile()} は遅くなります．
+     * </p>
+     * 
+     * @param measureRetainedHeap
+     *            コンパイル後に残ったヒープの大きさを計測する場合は {@code true}
+     */
+    protected void setMeasureRetainedHeap(final boolean measureRetainedHeap) {
+        this.measureRetainedHeap = measureRetainedHeap;
+    }
+
+    /**
+     * コンパイルの制限時間を返します．
+     * 
+     * @param unit
+     *            戻り値の単位
+     * @return コンパイルの制限時間， 制限しない場合は {@code 0}
+     */
+    protected long getCompileTimeout(final TimeUnit unit) {
+        AssertionUtils.assertNotNull("unit", unit);
+        return unit.convert(compileTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * コンパイルの制限時間を設定します．
+     * <p>
+     * 制限時間を過ぎても {@link #compile()} が完了しない場合， コンパイルを実行しているスレッドに割り込み，
+     * {@link CompilationTimeoutException} をスローします． 無限ループする {@link Processor}
+     * がテストの実行全体を止めてしまうことを防ぐことができます． 設定されなかった場合は， システムプロパティ
+     * {@value Compilation#COMPILE_TIMEOUT_PROPERTY} に指定されたミリ秒が使われます．
+     * </p>
+     * 
+     * @param timeout
+     *            制限時間， {@code 0} 以下の場合は制限しません
+     * @param unit
+     *            {@code timeout} の単位
+     * @see Compilation#setTimeout(long, TimeUnit)
+     */
+    protected void setCompileTimeout(final long timeout, final TimeUnit unit) {
+        AssertionUtils.assertNotNull("unit", unit);
+        compileTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * コンパイルを記録する {@link CompilationTracer} を返します．
+     * 
+     * @return {@link CompilationTracer} または {@code null}
+     */
+    protected CompilationTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * コンパイルのフェーズと {@link Processor} の呼び出しを記録する {@link CompilationTracer} を設定します．
+     * <p>
+     * システムプロパティ {@value CompilationTracer#TRACE_DIRECTORY_PROPERTY}
+     * にディレクトリが指定されている場合はデフォルトで {@link CompilationTracer} が設定され，
+     * {@link #tearDown()} でテストメソッドごとのトレースがそのディレクトリに出力されます．
+     * {@link #reset()} は {@link CompilationTracer} をリセットしないため， トレースにはテストメソッド中の全てのコンパイルが含まれます．
+     * </p>
+     * 
+     * @param tracer
+     *            {@link CompilationTracer} または {@code null}
+     * @see Compilation#setTracer(CompilationTracer)
+     */
+    protected void setTracer(final CompilationTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * インクリメンタルモードの場合は {@code true} を返します．
+     * 
+     * @return インクリメンタルモードの場合は {@code true}
+     */
+    protected boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * インクリメンタルモードを設定します．
+     * <p>
+     * インクリメンタルモードでは， {@link #compile()} は前回のコンパイルで生成されたソースやクラスファイルを引き継ぎ，
+     * 前回のコンパイル後に追加または変更されたコンパイル対象だけをコンパイルします．
+     * 前回のコンパイル対象はクラスファイルから参照されるため， 再びパースされることはありません．
+     * 編集・コンパイル・検証を繰り返すテストや， IDE のようなインクリメンタルビルドでの {@link Processor}
+     * の振る舞いをテストするために使用します．
+     * </p>
+     * 
+     * <pre>
+     * setIncremental(true);
+     * addProcessor(new XxxProcessor());
+     * addCompilationUnit(Foo.class);
+     * compile();
+     * 
+     * addProcessor(new XxxProcessor());
+     * addCompilationUnit(Bar.class);
+     * compile(); // Bar だけがコンパイルされる
+     * </pre>
+     * 
+     * @param incremental
+     *            インクリメンタルモードの場合は {@code true}
+     */
+    protected void setIncremental(final boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * コンパイルの結果をキャッシュする {@link CompilationCache} を返します．
+     * 
+     * @return {@link CompilationCache} または {@code null}
+     */
+    protected CompilationCache getCompilationCache() {
+        return compilationCache;
+    }
+
+    /**
+     * コンパイルの結果をキャッシュする {@link CompilationCache} を設定します．
+     * <p>
+     * 設定されなかった場合はコンパイルの結果をキャッシュしません． ただし， システムプロパティ
+     * {@value CompilationCache#CACHE_DIRECTORY_PROPERTY} にディレクトリが指定されている場合は，
+     * そのディレクトリに永続化される {@link CompilationCache} が使われます．
+     * </p>
+     * <p>
+     * キャッシュにヒットした場合は {@link Processor} が呼び出されないため，
+     * {@link #getProcessingEnvironment()} や {@link #getElementUtils()} などは使用できません．
+     * </p>
+     * 
+     * @param compilationCache
+     *            {@link CompilationCache}
+     */
+    protected void setCompilationCache(final CompilationCache compilationCache) {
+        this.compilationCache = compilationCache;
+    }
+
     /**
      * コンパイル時に参照するソースパスを追加します．
      * 
@@ -399,7 +686,7 @@ public abstract class AptinaTestCase extends TestCase {
      */
     protected void addCompilationUnit(final String className) {
         assertNotEmpty("className", className);
-        compilationUnits.add(new FileCompilationUnit(className));
+        compilationUnits.add(new Compilation.FileCompilationUnit(className));
     }
 
     /**
@@ -413,12 +700,15 @@ public abstract class AptinaTestCase extends TestCase {
     protected void addCompilationUnit(final Class<?> clazz,
             final CharSequence source) {
         AssertionUtils.assertNotNull("clazz", clazz);
-        assertNotEmpty("source", source);
         addCompilationUnit(clazz.getName(), source);
     }
 
     /**
      * コンパイル対象のクラスをソースとともに追加します．
+     * <p>
+     * {@link SourceSynthesizer#getSource(int)} が返すソースは保持されず，
+     * コンパイル時に読み込まれるたびに合成されます．
+     * </p>
      * 
      * @param className
      *            コンパイル対象クラスの完全限定名
@@ -428,44 +718,60 @@ public abstract class AptinaTestCase extends TestCase {
     protected void addCompilationUnit(final String className,
             final CharSequence source) {
         assertNotEmpty("className", className);
-        assertNotEmpty("source", source);
-        compilationUnits.add(new InMemoryCompilationUnit(className, source
-            .toString()));
+        compilationUnits.add(Compilation.createCompilationUnit(
+            className,
+            source));
     }
 
     /**
      * コンパイルを実行します．
+     * <p>
+     * インクリメンタルモードでは， 前回のコンパイルで生成されたソースやクラスファイルを引き継ぎ，
+     * 前回のコンパイル後に追加されたコンパイル対象だけをコンパイルします． {@link Processor}
+     * のインスタンスは一度しか使えないため， インクリメンタルモードではコンパイル後に追加された {@link Processor}
+     * もクリアされます．
+     * </p>
      * 
      * @throws IOException
      *             入出力例外が発生した場合
      */
     protected void compile() throws IOException {
-        javaCompiler = ToolProvider.getSystemJavaCompiler();
-        diagnostics = new DiagnosticCollector<JavaFileObject>();
-        final DiagnosticListener<JavaFileObject> listener = new LoggingDiagnosticListener(
-            diagnostics);
-
-        standardJavaFileManager = javaCompiler.getStandardFileManager(
-            listener,
-            locale,
-            charset);
-        standardJavaFileManager.setLocation(
-            StandardLocation.SOURCE_PATH,
-            sourcePaths);
-        testingJavaFileManager = new TestingJavaFileManager(
-            standardJavaFileManager,
-            charset);
-
-        final CompilationTask task = javaCompiler.getTask(
-            out,
-            testingJavaFileManager,
-            listener,
-            options,
-            null,
-            getCompilationUnits());
-        task.setProcessors(processors);
-        compiledResult = task.call();
+        if (!incremental) {
+            closeCompilationResult();
+            compilationResult = measure(createCompilation());
+            compilationUnits.clear();
+            return;
+        }
+        final Compilation compilation = createCompilation();
+        compilation.setPreviousResult(compilationResult);
+        final CompilationResult result = measure(compilation);
+        closeCompilationResult();
+        compilationResult = result;
         compilationUnits.clear();
+        processors.clear();
+    }
+
+    /**
+     * コンパイル中に割り当てられたメモリを計測しながらコンパイルを実行します．
+     * 
+     * @param compilation
+     *            {@link Compilation}
+     * @return コンパイルの結果
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    CompilationResult measure(final Compilation compilation)
+            throws IOException {
+        allocatedBytes = -1;
+        heapBaseline = measureRetainedHeap ? MemoryMeter.getUsedHeapAfterGc()
+                : -1;
+        final long before = MemoryMeter.getAllocatedBytes();
+        final CompilationResult result = compilation.compile();
+        if (before >= 0) {
+            allocatedBytes = MemoryMeter.getAllocatedBytes() - before
+                    + compilation.supervisedAllocatedBytes;
+        }
+        return result;
     }
 
     /**
@@ -478,7 +784,7 @@ public abstract class AptinaTestCase extends TestCase {
      */
     protected Boolean getCompiledResult() throws IllegalStateException {
         assertCompiled();
-        return compiledResult;
+        return compilationResult.getCompiledResult();
     }
 
     /**
@@ -491,7 +797,7 @@ public abstract class AptinaTestCase extends TestCase {
     protected List<Diagnostic<? extends JavaFileObject>> getDiagnostics()
             throws IllegalStateException {
         assertCompiled();
-        return diagnostics.getDiagnostics();
+        return compilationResult.getDiagnostics();
     }
 
     /**
@@ -504,7 +810,8 @@ public abstract class AptinaTestCase extends TestCase {
     protected List<Diagnostic<? extends JavaFileObject>> getDiagnostics(
             final Class<?> clazz) {
         assertCompiled();
-        return DiagnosticUtils.getDiagnostics(getDiagnostics(), clazz);
+        AssertionUtils.assertNotNull("clazz", clazz);
+        return compilationResult.getDiagnostics(clazz.getName());
     }
 
     /**
@@ -517,7 +824,7 @@ public abstract class AptinaTestCase extends TestCase {
     protected List<Diagnostic<? extends JavaFileObject>> getDiagnostics(
             final String className) {
         assertCompiled();
-        return DiagnosticUtils.getDiagnostics(getDiagnostics(), className);
+        return compilationResult.getDiagnostics(className);
     }
 
     /**
@@ -532,7 +839,7 @@ public abstract class AptinaTestCase extends TestCase {
     protected List<Diagnostic<? extends JavaFileObject>> getDiagnostics(
             final javax.tools.Diagnostic.Kind kind) {
         assertCompiled();
-        return DiagnosticUtils.getDiagnostics(getDiagnostics(), kind);
+        return compilationResult.getDiagnostics(kind);
     }
 
     /**
@@ -549,7 +856,8 @@ public abstract class AptinaTestCase extends TestCase {
     protected List<Diagnostic<? extends JavaFileObject>> getDiagnostics(
             final Class<?> clazz, final javax.tools.Diagnostic.Kind kind) {
         assertCompiled();
-        return DiagnosticUtils.getDiagnostics(getDiagnostics(), clazz, kind);
+        AssertionUtils.assertNotNull("clazz", clazz);
+        return compilationResult.getDiagnostics(clazz.getName(), kind);
     }
 
     /**
@@ -566,8 +874,104 @@ public abstract class AptinaTestCase extends TestCase {
     protected List<Diagnostic<? extends JavaFileObject>> getDiagnostics(
             final String className, final javax.tools.Diagnostic.Kind kind) {
         assertCompiled();
-        return DiagnosticUtils
-            .getDiagnostics(getDiagnostics(), className, kind);
+        return compilationResult.getDiagnostics(className, kind);
+    }
+
+    /**
+     * 指定されたコードを持つ {@link Diagnostic} のリストを返します．
+     * 
+     * @param code
+     *            取得する {@link Diagnostic#getCode()} のコード
+     * @return 指定されたコードを持つ {@link Diagnostic} のリスト
+     */
+    protected List<Diagnostic<? extends JavaFileObject>> getDiagnosticsWithCode(
+            final String code) {
+        assertCompiled();
+        return compilationResult.getDiagnosticsWithCode(code);
+    }
+
+    /**
+     * 追加された {@link Processor} ごとの呼び出し回数と処理時間を返します．
+     * <p>
+     * リストの要素は {@link Processor} が追加された順に並んでいます． 処理時間の予算を検証するには次のようにします．
+     * </p>
+     * 
+     * <pre>
+     * for (ProcessorStatistics statistics : getProcessorStatistics()) {
+     *     System.out.println(statistics);
+     *     assertTrue(statistics.getProcessTime(TimeUnit.MILLISECONDS) &lt; 100);
+     * }
+     * </pre>
+     * 
+     * @return {@link Processor} ごとの {@link ProcessorStatistics} のリスト
+     * @throws IllegalStateException
+     *             {@link #compile()} が呼び出されていない場合
+     */
+    protected List<ProcessorStatistics> getProcessorStatistics()
+            throws IllegalStateException {
+        assertCompiled();
+        return compilationResult.getProcessorStatistics();
+    }
+
+    /**
+     * 直前の {@link #compile()} で現在のスレッドが割り当てたメモリのバイト数を返します．
+     * <p>
+     * Java コンパイラと {@link Processor} は {@link #compile()} を呼び出したスレッドで実行されるため，
+     * この値はコンパイル全体で割り当てられたメモリの大きさになります．
+     * コンパイルの制限時間が設定されている場合は， コンパイルを実行したスレッドが割り当てたメモリも含まれます．
+     * </p>
+     * 
+     * @return 割り当てられたメモリのバイト数， JVM が計測をサポートしていない場合は {@code -1}
+     * @throws IllegalStateException
+     *             {@link #compile()} が呼び出されていない場合
+     */
+    protected long getAllocatedBytes() throws IllegalStateException {
+        assertCompiled();
+        return allocatedBytes;
+    }
+
+    /**
+     * 直前の {@link #compile()} の前から増えたヒープの使用量を返します．
+     * <p>
+     * ガベージコレクションを実行した後のヒープの使用量から， {@link #compile()}
+     * の前に記録したヒープの使用量を引いた値を返します． この値にはコンパイルの結果 ({@link Processor}
+     * に渡された {@link ProcessingEnvironment} を含みます) と， このテストケースが保持している
+     * {@link Processor} から到達可能なオブジェクトが含まれます．
+     * </p>
+     * 
+     * @return 増えたヒープの使用量のバイト数
+     * @throws IllegalStateException
+     *             {@link #compile()} が呼び出されていない場合や，
+     *             {@link #setMeasureRetainedHeap(boolean)} に {@code true}
+     *             が設定されていなかった場合
+     */
+    protected long getRetainedHeapBytes() throws IllegalStateException {
+        assertCompiled();
+        if (heapBaseline < 0) {
+            throw new IllegalStateException("retained heap not measured");
+        }
+        return MemoryMeter.getUsedHeapAfterGc() - heapBaseline;
+    }
+
+    /**
+     * コンパイル中に生成されたクラスファイルからクラスを定義する {@link ClassLoader} を返します．
+     * <p>
+     * 親 {@link ClassLoader} はテストクラスをロードした {@link ClassLoader} です．
+     * クラスのロードは親に先に委譲され， 親がロードできなかったクラスがメモリ上のクラスファイルから定義されます．
+     * 同じコンパイルの結果に対しては常に同じ {@link ClassLoader} を返します．
+     * </p>
+     * 
+     * @return 生成されたクラスを定義する {@link ClassLoader}
+     * @throws IllegalStateException
+     *             {@link #compile()} が呼び出されていない場合
+     */
+    protected ClassLoader getClassLoader() throws IllegalStateException {
+        assertCompiled();
+        if (classLoader == null) {
+            classLoader = compilationResult.getClassLoader(getClass()
+                .getClassLoader());
+        }
+        return classLoader;
     }
 
     /**
@@ -575,12 +979,17 @@ public abstract class AptinaTestCase extends TestCase {
      * 
      * @return {@link ProcessingEnvironment}
      * @throws IllegalStateException
-     *             {@link #compile()} が呼び出されていない場合
+     *             {@link #compile()} が呼び出されていない場合， またはコンパイルの結果が
+     *             {@link CompilationCache} から取得された場合
      */
     protected ProcessingEnvironment getProcessingEnvironment()
             throws IllegalStateException {
         assertCompiled();
-        return processingEnvironment;
+        if (compilationResult.isCached()) {
+            throw new IllegalStateException(
+                "compilation result is restored from cache");
+        }
+        return compilationResult.getProcessingEnvironment();
     }
 
     /**
@@ -593,7 +1002,7 @@ public abstract class AptinaTestCase extends TestCase {
      */
     protected Elements getElementUtils() throws IllegalStateException {
         assertCompiled();
-        return processingEnvironment.getElementUtils();
+        return getProcessingEnvironment().getElementUtils();
     }
 
     /**
@@ -606,7 +1015,7 @@ public abstract class AptinaTestCase extends TestCase {
      */
     protected Types getTypeUtils() throws IllegalStateException {
         assertCompiled();
-        return processingEnvironment.getTypeUtils();
+        return getProcessingEnvironment().getTypeUtils();
     }
 
     /**
@@ -900,23 +1309,15 @@ public abstract class AptinaTestCase extends TestCase {
             SourceNotGeneratedException {
         assertNotEmpty("className", className);
         assertCompiled();
-        final JavaFileObject javaFileObject = testingJavaFileManager
-            .getJavaFileForInput(
-                StandardLocation.SOURCE_OUTPUT,
-                className,
-                Kind.SOURCE);
-        if (javaFileObject == null) {
-            throw new SourceNotGeneratedException(className);
-        }
-        final CharSequence content = javaFileObject.getCharContent(true);
-        if (content == null) {
-            throw new SourceNotGeneratedException(className);
-        }
-        return content.toString();
+        return compilationResult.getGeneratedSource(className);
     }
 
     /**
      * 文字列を行単位で比較します．
+     * <p>
+     * 内容が等しい場合は行に分割せずに終了します． 異なる場合は最小の差分を求め， 全ての差分を unified
+     * 形式のハンクとしてメッセージに含む {@link ComparisonFailure} をスローします．
+     * </p>
      * 
      * @param expected
      *            期待される文字列
@@ -928,22 +1329,20 @@ public abstract class AptinaTestCase extends TestCase {
             assertEquals(expected, actual);
             return;
         }
-        final BufferedReader expectedReader = new BufferedReader(
-            new StringReader(expected.toString()));
-        final BufferedReader actualReader = new BufferedReader(
-            new StringReader(actual));
-        try {
-            assertEqualsByLine(expectedReader, actualReader);
-        } catch (final IOException ignore) {
-            // unreachable
-        } finally {
-            closeSilently(expectedReader);
-            closeSilently(actualReader);
+        if (expected.length() == actual.length()
+                && expected.hashCode() == actual.hashCode()
+                && expected.equals(actual)) {
+            return;
         }
+        assertEqualsByLine(LineDiff.toLines(expected), LineDiff.toLines(actual));
     }
 
     /**
      * 文字列を行単位で比較します．
+     * <p>
+     * 異なる場合は最小の差分を求め， 全ての差分を unified 形式のハンクとしてメッセージに含む
+     * {@link ComparisonFailure} をスローします．
+     * </p>
      * 
      * @param expectedReader
      *            期待される文字列の入力ストリーム
@@ -954,16 +1353,32 @@ public abstract class AptinaTestCase extends TestCase {
      */
     protected void assertEqualsByLine(final BufferedReader expectedReader,
             final BufferedReader actualReader) throws IOException {
-        String expectedLine;
-        String actualLine;
-        int lineNo = 0;
-        while ((expectedLine = expectedReader.readLine()) != null) {
-            ++lineNo;
-            actualLine = actualReader.readLine();
-            assertEquals("line:" + lineNo, expectedLine, actualLine);
+        assertEqualsByLine(
+            LineDiff.readLines(expectedReader),
+            LineDiff.readLines(actualReader));
+    }
+
+    /**
+     * 行のリストを比較します．
+     * 
+     * @param expected
+     *            期待される行のリスト
+     * @param actual
+     *            実際の行のリスト
+     * @throws ComparisonFailure
+     *             行のリストが一致しなかった場合
+     */
+    void assertEqualsByLine(final List<String> expected,
+            final List<String> actual) throws ComparisonFailure {
+        if (expected.equals(actual)) {
+            return;
         }
-        ++lineNo;
-        assertEquals("line:" + lineNo, null, actualReader.readLine());
+        final LineDiff diff = new LineDiff(expected, actual);
+        throw new ComparisonFailure(
+            "line:" + diff.getFirstDifference() + "\n"
+                    + diff.toUnifiedString(LineDiff.DEFAULT_CONTEXT),
+            join(expected),
+            join(actual));
     }
 
     /**
@@ -1068,9 +1483,17 @@ public abstract class AptinaTestCase extends TestCase {
         assertNotNull("expectedSourceFile", expectedSourceFile);
         assertNotEmpty("className", className);
         assertCompiled();
-        assertEqualsGeneratedSource(
-            readString(expectedSourceFile, charset),
-            className);
+        final String actual = getGeneratedSource(className);
+        if (updateGoldenFiles) {
+            goldenFiles.add(expectedSourceFile, actual, charset);
+            return;
+        }
+        if (GoldenFiles.matches(expectedSourceFile, actual, charset)) {
+            return;
+        }
+        assertEqualsByLine(ExpectedResourceCache.getInstance().read(
+            expectedSourceFile,
+            charset), actual);
     }
 
     /**
@@ -1178,9 +1601,19 @@ public abstract class AptinaTestCase extends TestCase {
         assertNotNull("expectedResourceUrl", expectedResourceUrl);
         assertNotEmpty("className", className);
         assertCompiled();
-        assertEqualsGeneratedSource(
-            readFromResource(expectedResourceUrl),
-            className);
+        final String actual = getGeneratedSource(className);
+        final File file = GoldenFiles.toFile(expectedResourceUrl);
+        if (updateGoldenFiles) {
+            if (file == null) {
+                throw new IOException("cannot update " + expectedResourceUrl);
+            }
+            goldenFiles.add(file, actual, charset);
+            return;
+        }
+        if (file != null && GoldenFiles.matches(file, actual, charset)) {
+            return;
+        }
+        assertEqualsByLine(readFromResource(expectedResourceUrl), actual);
     }
 
     /**
@@ -1207,8 +1640,8 @@ public abstract class AptinaTestCase extends TestCase {
         assertNotNull("clazz", clazz);
         assertCompiled();
         assertEqualsGeneratedSourceWithResource(
-            clazz.getName(),
-            expectedResource);
+            expectedResource,
+            clazz.getName());
     }
 
     /**
@@ -1234,6 +1667,14 @@ public abstract class AptinaTestCase extends TestCase {
         assertNotEmpty("expectedResource", expectedResource);
         assertNotEmpty("className", className);
         assertCompiled();
+        final File directory = GoldenFiles.getResourceDirectory();
+        if (updateGoldenFiles && directory != null) {
+            goldenFiles.add(
+                new File(directory, expectedResource),
+                getGeneratedSource(className),
+                charset);
+            return;
+        }
         final URL url = Thread
             .currentThread()
             .getContextClassLoader()
@@ -1244,6 +1685,89 @@ public abstract class AptinaTestCase extends TestCase {
         assertEqualsGeneratedSourceWithResource(url, className);
     }
 
+    /**
+     * 直前の {@link #compile()} で割り当てられたメモリが指定された大きさより小さいことを検証します．
+     * 
+     * @param bytes
+     *            割り当てられるメモリのバイト数の上限 (この値を含みません)
+     * @throws IllegalStateException
+     *             {@link #compile()} が呼び出されていない場合や， JVM が計測をサポートしていない場合
+     * @throws AssertionFailedError
+     *             割り当てられたメモリが指定された大きさ以上だった場合
+     * @see #getAllocatedBytes()
+     */
+    protected void assertAllocatedLessThan(final long bytes)
+            throws IllegalStateException, AssertionFailedError {
+        final long allocated = getAllocatedBytes();
+        if (allocated < 0) {
+            throw new IllegalStateException("allocation not measured");
+        }
+        if (allocated >= bytes) {
+            fail("allocated " + allocated + " bytes, expected less than "
+                    + bytes);
+        }
+    }
+
+    /**
+     * 直前の {@link #compile()} の前から増えたヒープの使用量が指定された大きさより小さいことを検証します．
+     * 
+     * @param bytes
+     *            増えたヒープの使用量のバイト数の上限 (この値を含みません)
+     * @throws IllegalStateException
+     *             {@link #compile()} が呼び出されていない場合や，
+     *             {@link #setMeasureRetainedHeap(boolean)} に {@code true}
+     *             が設定されていなかった場合
+     * @throws AssertionFailedError
+     *             増えたヒープの使用量が指定された大きさ以上だった場合
+     * @see #getRetainedHeapBytes()
+     */
+    protected void assertRetainedLessThan(final long bytes)
+            throws IllegalStateException, AssertionFailedError {
+        final long retained = getRetainedHeapBytes();
+        if (retained >= bytes) {
+            fail("retained " + retained + " bytes, expected less than "
+                    + bytes);
+        }
+    }
+
+    /**
+     * コンパイルを実行し， 指定された時間内に完了することを検証します．
+     * <p>
+     * 指定された時間をコンパイルの制限時間として {@link #compile()} を実行します．
+     * 制限時間を過ぎた場合はコンパイルを実行しているスレッドに割り込み， テストを失敗させます．
+     * </p>
+     * 
+     * @param timeout
+     *            コンパイルにかかる時間の上限
+     * @param unit
+     *            {@code timeout} の単位
+     * @throws IOException
+     *             入出力例外が発生した場合
+     * @throws CompilationTimeoutException
+     *             指定された時間内にコンパイルが完了しなかった場合
+     * @see #setCompileTimeout(long, TimeUnit)
+     */
+    protected void assertCompilesWithin(final long timeout, final TimeUnit unit)
+            throws IOException, CompilationTimeoutException {
+        AssertionUtils.assertNotNull("unit", unit);
+        final long budget = unit.toNanos(timeout);
+        final long saved = compileTimeoutNanos;
+        compileTimeoutNanos = budget;
+        try {
+            final long start = System.nanoTime();
+            compile();
+            final long elapsed = System.nanoTime() - start;
+            if (elapsed > budget) {
+                throw new CompilationTimeoutException("compilation took "
+                        + TimeUnit.NANOSECONDS.toMillis(elapsed)
+                        + " ms, expected within "
+                        + TimeUnit.NANOSECONDS.toMillis(budget) + " ms");
+            }
+        } finally {
+            compileTimeoutNanos = saved;
+        }
+    }
+
     /**
      * 設定をリセットし，初期状態に戻します．
      * <p>
@@ -1252,42 +1776,79 @@ public abstract class AptinaTestCase extends TestCase {
      * </p>
      */
     protected void reset() {
+        closeCompilationResult();
         locale = null;
         charset = null;
         out = null;
+        compilerSession = CompilerSession.getDefaultSession();
+        compilationCache = CompilationCache.getDefaultCache();
+        incremental = false;
+        processingOnly = false;
+        updateGoldenFiles = GoldenFiles.isUpdateEnabled();
+        measureRetainedHeap = false;
+        allocatedBytes = -1;
+        heapBaseline = -1;
+        compileTimeoutNanos = Compilation.getDefaultTimeoutNanos();
         options.clear();
         sourcePaths.clear();
         processors.clear();
-        processors.add(new AptinaUnitProcessor());
         compilationUnits.clear();
-        javaCompiler = null;
-        diagnostics = null;
-        standardJavaFileManager = null;
-        if (testingJavaFileManager != null) {
-            try {
-                testingJavaFileManager.close();
-            } catch (final Exception ignore) {
-            }
-        }
-        testingJavaFileManager = null;
-        processingEnvironment = null;
-        compiledResult = null;
     }
 
     /**
-     * 追加されたコンパイル対象のリストを返します．
+     * このテストケースの設定でコンパイルを実行する {@link Compilation} を作成します．
+     * 
+     * @return {@link Compilation}
+     */
+    Compilation createCompilation() {
+        final Compilation compilation = new Compilation();
+        compilation.setLocale(locale);
+        compilation.setCharset(charset);
+        compilation.setOut(out);
+        compilation.setCompilerSession(compilerSession);
+        compilation.setCompilationCache(compilationCache);
+        compilation.setDiagnosticSink(diagnosticSink);
+        compilation.setProcessingOnly(processingOnly);
+        compilation.setTimeout(compileTimeoutNanos, TimeUnit.NANOSECONDS);
+        compilation.setTracer(tracer);
+        compilation.options.addAll(options);
+        compilation.sourcePaths.addAll(sourcePaths);
+        compilation.processors.addAll(processors);
+        compilation.compilationUnits.addAll(compilationUnits);
+        return compilation;
+    }
+
+    /**
+     * システムプロパティ {@value CompilationTracer#TRACE_DIRECTORY_PROPERTY}
+     * にディレクトリが指定されている場合は， 記録したトレースを {@code クラス名.メソッド名.json} として出力します．
      * 
-     * @return 追加されたコンパイル対象のリスト
      * @throws IOException
      *             入出力例外が発生した場合
      */
-    List<JavaFileObject> getCompilationUnits() throws IOException {
-        final List<JavaFileObject> result = new ArrayList<JavaFileObject>(
-            compilationUnits.size());
-        for (final CompilationUnit compilationUnit : compilationUnits) {
-            result.add(compilationUnit.getJavaFileObject());
+    void writeTrace() throws IOException {
+        final File directory = CompilationTracer.getTraceDirectory();
+        if (directory == null || tracer == null
+                || tracer.getEventCount() == 0) {
+            return;
         }
-        return result;
+        tracer.write(new File(directory, getClass().getName() + "."
+                + getName() + ".json"));
+    }
+
+    /**
+     * 前回のコンパイルの結果をクローズして破棄します．
+     * <p>
+     * 破棄した後は {@link #compile()} を呼び出すまで， コンパイルの結果を参照するメソッドは
+     * {@link IllegalStateException} をスローします．
+     * インクリメンタルコンパイルでも破棄した結果を引き継ぐことはありません．
+     * </p>
+     */
+    void closeCompilationResult() {
+        if (compilationResult != null) {
+            compilationResult.close();
+            compilationResult = null;
+        }
+        classLoader = null;
     }
 
     /**
@@ -1297,7 +1858,7 @@ public abstract class AptinaTestCase extends TestCase {
      *             {@link #compile()} が呼び出されていない場合
      */
     void assertCompiled() throws IllegalStateException {
-        if (compiledResult == null) {
+        if (compilationResult == null) {
             throw new IllegalStateException("not compiled");
         }
     }
@@ -1307,6 +1868,7 @@ public abstract class AptinaTestCase extends TestCase {
      * <p>
      * URLで表されるリソースの内容は， {@link #charset} で指定された文字セットでエンコード
      * (未設定時はプラットフォームデフォルトの文字セット) されていなければなりません．
+     * 読み込んだ内容は {@link ExpectedResourceCache} にキャッシュされます．
      * </p>
      * 
      * @param url
@@ -1316,160 +1878,22 @@ public abstract class AptinaTestCase extends TestCase {
      *             入出力例外が発生した場合
      */
     String readFromResource(final URL url) throws IOException {
-        final InputStream is = url.openStream();
-        try {
-            return readString(is, charset);
-        } finally {
-            closeSilently(is);
-        }
+        return ExpectedResourceCache.getInstance().read(url, charset);
     }
 
     /**
-     * 発生した {@link Diagnostic} をコンソールに出力する {@link DiagnosticListener} です．
-     * <p>
-     * {@link Diagnostic} コンソールに出力した後，後続の {@link DiagnosticListener} へ通知します．
-     * </p>
+     * 行のリストを改行で連結した文字列を返します．
      * 
-     * @author koichik
+     * @param lines
+     *            行のリスト
+     * @return 行を改行で連結した文字列
      */
-    static class LoggingDiagnosticListener implements
-            DiagnosticListener<JavaFileObject> {
-
-        DiagnosticListener<JavaFileObject> listener;
-
-        /**
-         * インスタンスを構築します．
-         * 
-         * @param listener
-         *            後続の {@link DiagnosticListener}
-         */
-        LoggingDiagnosticListener(
-                final DiagnosticListener<JavaFileObject> listener) {
-            this.listener = listener;
-        }
-
-        @Override
-        public void report(final Diagnostic<? extends JavaFileObject> diagnostic) {
-            System.out.println(diagnostic);
-            listener.report(diagnostic);
+    static String join(final List<String> lines) {
+        final StringBuilder buf = new StringBuilder();
+        for (final String line : lines) {
+            buf.append(line).append('\n');
         }
-
-    }
-
-    /**
-     * コンパイル時に {@link Processor} に渡される @ ProcessingEnvironment} を取得するための
-     * {@link Processor} です．
-     * 
-     * @author koichik
-     */
-    @SupportedSourceVersion(SourceVersion.RELEASE_6)
-    @SupportedAnnotationTypes("*")
-    class AptinaUnitProcessor extends AbstractProcessor {
-
-        @Override
-        public synchronized void init(
-                final ProcessingEnvironment processingEnvironment) {
-            super.init(processingEnvironment);
-            AptinaTestCase.this.processingEnvironment = processingEnvironment;
-        }
-
-        @Override
-        public boolean process(final Set<? extends TypeElement> annotations,
-                final RoundEnvironment roundEnv) {
-            return false;
-        }
-
-    }
-
-    /**
-     * コンパイル対象を表すインタフェースです．
-     * 
-     * @author koichik
-     */
-    interface CompilationUnit {
-
-        /**
-         * このコンパイル対象に対応する {@link JavaFileObject} を返します．
-         * 
-         * @return このコンパイル対象に対応する {@link JavaFileObject}
-         * @throws IOException
-         *             入出力例外が発生した場合
-         */
-        JavaFileObject getJavaFileObject() throws IOException;
-
-    }
-
-    /**
-     * ソースパス上のファイルとして存在するコンパイル対象を表すクラスです．
-     * 
-     * @author koichik
-     */
-    class FileCompilationUnit implements CompilationUnit {
-
-        String className;
-
-        /**
-         * インスタンスを構築します．
-         * 
-         * @param className
-         *            クラス名
-         */
-        public FileCompilationUnit(final String className) {
-            this.className = className;
-        }
-
-        @Override
-        public JavaFileObject getJavaFileObject() throws IOException {
-            return standardJavaFileManager.getJavaFileForInput(
-                StandardLocation.SOURCE_PATH,
-                className,
-                Kind.SOURCE);
-        }
-
-    }
-
-    /**
-     * メモリ上に存在するコンパイル対象を表すクラスです．
-     * 
-     * @author koichik
-     */
-    class InMemoryCompilationUnit implements CompilationUnit {
-
-        String className;
-
-        String source;
-
-        /**
-         * インスタンスを構築します．
-         * 
-         * @param className
-         *            クラス名
-         * @param source
-         *            ソース
-         */
-        public InMemoryCompilationUnit(final String className,
-                final String source) {
-            this.className = className;
-            this.source = source;
-        }
-
-        @Override
-        public JavaFileObject getJavaFileObject() throws IOException {
-            final JavaFileObject javaFileObject = testingJavaFileManager
-                .getJavaFileForOutput(
-                    StandardLocation.SOURCE_OUTPUT,
-                    className,
-                    Kind.SOURCE,
-                    null);
-            final Writer writer = javaFileObject.openWriter();
-            try {
-                writer.write(source);
-            } finally {
-                closeSilently(writer);
-            }
-            return javaFileObject;
-        }
-
+        return buf.toString();
     }
 
 }
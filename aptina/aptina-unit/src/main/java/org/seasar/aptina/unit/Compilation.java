@@ -0,0 +1,1017 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileObject.Kind;
+
+import org.seasar.aptina.unit.CompilationCache.CachedCompilation;
+
+import static java.util.Arrays.*;
+
+import static org.seasar.aptina.commons.util.AssertionUtils.*;
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+import static org.seasar.aptina.commons.util.IOUtils.*;
+
+/**
+ * 一回のコンパイルを表すクラスです．
+ * <p>
+ * コンパイルオプションやコンパイル対象などを設定して {@link #compile()} を呼び出すと，
+ * コンパイルの結果が {@link CompilationResult} として返されます． {@link AptinaTestCase}
+ * と異なり，コンパイルの結果はこのインスタンスの状態として保持されないため，
+ * 独立した複数のインスタンスを異なるスレッドで同時にコンパイルすることができます．
+ * </p>
+ * <p>
+ * このクラスのメソッドはスレッドセーフです． ただし， {@link Processor} のインスタンスは一度しか初期化できないため，
+ * 同じ {@link Processor} のインスタンスを複数のインスタンスに追加することはできません．
+ * </p>
+ * <p>
+ * 次のサンプルは， {@link CompilerSession} を共有しながら複数のシナリオを並行してコンパイルします．
+ * </p>
+ * 
+ * <pre>
+ * final CompilerSession session = new CompilerSession();
+ * final ExecutorService executor = Executors.newFixedThreadPool(4);
+ * final List&lt;Future&lt;CompilationResult&gt;&gt; futures = new ArrayList&lt;Future&lt;CompilationResult&gt;&gt;();
+ * for (final String source : sources) {
+ *     final Compilation compilation = new Compilation();
+ *     compilation.setCompilerSession(session);
+ *     compilation.addProcessor(new XxxProcessor());
+ *     compilation.addCompilationUnit("Foo", source);
+ *     futures.add(executor.submit(new Callable&lt;CompilationResult&gt;() {
+ *         public CompilationResult call() throws Exception {
+ *             return compilation.compile();
+ *         }
+ *     }));
+ * }
+ * for (final Future&lt;CompilationResult&gt; future : futures) {
+ *     final CompilationResult result = future.get();
+ *     try {
+ *         assertTrue(result.getCompiledResult());
+ *     } finally {
+ *         result.close();
+ *     }
+ * }
+ * </pre>
+ * 
+ * @author koichik
+ */
+public class Compilation {
+
+    /** デフォルトのコンパイルの制限時間をミリ秒で指定するシステムプロパティの名前 */
+    public static final String COMPILE_TIMEOUT_PROPERTY = "aptina.unit.compileTimeout";
+
+    static final String JAVAC_TASK_CLASS_NAME = "com.sun.source.util.JavacTask";
+
+    Locale locale;
+
+    Charset charset;
+
+    Writer out;
+
+    CompilerSession compilerSession;
+
+    CompilationCache compilationCache;
+
+    DiagnosticSink diagnosticSink;
+
+    CompilationResult previousResult;
+
+    boolean processingOnly;
+
+    long timeoutNanos;
+
+    CompilationTracer tracer;
+
+    /** 監視されたスレッドでコンパイルを実行した場合にそのスレッドが割り当てたメモリのバイト数 */
+    volatile long supervisedAllocatedBytes;
+
+    final List<String> options = newArrayList();
+
+    final List<File> sourcePaths = newArrayList();
+
+    final List<Processor> processors = newArrayList();
+
+    final List<CompilationUnit> compilationUnits = newArrayList();
+
+    /**
+     * インスタンスを構築します．
+     */
+    public Compilation() {
+        timeoutNanos = getDefaultTimeoutNanos();
+    }
+
+    /**
+     * システムプロパティ {@value #COMPILE_TIMEOUT_PROPERTY} に指定されたコンパイルの制限時間を返します．
+     * 
+     * @return コンパイルの制限時間 (ナノ秒)， 指定されていない場合は {@code 0}
+     */
+    static long getDefaultTimeoutNanos() {
+        final String timeout = System.getProperty(COMPILE_TIMEOUT_PROPERTY);
+        if (timeout == null || timeout.length() == 0) {
+            return 0;
+        }
+        return TimeUnit.MILLISECONDS.toNanos(Long.parseLong(timeout));
+    }
+
+    /**
+     * ロケールを設定します．
+     * <p>
+     * 設定されなかった場合はプラットフォームデフォルトのロケールが使われます．
+     * </p>
+     * 
+     * @param locale
+     *            ロケール
+     */
+    public synchronized void setLocale(final Locale locale) {
+        this.locale = locale;
+    }
+
+    /**
+     * 文字セットを設定します．
+     * <p>
+     * 設定されなかった場合はプラットフォームデフォルトの文字セットが使われます．
+     * </p>
+     * 
+     * @param charset
+     *            文字セット
+     */
+    public synchronized void setCharset(final Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * コンパイラがメッセージを出力する{@link Writer}を設定します．
+     * <p>
+     * 設定されなかった場合は標準エラーが使われます．
+     * </p>
+     * 
+     * @param out
+     *            コンパイラがメッセージを出力する{@link Writer}
+     */
+    public synchronized void setOut(final Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * コンパイラとファイルマネージャを共有する {@link CompilerSession} を設定します．
+     * <p>
+     * 設定されなかった場合は {@link #compile()} のたびに {@link JavaCompiler} と
+     * {@link StandardJavaFileManager} が生成されます．
+     * </p>
+     * 
+     * @param compilerSession
+     *            {@link CompilerSession}
+     */
+    public synchronized void setCompilerSession(
+            final CompilerSession compilerSession) {
+        this.compilerSession = compilerSession;
+    }
+
+    /**
+     * コンパイル中に作成された {@link Diagnostic} の出力先を設定します．
+     * <p>
+     * 設定されなかった場合は {@link Diagnostic} が作成されるたびに標準出力に出力されます．
+     * </p>
+     * 
+     * @param diagnosticSink
+     *            {@link Diagnostic} の出力先
+     * @see DiagnosticSinks
+     */
+    public synchronized void setDiagnosticSink(
+            final DiagnosticSink diagnosticSink) {
+        this.diagnosticSink = diagnosticSink;
+    }
+
+    /**
+     * コンパイルの結果をキャッシュする {@link CompilationCache} を設定します．
+     * <p>
+     * 設定されなかった場合はコンパイルの結果をキャッシュしません．
+     * </p>
+     * 
+     * @param compilationCache
+     *            {@link CompilationCache}
+     */
+    public synchronized void setCompilationCache(
+            final CompilationCache compilationCache) {
+        this.compilationCache = compilationCache;
+    }
+
+    /**
+     * 注釈処理と解析だけを行い， クラスファイルを生成しないかどうかを設定します．
+     * <p>
+     * {@code true} を設定すると， 注釈処理と生成されたソースを含めた解析 (属性付けとフロー解析) までを行い，
+     * バイトコードの生成とクラスファイルの書き出しを省略します． 生成されたソースと {@link Diagnostic}
+     * だけを検証するテストでは， コンパイルにかかる時間を短縮することができます．
+     * この場合のコンパイラの実行結果は， エラーの {@link Diagnostic} が作成されなかった場合に {@code true} となります．
+     * </p>
+     * <p>
+     * クラスファイルが生成されないため， {@link CompilationResult#getClassLoader()} で生成されたクラスをロードしたり，
+     * 結果をインクリメンタルコンパイルの基にしたりすることはできません． 使用している Java コンパイラが
+     * {@code com.sun.source.util.JavacTask} でない場合は通常のコンパイルを行います．
+     * </p>
+     * 
+     * @param processingOnly
+     *            注釈処理と解析だけを行う場合は {@code true}
+     */
+    public synchronized void setProcessingOnly(final boolean processingOnly) {
+        this.processingOnly = processingOnly;
+    }
+
+    /**
+     * コンパイルの制限時間を設定します．
+     * <p>
+     * 正の値を設定すると， Java コンパイラは監視されたデーモンスレッドで実行されます．
+     * 制限時間内にコンパイルが完了しなかった場合， {@link #compile()} はコンパイルを実行しているスレッドに割り込み，
+     * 以降のラウンドで {@link Processor} が呼び出されないようにした上で {@link CompilationTimeoutException}
+     * をスローします． 設定されなかった場合は， システムプロパティ {@value #COMPILE_TIMEOUT_PROPERTY}
+     * に指定されたミリ秒が使われます．
+     * </p>
+     * 
+     * @param timeout
+     *            制限時間， {@code 0} 以下の場合は制限しません
+     * @param unit
+     *            {@code timeout} の単位
+     */
+    public synchronized void setTimeout(final long timeout, final TimeUnit unit) {
+        assertNotNull("unit", unit);
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * コンパイルのフェーズと {@link Processor} の呼び出しを記録する {@link CompilationTracer} を設定します．
+     * <p>
+     * 設定されなかった場合は記録しません． {@link CompilationCache} から取得した結果の場合は何も記録されません．
+     * </p>
+     * 
+     * @param tracer
+     *            {@link CompilationTracer} または {@code null}
+     */
+    public synchronized void setTracer(final CompilationTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * インクリメンタルコンパイルの基になる前回のコンパイルの結果を設定します．
+     * <p>
+     * 設定された場合， 前回のコンパイルで生成されたソースやクラスファイルなどを引き継ぎ，
+     * 追加されたコンパイル対象だけをコンパイルします． 前回のコンパイルで生成されたクラスファイルはクラスパス上のクラスとして参照されるため，
+     * 前回のコンパイル対象が再びパースされることはありません． このコンパイルの対象と同じクラスのクラスファイルは引き継がれません．
+     * </p>
+     * <p>
+     * 前回のコンパイルの結果は， このインスタンスの {@link #compile()} が完了するまでクローズしてはいけません．
+     * インクリメンタルコンパイルでは {@link CompilationCache} は使われません．
+     * </p>
+     * 
+     * @param previousResult
+     *            前回のコンパイルの結果または {@code null}
+     * @throws IllegalArgumentException
+     *             前回のコンパイルの結果がクローズされている場合
+     */
+    public synchronized void setPreviousResult(
+            final CompilationResult previousResult)
+            throws IllegalArgumentException {
+        if (previousResult != null && previousResult.isClosed()) {
+            throw new IllegalArgumentException("previousResult closed");
+        }
+        this.previousResult = previousResult;
+    }
+
+    /**
+     * コンパイル時に参照するソースパスを追加します．
+     * 
+     * @param sourcePaths
+     *            コンパイル時に参照するソースパスの並び
+     */
+    public synchronized void addSourcePath(final File... sourcePaths) {
+        assertNotEmpty("sourcePaths", sourcePaths);
+        this.sourcePaths.addAll(asList(sourcePaths));
+    }
+
+    /**
+     * コンパイラオプションを追加します．
+     * 
+     * @param options
+     *            形式のコンパイラオプションの並び
+     */
+    public synchronized void addOption(final String... options) {
+        assertNotEmpty("options", options);
+        this.options.addAll(asList(options));
+    }
+
+    /**
+     * 注釈を処理する{@link Processor}を追加します．
+     * 
+     * @param processors
+     *            注釈を処理する{@link Processor}の並び
+     */
+    public synchronized void addProcessor(final Processor... processors) {
+        assertNotEmpty("processors", processors);
+        this.processors.addAll(asList(processors));
+    }
+
+    /**
+     * コンパイル対象のクラスを追加します．
+     * <p>
+     * 指定されたクラスのソースはソースパス上に存在していなければなりません．
+     * </p>
+     * 
+     * @param className
+     *            コンパイル対象クラスの完全限定名
+     */
+    public synchronized void addCompilationUnit(final String className) {
+        assertNotEmpty("className", className);
+        compilationUnits.add(new FileCompilationUnit(className));
+    }
+
+    /**
+     * コンパイル対象のクラスをソースとともに追加します．
+     * <p>
+     * {@link SourceSynthesizer#getSource(int)} が返すソースは保持されず，
+     * コンパイル時に読み込まれるたびに合成されます．
+     * </p>
+     * 
+     * @param className
+     *            コンパイル対象クラスの完全限定名
+     * @param source
+     *            ソース
+     */
+    public synchronized void addCompilationUnit(final String className,
+            final CharSequence source) {
+        assertNotEmpty("className", className);
+        compilationUnits.add(createCompilationUnit(className, source));
+    }
+
+    /**
+     * メモリ上のコンパイル対象を作成します．
+     * <p>
+     * ソースが {@link SourceSynthesizer} によって合成されるソースの場合は，
+     * ソースを保持せずに読み込まれるたびに合成するコンパイル対象を作成します．
+     * </p>
+     * 
+     * @param className
+     *            コンパイル対象クラスの完全限定名
+     * @param source
+     *            ソース
+     * @return コンパイル対象
+     */
+    static CompilationUnit createCompilationUnit(final String className,
+            final CharSequence source) {
+        if (source instanceof SourceSynthesizer.SyntheticSource) {
+            return new SyntheticCompilationUnit(
+                className,
+                SourceSynthesizer.SyntheticSource.class.cast(source));
+        }
+        assertNotEmpty("source", source);
+        return new InMemoryCompilationUnit(className, source.toString());
+    }
+
+    /**
+     * コンパイルを実行します．
+     * <p>
+     * 返された {@link CompilationResult} は， 使い終わったら {@link CompilationResult#close()}
+     * でクローズしなければなりません．
+     * </p>
+     * <p>
+     * {@link CompilationCache} が設定されていて， 同じ入力によるコンパイルの結果がキャッシュされている場合は，
+     * Java コンパイラを起動せずにキャッシュされた結果を返します．
+     * </p>
+     * 
+     * @return コンパイルの結果
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    public synchronized CompilationResult compile() throws IOException {
+        final IndexedDiagnosticCollector diagnostics = new IndexedDiagnosticCollector();
+        final DiagnosticListener<JavaFileObject> listener = new LoggingDiagnosticListener(
+            diagnosticSink != null ? diagnosticSink : DiagnosticSinks
+                .sync(System.out),
+            diagnostics);
+
+        final JavaCompiler javaCompiler;
+        final StandardJavaFileManager standardJavaFileManager;
+        if (compilerSession != null) {
+            javaCompiler = compilerSession.getJavaCompiler();
+            standardJavaFileManager = compilerSession.acquireFileManager(
+                locale,
+                charset,
+                options);
+        } else {
+            javaCompiler = ToolProvider.getSystemJavaCompiler();
+            standardJavaFileManager = javaCompiler.getStandardFileManager(
+                listener,
+                locale,
+                charset);
+        }
+        final TestingJavaFileManager testingJavaFileManager = new TestingJavaFileManager(
+            standardJavaFileManager,
+            charset);
+        boolean succeeded = false;
+        try {
+            standardJavaFileManager.setLocation(
+                StandardLocation.SOURCE_PATH,
+                sourcePaths);
+
+            if (previousResult != null) {
+                previousResult.assertOpen();
+                final Set<String> classNames = new HashSet<String>();
+                for (final CompilationUnit compilationUnit : compilationUnits) {
+                    classNames.add(compilationUnit.getClassName());
+                }
+                testingJavaFileManager.inherit(
+                    previousResult.testingJavaFileManager,
+                    classNames);
+            }
+            final List<JavaFileObject> javaFileObjects = getJavaFileObjects(
+                standardJavaFileManager,
+                testingJavaFileManager);
+            final String cacheKey = compilationCache == null
+                    || previousResult != null ? null
+                    : CompilationCache.createKey(
+                        locale,
+                        charset,
+                        options,
+                        processingOnly,
+                        this.processors,
+                        sourcePaths,
+                        javaFileObjects);
+            final CachedCompilation cachedCompilation = cacheKey == null ? null
+                    : compilationCache.get(cacheKey);
+            final CompilationResult result;
+            if (cachedCompilation != null) {
+                for (final Diagnostic<? extends JavaFileObject> diagnostic : cachedCompilation
+                    .restore(testingJavaFileManager)) {
+                    listener.report(diagnostic);
+                }
+                result = new CompilationResult(
+                    compilerSession,
+                    standardJavaFileManager,
+                    testingJavaFileManager,
+                    cachedCompilation.compiledResult,
+                    diagnostics,
+                    null,
+                    Collections.<ProcessorStatistics> emptyList(),
+                    true);
+            } else {
+                final AptinaUnitProcessor aptinaUnitProcessor = new AptinaUnitProcessor();
+                final List<Processor> processors = newArrayList();
+                processors.add(aptinaUnitProcessor);
+                final List<ProcessorStatistics> processorStatistics = newArrayList();
+                for (final Processor processor : this.processors) {
+                    final InstrumentedProcessor instrumentedProcessor = new InstrumentedProcessor(
+                        processor,
+                        aptinaUnitProcessor,
+                        tracer);
+                    processors.add(instrumentedProcessor);
+                    processorStatistics.add(instrumentedProcessor.statistics);
+                }
+
+                final CompilationTask task = javaCompiler.getTask(
+                    out,
+                    testingJavaFileManager,
+                    listener,
+                    options,
+                    null,
+                    javaFileObjects);
+                task.setProcessors(processors);
+                if (tracer != null) {
+                    tracer.install(task);
+                }
+                final long start = System.nanoTime();
+                final Boolean compiledResult = call(
+                    task,
+                    diagnostics,
+                    aptinaUnitProcessor);
+                if (tracer != null) {
+                    tracer.record(
+                        "compile",
+                        "aptina",
+                        start,
+                        System.nanoTime(),
+                        "compilationUnits",
+                        javaFileObjects.size(),
+                        "rounds",
+                        aptinaUnitProcessor.round);
+                }
+                result = new CompilationResult(
+                    compilerSession,
+                    standardJavaFileManager,
+                    testingJavaFileManager,
+                    compiledResult,
+                    diagnostics,
+                    aptinaUnitProcessor.processingEnvironment,
+                    processorStatistics,
+                    false);
+                if (cacheKey != null) {
+                    compilationCache.put(cacheKey, CachedCompilation.of(
+                        result,
+                        locale));
+                }
+            }
+            succeeded = true;
+            return result;
+        } catch (final CompilationTimeoutException e) {
+            // コンパイルを実行しているスレッドがまだ使っているため，セッションへは返却しない
+            if (compilerSession != null) {
+                compilerSession.discardFileManager(standardJavaFileManager);
+            } else {
+                closeFileManager(
+                    null,
+                    standardJavaFileManager,
+                    testingJavaFileManager);
+            }
+            succeeded = true;
+            throw e;
+        } finally {
+            if (!succeeded) {
+                closeFileManager(
+                    compilerSession,
+                    standardJavaFileManager,
+                    testingJavaFileManager);
+            }
+        }
+    }
+
+    /**
+     * {@link CompilationTask} を実行します．
+     * <p>
+     * 制限時間が設定されている場合は， 監視されたデーモンスレッドで実行し， 制限時間を過ぎたら割り込みます．
+     * </p>
+     * 
+     * @param task
+     *            {@link CompilationTask}
+     * @param diagnostics
+     *            コンパイル中に作成された {@link Diagnostic} を保持する
+     *            {@link IndexedDiagnosticCollector}
+     * @param aptinaUnitProcessor
+     *            ラウンドを数える {@link AptinaUnitProcessor}
+     * @return コンパイラの実行結果
+     * @throws IOException
+     *             待機中に割り込まれた場合
+     * @throws CompilationTimeoutException
+     *             制限時間内にコンパイルが完了しなかった場合
+     */
+    Boolean call(final CompilationTask task,
+            final IndexedDiagnosticCollector diagnostics,
+            final AptinaUnitProcessor aptinaUnitProcessor) throws IOException,
+            CompilationTimeoutException {
+        supervisedAllocatedBytes = 0;
+        if (timeoutNanos <= 0) {
+            return processingOnly ? analyze(task, diagnostics) : task.call();
+        }
+        final FutureTask<Boolean> future = new FutureTask<Boolean>(
+            new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws Exception {
+                    final long before = MemoryMeter.getAllocatedBytes();
+                    try {
+                        return processingOnly ? analyze(task, diagnostics)
+                                : task.call();
+                    } finally {
+                        if (before >= 0) {
+                            supervisedAllocatedBytes = MemoryMeter
+                                .getAllocatedBytes()
+                                    - before;
+                        }
+                    }
+                }
+
+            });
+        final Thread thread = new Thread(future, "aptina-unit-compiler");
+        thread.setDaemon(true);
+        thread.setContextClassLoader(Thread
+            .currentThread()
+            .getContextClassLoader());
+        thread.start();
+        try {
+            return future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException e) {
+            aptinaUnitProcessor.cancelled = true;
+            final Throwable compilerThread = new Throwable(thread.getName());
+            compilerThread.setStackTrace(thread.getStackTrace());
+            thread.interrupt();
+            final CompilationTimeoutException exception = new CompilationTimeoutException(
+                "compilation did not complete within "
+                        + TimeUnit.NANOSECONDS.toMillis(timeoutNanos)
+                        + " ms (round " + aptinaUnitProcessor.round + ")");
+            exception.initCause(compilerThread);
+            throw exception;
+        } catch (final InterruptedException e) {
+            aptinaUnitProcessor.cancelled = true;
+            thread.interrupt();
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException().initCause(e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw RuntimeException.class.cast(cause);
+            }
+            if (cause instanceof Error) {
+                throw Error.class.cast(cause);
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * {@code com.sun.source.util.JavacTask#analyze()} を呼び出して， 注釈処理と解析だけを行います．
+     * <p>
+     * {@code com.sun.source.util.JavacTask} はコンパイル時のクラスパスに含まれないため，
+     * リフレクションで呼び出します． {@link CompilationTask} が {@code JavacTask} でない場合は
+     * {@link CompilationTask#call()} を呼び出します．
+     * </p>
+     * 
+     * @param task
+     *            {@link CompilationTask}
+     * @param diagnostics
+     *            コンパイル中に作成された {@link Diagnostic} を保持する
+     *            {@link IndexedDiagnosticCollector}
+     * @return エラーの {@link Diagnostic} が作成されなかった場合は {@code true}
+     */
+    static Boolean analyze(final CompilationTask task,
+            final IndexedDiagnosticCollector diagnostics) {
+        final Method analyze;
+        try {
+            final Class<?> javacTaskClass = Class.forName(
+                JAVAC_TASK_CLASS_NAME,
+                false,
+                task.getClass().getClassLoader());
+            if (!javacTaskClass.isInstance(task)) {
+                return task.call();
+            }
+            analyze = javacTaskClass.getMethod("analyze");
+        } catch (final ClassNotFoundException e) {
+            return task.call();
+        } catch (final NoSuchMethodException e) {
+            return task.call();
+        }
+        try {
+            analyze.invoke(task);
+        } catch (final IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (final InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw RuntimeException.class.cast(cause);
+            }
+            if (cause instanceof Error) {
+                throw Error.class.cast(cause);
+            }
+            throw new RuntimeException(cause);
+        }
+        return diagnostics.getDiagnostics(Diagnostic.Kind.ERROR).isEmpty();
+    }
+
+    /**
+     * 追加されたコンパイル対象の {@link JavaFileObject} のリストを返します．
+     * 
+     * @param standardJavaFileManager
+     *            {@link StandardJavaFileManager}
+     * @param testingJavaFileManager
+     *            {@link TestingJavaFileManager}
+     * @return 追加されたコンパイル対象の {@link JavaFileObject} のリスト
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    List<JavaFileObject> getJavaFileObjects(
+            final StandardJavaFileManager standardJavaFileManager,
+            final JavaFileManager testingJavaFileManager) throws IOException {
+        final List<JavaFileObject> result = new ArrayList<JavaFileObject>(
+            compilationUnits.size());
+        for (final CompilationUnit compilationUnit : compilationUnits) {
+            result.add(compilationUnit.getJavaFileObject(
+                standardJavaFileManager,
+                testingJavaFileManager));
+        }
+        return result;
+    }
+
+    /**
+     * コンパイルで使用したファイルマネージャをクローズします．
+     * <p>
+     * {@link CompilerSession} から借りた {@link StandardJavaFileManager} はクローズせずに返却します．
+     * </p>
+     * 
+     * @param compilerSession
+     *            {@link CompilerSession} または {@code null}
+     * @param standardJavaFileManager
+     *            {@link StandardJavaFileManager}
+     * @param testingJavaFileManager
+     *            {@link TestingJavaFileManager}
+     */
+    static void closeFileManager(final CompilerSession compilerSession,
+            final StandardJavaFileManager standardJavaFileManager,
+            final JavaFileManager testingJavaFileManager) {
+        if (compilerSession != null) {
+            compilerSession.releaseFileManager(standardJavaFileManager);
+            return;
+        }
+        try {
+            testingJavaFileManager.close();
+        } catch (final Exception ignore) {
+        }
+    }
+
+    /**
+     * 発生した {@link Diagnostic} を {@link DiagnosticSink} に出力する {@link DiagnosticListener}
+     * です．
+     * <p>
+     * {@link Diagnostic} を {@link DiagnosticSink} に出力した後，後続の {@link DiagnosticListener}
+     * へ通知します．
+     * </p>
+     * 
+     * @author koichik
+     */
+    static class LoggingDiagnosticListener implements
+            DiagnosticListener<JavaFileObject> {
+
+        DiagnosticSink sink;
+
+        DiagnosticListener<JavaFileObject> listener;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param sink
+         *            {@link Diagnostic} の出力先
+         * @param listener
+         *            後続の {@link DiagnosticListener}
+         */
+        LoggingDiagnosticListener(final DiagnosticSink sink,
+                final DiagnosticListener<JavaFileObject> listener) {
+            this.sink = sink;
+            this.listener = listener;
+        }
+
+        @Override
+        public void report(final Diagnostic<? extends JavaFileObject> diagnostic) {
+            sink.report(diagnostic);
+            listener.report(diagnostic);
+        }
+
+    }
+
+    /**
+     * コンパイル時に {@link Processor} に渡される {@link ProcessingEnvironment} を取得し，
+     * ラウンドを数えるための {@link Processor} です．
+     * <p>
+     * 他の {@link Processor} より先に登録されるため， 各ラウンドで最初に呼び出されます．
+     * </p>
+     * 
+     * @author koichik
+     */
+    @SupportedSourceVersion(SourceVersion.RELEASE_6)
+    @SupportedAnnotationTypes("*")
+    static class AptinaUnitProcessor extends AbstractProcessor {
+
+        ProcessingEnvironment processingEnvironment;
+
+        volatile int round;
+
+        /** 制限時間を過ぎた場合に {@code true} */
+        volatile boolean cancelled;
+
+        @Override
+        public synchronized void init(
+                final ProcessingEnvironment processingEnvironment) {
+            super.init(processingEnvironment);
+            this.processingEnvironment = processingEnvironment;
+        }
+
+        @Override
+        public boolean process(final Set<? extends TypeElement> annotations,
+                final RoundEnvironment roundEnv) {
+            checkCancelled();
+            ++round;
+            return false;
+        }
+
+        /**
+         * 制限時間を過ぎている場合は {@link CompilationTimeoutException} をスローします．
+         * 
+         * @throws CompilationTimeoutException
+         *             制限時間を過ぎている場合
+         */
+        void checkCancelled() throws CompilationTimeoutException {
+            if (cancelled) {
+                throw new CompilationTimeoutException(
+                    "compilation was cancelled at round " + round);
+            }
+        }
+
+    }
+
+    /**
+     * コンパイル対象を表すインタフェースです．
+     * 
+     * @author koichik
+     */
+    interface CompilationUnit {
+
+        /**
+         * このコンパイル対象に対応する {@link JavaFileObject} を返します．
+         * 
+         * @param standardJavaFileManager
+         *            {@link StandardJavaFileManager}
+         * @param testingJavaFileManager
+         *            {@link TestingJavaFileManager}
+         * @return このコンパイル対象に対応する {@link JavaFileObject}
+         * @throws IOException
+         *             入出力例外が発生した場合
+         */
+        JavaFileObject getJavaFileObject(
+                StandardJavaFileManager standardJavaFileManager,
+                JavaFileManager testingJavaFileManager) throws IOException;
+
+        /**
+         * このコンパイル対象のクラス名を返します．
+         * 
+         * @return このコンパイル対象のクラス名
+         */
+        String getClassName();
+
+    }
+
+    /**
+     * ソースパス上のファイルとして存在するコンパイル対象を表すクラスです．
+     * 
+     * @author koichik
+     */
+    static class FileCompilationUnit implements CompilationUnit {
+
+        String className;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param className
+         *            クラス名
+         */
+        public FileCompilationUnit(final String className) {
+            this.className = className;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileObject(
+                final StandardJavaFileManager standardJavaFileManager,
+                final JavaFileManager testingJavaFileManager)
+                throws IOException {
+            return standardJavaFileManager.getJavaFileForInput(
+                StandardLocation.SOURCE_PATH,
+                className,
+                Kind.SOURCE);
+        }
+
+        @Override
+        public String getClassName() {
+            return className;
+        }
+
+    }
+
+    /**
+     * メモリ上に存在するコンパイル対象を表すクラスです．
+     * 
+     * @author koichik
+     */
+    static class InMemoryCompilationUnit implements CompilationUnit {
+
+        String className;
+
+        String source;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param className
+         *            クラス名
+         * @param source
+         *            ソース
+         */
+        public InMemoryCompilationUnit(final String className,
+                final String source) {
+            this.className = className;
+            this.source = source;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileObject(
+                final StandardJavaFileManager standardJavaFileManager,
+                final JavaFileManager testingJavaFileManager)
+                throws IOException {
+            final JavaFileObject javaFileObject = testingJavaFileManager
+                .getJavaFileForOutput(
+                    StandardLocation.SOURCE_OUTPUT,
+                    className,
+                    Kind.SOURCE,
+                    null);
+            final Writer writer = javaFileObject.openWriter();
+            try {
+                writer.write(source);
+            } finally {
+                closeSilently(writer);
+            }
+            return javaFileObject;
+        }
+
+        @Override
+        public String getClassName() {
+            return className;
+        }
+
+    }
+
+    /**
+     * {@link SourceSynthesizer} によって合成されるコンパイル対象を表すクラスです．
+     * <p>
+     * ソースはファイルマネージャに書き込まれず， Java コンパイラが読み込むたびに合成されます．
+     * </p>
+     * 
+     * @author koichik
+     */
+    static class SyntheticCompilationUnit implements CompilationUnit {
+
+        String className;
+
+        SourceSynthesizer.SyntheticSource source;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param className
+         *            クラス名
+         * @param source
+         *            ソース
+         */
+        public SyntheticCompilationUnit(final String className,
+                final SourceSynthesizer.SyntheticSource source) {
+            this.className = className;
+            this.source = source;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileObject(
+                final StandardJavaFileManager standardJavaFileManager,
+                final JavaFileManager testingJavaFileManager) {
+            return new SourceSynthesizer.SyntheticJavaFileObject(
+                className,
+                source);
+        }
+
+        @Override
+        public String getClassName() {
+            return className;
+        }
+
+    }
+
+}
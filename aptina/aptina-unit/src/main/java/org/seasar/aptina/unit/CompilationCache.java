@@ -0,0 +1,1136 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.CodeSource;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+import static org.seasar.aptina.commons.util.IOUtils.*;
+
+/**
+ * コンパイルの結果をコンパイルの入力に対応付けてキャッシュするクラスです．
+ * <p>
+ * キャッシュのキーはコンパイル対象の内容， コンパイラオプション， 注釈処理だけを行うかどうか， ロケール， 文字セット，
+ * {@link Processor} のクラス， JDK のバージョン， およびコンパイルが参照するファイルの内容から計算したハッシュ値です．
+ * 参照するファイルは {@link Processor} のクラスを読み込んだ場所 ({@link CodeSource})，
+ * クラスパス ({@code -classpath} オプション， 指定されていなければシステムプロパティ {@code java.class.path})，
+ * {@code -processorpath} オプション， およびソースパスの下にある全てのファイルです． ディレクトリは再帰的に，
+ * JAR ファイルはマニフェストの {@code Class-Path} もたどります． ファイルのハッシュ値はファイルのサイズと更新日時が
+ * 変わるまで JVM 内でキャッシュされます．
+ * </p>
+ * <p>
+ * {@link Processor} のクラスがファイルシステム上のディレクトリまたは JAR ファイル以外から読み込まれた場合など，
+ * 入力の内容からキーを計算できない場合はキャッシュを使用しません． キャッシュには {@link Diagnostic} と，
+ * {@link TestingJavaFileManager} が保持している生成されたファイル (ソース， クラスファイル， リソース)
+ * の内容が格納されます． キャッシュにヒットした場合， Java コンパイラは起動されません．
+ * </p>
+ * <p>
+ * キャッシュにヒットした場合は {@link Processor} が呼び出されないため，
+ * {@link CompilationResult#getProcessingEnvironment()} は {@code null} を返します．
+ * 同じクラスの {@link Processor} でも， インスタンスごとに異なる設定を持つ場合はキャッシュを使用しないでください．
+ * </p>
+ * <p>
+ * ディレクトリを指定してインスタンスを構築すると， キャッシュはディレクトリに永続化され，
+ * 別の JVM からも利用することができます． このクラスのメソッドはスレッドセーフです．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class CompilationCache {
+
+    /** {@link AptinaTestCase} がデフォルトで使用するキャッシュのディレクトリを指定するシステムプロパティの名前 */
+    public static final String CACHE_DIRECTORY_PROPERTY = "aptina.unit.compilationCacheDirectory";
+
+    /** メモリ上に保持するエントリ数のデフォルト値 */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    static final int FORMAT_VERSION = 1;
+
+    /** 永続化されたエントリの文字列やバイト列の長さおよび要素の数の上限 */
+    static final int MAX_LENGTH = 256 * 1024 * 1024;
+
+    static final String HASH_ALGORITHM = "SHA-1";
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** パスを値に持つコンパイラオプション */
+    static final Set<String> PATH_OPTIONS = new HashSet<String>(Arrays.asList(
+        "-classpath",
+        "-cp",
+        "-processorpath",
+        "-sourcepath"));
+
+    /** {@link AptinaTestCase} がデフォルトで使用するキャッシュ */
+    static CompilationCache defaultCache;
+
+    /** ファイルごとのハッシュ値のキャッシュ */
+    static final Map<File, FileDigest> fileDigests = newHashMap();
+
+    final File directory;
+
+    final Map<String, CachedCompilation> entries;
+
+    /**
+     * {@link AptinaTestCase} がデフォルトで使用するキャッシュを返します．
+     * 
+     * @return システムプロパティ {@value #CACHE_DIRECTORY_PROPERTY}
+     *         にディレクトリが指定されていればそのディレクトリに永続化するキャッシュ， それ以外は {@code null}
+     */
+    static synchronized CompilationCache getDefaultCache() {
+        final String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        if (directory == null || directory.length() == 0) {
+            return null;
+        }
+        final File file = new File(directory);
+        if (defaultCache == null || !file.equals(defaultCache.directory)) {
+            defaultCache = new CompilationCache(file);
+        }
+        return defaultCache;
+    }
+
+    /**
+     * メモリ上だけにキャッシュするインスタンスを構築します．
+     */
+    public CompilationCache() {
+        this(null, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * ディレクトリに永続化するインスタンスを構築します．
+     * 
+     * @param directory
+     *            キャッシュを格納するディレクトリ
+     */
+    public CompilationCache(final File directory) {
+        this(directory, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param directory
+     *            キャッシュを格納するディレクトリ， メモリ上だけにキャッシュする場合は {@code null}
+     * @param maxEntries
+     *            メモリ上に保持するエントリの最大数
+     */
+    public CompilationCache(final File directory, final int maxEntries) {
+        this.directory = directory;
+        this.entries = new LinkedHashMap<String, CachedCompilation>(
+            16,
+            0.75f,
+            true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Entry<String, CachedCompilation> eldest) {
+                return size() > maxEntries;
+            }
+
+        };
+    }
+
+    /**
+     * キャッシュを格納するディレクトリを返します．
+     * 
+     * @return キャッシュを格納するディレクトリ， メモリ上だけにキャッシュする場合は {@code null}
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * メモリ上にキャッシュされたエントリを全て削除します．
+     * <p>
+     * ディレクトリに永続化されたエントリは削除されません．
+     * </p>
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * キーに対応するエントリを返します．
+     * <p>
+     * 永続化されたエントリが壊れていた場合はキャッシュミスとして扱い， そのファイルを削除します．
+     * </p>
+     * 
+     * @param key
+     *            キー
+     * @return キーに対応するエントリ， 存在しない場合は {@code null}
+     */
+    CachedCompilation get(final String key) {
+        synchronized (this) {
+            final CachedCompilation entry = entries.get(key);
+            if (entry != null || directory == null) {
+                return entry;
+            }
+        }
+        final File file = new File(directory, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+            try {
+                final CachedCompilation entry = CachedCompilation.readFrom(in);
+                synchronized (this) {
+                    entries.put(key, entry);
+                }
+                return entry;
+            } finally {
+                closeSilently(in);
+            }
+        } catch (final IOException e) {
+            // 壊れたエントリはキャッシュミスとして扱う
+        } catch (final RuntimeException e) {
+            // 列挙型の名前や URI が壊れている場合
+        }
+        file.delete();
+        return null;
+    }
+
+    /**
+     * キーに対応するエントリを格納します．
+     * 
+     * @param key
+     *            キー
+     * @param entry
+     *            エントリ
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    void put(final String key, final CachedCompilation entry)
+            throws IOException {
+        synchronized (this) {
+            entries.put(key, entry);
+        }
+        if (directory == null) {
+            return;
+        }
+        directory.mkdirs();
+        final File temp = File.createTempFile(key, ".tmp", directory);
+        final DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            entry.writeTo(out);
+        } finally {
+            closeSilently(out);
+        }
+        final File file = new File(directory, key);
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * コンパイルの入力からキャッシュのキーを作成して返します．
+     * 
+     * @param locale
+     *            ロケール
+     * @param charset
+     *            文字セット
+     * @param options
+     *            コンパイラオプション
+     * @param processingOnly
+     *            注釈処理と解析だけを行う場合は {@code true}
+     * @param processors
+     *            {@link Processor} のリスト
+     * @param sourcePaths
+     *            ソースパスのリスト
+     * @param compilationUnits
+     *            コンパイル対象のリスト
+     * @return キャッシュのキー， 入力の内容からキーを計算できない場合は {@code null}
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static String createKey(final Locale locale, final Charset charset,
+            final List<String> options, final boolean processingOnly,
+            final List<Processor> processors, final List<File> sourcePaths,
+            final List<JavaFileObject> compilationUnits) throws IOException {
+        final MessageDigest digest = newMessageDigest();
+        final DataOutputStream out = new DataOutputStream(
+            new DigestOutputStream(new OutputStream() {
+
+                @Override
+                public void write(final int b) {
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) {
+                }
+
+            }, digest));
+        out.writeInt(FORMAT_VERSION);
+        writeString(out, System.getProperty("java.vendor"));
+        writeString(out, System.getProperty("java.version"));
+        writeString(out, System.getProperty("java.vm.version"));
+        writeString(out, locale == null ? null : locale.toString());
+        writeString(out, charset == null ? null : charset.name());
+        out.writeInt(options.size());
+        for (final String option : options) {
+            writeString(out, option);
+        }
+        out.writeBoolean(processingOnly);
+        final Set<File> visited = new HashSet<File>();
+        out.writeInt(processors.size());
+        for (final Processor processor : processors) {
+            final Class<?> processorClass = processor.getClass();
+            writeString(out, processorClass.getName());
+            final File location = getCodeSourceLocation(processorClass);
+            if (location == null) {
+                return null;
+            }
+            writeFingerprint(out, location, visited);
+        }
+        if (getPathOption(options, "-classpath") == null
+                && getPathOption(options, "-cp") == null) {
+            writeFingerprint(out, System.getProperty("java.class.path"), visited);
+        }
+        for (int i = 0; i < options.size() - 1; ++i) {
+            if (PATH_OPTIONS.contains(options.get(i))) {
+                writeFingerprint(out, options.get(i + 1), visited);
+            }
+        }
+        out.writeInt(sourcePaths.size());
+        for (final File sourcePath : sourcePaths) {
+            writeFingerprint(out, sourcePath, visited);
+        }
+        out.writeInt(compilationUnits.size());
+        for (final JavaFileObject compilationUnit : compilationUnits) {
+            writeString(out, compilationUnit.toUri().getPath());
+            final CharSequence content = compilationUnit.getCharContent(true);
+            writeString(out, content == null ? null : content.toString());
+        }
+        out.flush();
+        return toHexString(digest.digest());
+    }
+
+    /**
+     * クラスを読み込んだディレクトリまたは JAR ファイルを返します．
+     * 
+     * @param clazz
+     *            クラス
+     * @return クラスを読み込んだディレクトリまたは JAR ファイル， ファイルシステム上の場所が分からない場合は {@code null}
+     */
+    static File getCodeSourceLocation(final Class<?> clazz) {
+        final ProtectionDomain protectionDomain = clazz.getProtectionDomain();
+        final CodeSource codeSource = protectionDomain == null ? null
+                : protectionDomain.getCodeSource();
+        final URL location = codeSource == null ? null : codeSource
+            .getLocation();
+        return toFile(location);
+    }
+
+    /**
+     * コンパイラオプションからパスを値に持つオプションの値を返します．
+     * 
+     * @param options
+     *            コンパイラオプション
+     * @param name
+     *            オプションの名前
+     * @return オプションの値， 指定されていない場合は {@code null}
+     */
+    static String getPathOption(final List<String> options, final String name) {
+        final int index = options.indexOf(name);
+        if (index < 0 || index + 1 >= options.size()) {
+            return null;
+        }
+        return options.get(index + 1);
+    }
+
+    /**
+     * パス区切り文字で区切られたパスのそれぞれについて， ファイルの内容を表すハッシュ値を書き込みます．
+     * 
+     * @param out
+     *            出力先
+     * @param path
+     *            パス区切り文字で区切られたパス
+     * @param visited
+     *            既に書き込んだファイルのセット
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static void writeFingerprint(final DataOutput out, final String path,
+            final Set<File> visited) throws IOException {
+        if (path == null || path.length() == 0) {
+            out.writeInt(0);
+            return;
+        }
+        final String[] entries = path.split(File.pathSeparator);
+        out.writeInt(entries.length);
+        for (final String entry : entries) {
+            writeFingerprint(out, new File(entry), visited);
+        }
+    }
+
+    /**
+     * ファイルの内容を表すハッシュ値を書き込みます．
+     * <p>
+     * ディレクトリの場合はその下にある全てのファイルを， JAR ファイルの場合はマニフェストの {@code Class-Path}
+     * に指定されたファイルも書き込みます． 存在しないファイルは存在しないことを書き込みます．
+     * </p>
+     * 
+     * @param out
+     *            出力先
+     * @param file
+     *            ファイルまたはディレクトリ
+     * @param visited
+     *            既に書き込んだファイルのセット
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static void writeFingerprint(final DataOutput out, final File file,
+            final Set<File> visited) throws IOException {
+        final File absoluteFile = file.getAbsoluteFile();
+        writeString(out, absoluteFile.getPath());
+        if (!visited.add(absoluteFile)) {
+            out.writeInt(0);
+        } else if (absoluteFile.isDirectory()) {
+            out.writeInt(1);
+            writeDirectoryFingerprint(out, absoluteFile, "");
+        } else if (absoluteFile.isFile()) {
+            out.writeInt(2);
+            writeBytes(out, getFileDigest(absoluteFile));
+            if (absoluteFile.getName().endsWith(".jar")) {
+                for (final File entry : getManifestClassPath(absoluteFile)) {
+                    writeFingerprint(out, entry, visited);
+                }
+            }
+        } else {
+            out.writeInt(-1);
+        }
+    }
+
+    /**
+     * ディレクトリの下にある全てのファイルの相対パスとハッシュ値を書き込みます．
+     * 
+     * @param out
+     *            出力先
+     * @param directory
+     *            ディレクトリ
+     * @param prefix
+     *            ディレクトリの相対パス
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static void writeDirectoryFingerprint(final DataOutput out,
+            final File directory, final String prefix) throws IOException {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("cannot list " + directory);
+        }
+        Arrays.sort(files);
+        for (final File file : files) {
+            final String path = prefix + file.getName();
+            if (file.isDirectory()) {
+                writeDirectoryFingerprint(out, file, path + "/");
+            } else {
+                writeString(out, path);
+                writeBytes(out, getFileDigest(file));
+            }
+        }
+    }
+
+    /**
+     * JAR ファイルのマニフェストの {@code Class-Path} に指定されたファイルのリストを返します．
+     * 
+     * @param jarFile
+     *            JAR ファイル
+     * @return マニフェストの {@code Class-Path} に指定されたファイルのリスト
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static List<File> getManifestClassPath(final File jarFile)
+            throws IOException {
+        final List<File> result = newArrayList();
+        final JarFile jar = new JarFile(jarFile);
+        try {
+            final Manifest manifest = jar.getManifest();
+            final String classPath = manifest == null ? null : manifest
+                .getMainAttributes()
+                .getValue(Attributes.Name.CLASS_PATH);
+            if (classPath == null) {
+                return result;
+            }
+            final URL base = jarFile.toURI().toURL();
+            for (final String entry : classPath.trim().split("\\s+")) {
+                if (entry.length() == 0) {
+                    continue;
+                }
+                final File file = toFile(new URL(base, entry));
+                if (file != null) {
+                    result.add(file);
+                }
+            }
+            return result;
+        } finally {
+            jar.close();
+        }
+    }
+
+    /**
+     * ファイルの内容のハッシュ値を返します．
+     * <p>
+     * ハッシュ値はファイルのサイズと更新日時が変わるまでキャッシュされます．
+     * </p>
+     * 
+     * @param file
+     *            ファイル
+     * @return ファイルの内容のハッシュ値
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static byte[] getFileDigest(final File file) throws IOException {
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        synchronized (fileDigests) {
+            final FileDigest fileDigest = fileDigests.get(file);
+            if (fileDigest != null && fileDigest.length == length
+                    && fileDigest.lastModified == lastModified) {
+                return fileDigest.digest;
+            }
+        }
+        final MessageDigest digest = newMessageDigest();
+        final InputStream is = new FileInputStream(file);
+        try {
+            final byte[] buf = new byte[8192];
+            int size;
+            while ((size = is.read(buf)) != -1) {
+                digest.update(buf, 0, size);
+            }
+        } finally {
+            closeSilently(is);
+        }
+        final byte[] result = digest.digest();
+        synchronized (fileDigests) {
+            fileDigests.put(file, new FileDigest(length, lastModified, result));
+        }
+        return result;
+    }
+
+    /**
+     * {@code file} プロトコルの {@link URL} をファイルに変換して返します．
+     * 
+     * @param url
+     *            {@link URL}
+     * @return ファイル， {@code file} プロトコル以外の場合は {@code null}
+     */
+    static File toFile(final URL url) {
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (final URISyntaxException e) {
+            return null;
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * キーの計算に使う {@link MessageDigest} を返します．
+     * 
+     * @return {@link MessageDigest}
+     */
+    static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * バイト列を16進表記の文字列に変換して返します．
+     * 
+     * @param bytes
+     *            バイト列
+     * @return 16進表記の文字列
+     */
+    static String toHexString(final byte[] bytes) {
+        final StringBuilder buf = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            buf.append(Character.forDigit((b >> 4) & 0x0f, 16));
+            buf.append(Character.forDigit(b & 0x0f, 16));
+        }
+        return new String(buf);
+    }
+
+    /**
+     * {@code null} かもしれない文字列を書き込みます．
+     * 
+     * @param out
+     *            出力先
+     * @param s
+     *            文字列または {@code null}
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static void writeString(final DataOutput out, final String s)
+            throws IOException {
+        writeBytes(out, s == null ? null : s.getBytes(UTF8.name()));
+    }
+
+    /**
+     * {@link #writeString(DataOutput, String)} で書き込まれた文字列を読み込みます．
+     * 
+     * @param in
+     *            入力元
+     * @return 文字列または {@code null}
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static String readString(final DataInput in) throws IOException {
+        final byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, UTF8.name());
+    }
+
+    /**
+     * {@code null} かもしれないバイト列を書き込みます．
+     * 
+     * @param out
+     *            出力先
+     * @param bytes
+     *            バイト列または {@code null}
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static void writeBytes(final DataOutput out, final byte[] bytes)
+            throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * {@link #writeBytes(DataOutput, byte[])} で書き込まれたバイト列を読み込みます．
+     * 
+     * @param in
+     *            入力元
+     * @return バイト列または {@code null}
+     * @throws IOException
+     *             入出力例外が発生した場合や， 長さが正しくない場合
+     */
+    static byte[] readBytes(final DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_LENGTH) {
+            throw new StreamCorruptedException("illegal length: " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * 要素の数を読み込みます．
+     * 
+     * @param in
+     *            入力元
+     * @return 要素の数
+     * @throws IOException
+     *             入出力例外が発生した場合や， 要素の数が正しくない場合
+     */
+    static int readSize(final DataInput in) throws IOException {
+        final int size = in.readInt();
+        if (size < 0 || size > MAX_LENGTH) {
+            throw new StreamCorruptedException("illegal size: " + size);
+        }
+        return size;
+    }
+
+    /**
+     * ファイルのハッシュ値と， それを計算した時点のファイルのサイズおよび更新日時です．
+     * 
+     * @author koichik
+     */
+    static class FileDigest {
+
+        final long length;
+
+        final long lastModified;
+
+        final byte[] digest;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param length
+         *            ファイルのサイズ
+         * @param lastModified
+         *            ファイルの更新日時
+         * @param digest
+         *            ファイルの内容のハッシュ値
+         */
+        FileDigest(final long length, final long lastModified,
+                final byte[] digest) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+
+    }
+
+    /**
+     * キャッシュされたコンパイルの結果です．
+     * 
+     * @author koichik
+     */
+    static class CachedCompilation {
+
+        final Boolean compiledResult;
+
+        final List<CachedDiagnostic> diagnostics;
+
+        final Map<String, CachedFile> files;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param compiledResult
+         *            コンパイラの実行結果
+         * @param diagnostics
+         *            {@link Diagnostic} のリスト
+         * @param files
+         *            生成されたファイルのマップ
+         */
+        CachedCompilation(final Boolean compiledResult,
+                final List<CachedDiagnostic> diagnostics,
+                final Map<String, CachedFile> files) {
+            this.compiledResult = compiledResult;
+            this.diagnostics = diagnostics;
+            this.files = files;
+        }
+
+        /**
+         * コンパイルの結果からインスタンスを作成して返します．
+         * 
+         * @param result
+         *            コンパイルの結果
+         * @param locale
+         *            メッセージのロケール
+         * @return キャッシュされたコンパイルの結果
+         * @throws IOException
+         *             入出力例外が発生した場合
+         */
+        static CachedCompilation of(final CompilationResult result,
+                final Locale locale) throws IOException {
+            final List<CachedDiagnostic> diagnostics = newArrayList();
+            for (final Diagnostic<? extends JavaFileObject> diagnostic : result
+                .getDiagnostics()) {
+                diagnostics.add(CachedDiagnostic.of(diagnostic, locale));
+            }
+            final Map<String, CachedFile> files = new LinkedHashMap<String, CachedFile>();
+            for (final Entry<String, InMemoryJavaFileObject> entry : result.testingJavaFileManager.fileObjects
+                .entrySet()) {
+                final InMemoryJavaFileObject fileObject = entry.getValue();
+                final ByteBuffer buffer = fileObject.getContent();
+                final byte[] content = new byte[buffer.remaining()];
+                buffer.get(content);
+                files.put(entry.getKey(), new CachedFile(
+                    fileObject.toUri(),
+                    fileObject.getKind(),
+                    content));
+            }
+            return new CachedCompilation(
+                result.getCompiledResult(),
+                diagnostics,
+                files);
+        }
+
+        /**
+         * {@link TestingJavaFileManager} にキャッシュされたファイルを復元します．
+         * 
+         * @param testingJavaFileManager
+         *            {@link TestingJavaFileManager}
+         * @return 復元された {@link Diagnostic} のリスト
+         */
+        List<Diagnostic<? extends JavaFileObject>> restore(
+                final TestingJavaFileManager testingJavaFileManager) {
+            for (final Entry<String, CachedFile> entry : files.entrySet()) {
+                final CachedFile file = entry.getValue();
+                testingJavaFileManager.fileObjects.put(
+                    entry.getKey(),
+                    new InMemoryJavaFileObject(
+                        file.uri,
+                        file.kind,
+                        testingJavaFileManager.charset,
+                        file.content));
+            }
+            final List<Diagnostic<? extends JavaFileObject>> result = newArrayList();
+            for (final CachedDiagnostic diagnostic : diagnostics) {
+                result.add(diagnostic.restore(testingJavaFileManager.charset));
+            }
+            return result;
+        }
+
+        /**
+         * 出力先に書き込みます．
+         * 
+         * @param out
+         *            出力先
+         * @throws IOException
+         *             入出力例外が発生した場合
+         */
+        void writeTo(final DataOutput out) throws IOException {
+            out.writeInt(FORMAT_VERSION);
+            out.writeByte(compiledResult == null ? -1 : compiledResult ? 1
+                    : 0);
+            out.writeInt(diagnostics.size());
+            for (final CachedDiagnostic diagnostic : diagnostics) {
+                diagnostic.writeTo(out);
+            }
+            out.writeInt(files.size());
+            for (final Entry<String, CachedFile> entry : files.entrySet()) {
+                writeString(out, entry.getKey());
+                entry.getValue().writeTo(out);
+            }
+        }
+
+        /**
+         * 入力元から読み込んだインスタンスを返します．
+         * 
+         * @param in
+         *            入力元
+         * @return 読み込んだインスタンス
+         * @throws IOException
+         *             入出力例外が発生した場合
+         */
+        static CachedCompilation readFrom(final DataInput in)
+                throws IOException {
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException("unsupported format");
+            }
+            final byte compiledResult = in.readByte();
+            final int diagnosticsSize = readSize(in);
+            final List<CachedDiagnostic> diagnostics = newArrayList();
+            for (int i = 0; i < diagnosticsSize; ++i) {
+                diagnostics.add(CachedDiagnostic.readFrom(in));
+            }
+            final int filesSize = readSize(in);
+            final Map<String, CachedFile> files = new LinkedHashMap<String, CachedFile>();
+            for (int i = 0; i < filesSize; ++i) {
+                files.put(readString(in), CachedFile.readFrom(in));
+            }
+            return new CachedCompilation(compiledResult < 0 ? null
+                    : compiledResult == 1, diagnostics, files);
+        }
+
+    }
+
+    /**
+     * キャッシュされた生成ファイルです．
+     * 
+     * @author koichik
+     */
+    static class CachedFile {
+
+        final URI uri;
+
+        final JavaFileObject.Kind kind;
+
+        final byte[] content;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param uri
+         *            ファイルの {@link URI}
+         * @param kind
+         *            ファイルの種類
+         * @param content
+         *            ファイルの内容
+         */
+        CachedFile(final URI uri, final JavaFileObject.Kind kind,
+                final byte[] content) {
+            this.uri = uri;
+            this.kind = kind;
+            this.content = content;
+        }
+
+        void writeTo(final DataOutput out) throws IOException {
+            writeString(out, uri.toString());
+            writeString(out, kind.name());
+            writeBytes(out, content);
+        }
+
+        static CachedFile readFrom(final DataInput in) throws IOException {
+            return new CachedFile(
+                URI.create(readString(in)),
+                JavaFileObject.Kind.valueOf(readString(in)),
+                readBytes(in));
+        }
+
+    }
+
+    /**
+     * キャッシュされた {@link Diagnostic} です．
+     * 
+     * @author koichik
+     */
+    static class CachedDiagnostic implements Diagnostic<JavaFileObject> {
+
+        final Diagnostic.Kind kind;
+
+        final URI sourceUri;
+
+        final JavaFileObject.Kind sourceKind;
+
+        final long position;
+
+        final long startPosition;
+
+        final long endPosition;
+
+        final long lineNumber;
+
+        final long columnNumber;
+
+        final String code;
+
+        final String message;
+
+        final String string;
+
+        JavaFileObject source;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param kind
+         *            {@link javax.tools.Diagnostic.Kind}
+         * @param sourceUri
+         *            ソースの {@link URI} または {@code null}
+         * @param sourceKind
+         *            ソースの種類または {@code null}
+         * @param position
+         *            位置
+         * @param startPosition
+         *            開始位置
+         * @param endPosition
+         *            終了位置
+         * @param lineNumber
+         *            行番号
+         * @param columnNumber
+         *            桁番号
+         * @param code
+         *            コード
+         * @param message
+         *            メッセージ
+         * @param string
+         *            文字列表現
+         */
+        CachedDiagnostic(final Diagnostic.Kind kind, final URI sourceUri,
+                final JavaFileObject.Kind sourceKind, final long position,
+                final long startPosition, final long endPosition,
+                final long lineNumber, final long columnNumber,
+                final String code, final String message, final String string) {
+            this.kind = kind;
+            this.sourceUri = sourceUri;
+            this.sourceKind = sourceKind;
+            this.position = position;
+            this.startPosition = startPosition;
+            this.endPosition = endPosition;
+            this.lineNumber = lineNumber;
+            this.columnNumber = columnNumber;
+            this.code = code;
+            this.message = message;
+            this.string = string;
+        }
+
+        static CachedDiagnostic of(
+                final Diagnostic<? extends JavaFileObject> diagnostic,
+                final Locale locale) {
+            final JavaFileObject source = diagnostic.getSource();
+            return new CachedDiagnostic(
+                diagnostic.getKind(),
+                source == null ? null : source.toUri(),
+                source == null ? null : source.getKind(),
+                diagnostic.getPosition(),
+                diagnostic.getStartPosition(),
+                diagnostic.getEndPosition(),
+                diagnostic.getLineNumber(),
+                diagnostic.getColumnNumber(),
+                diagnostic.getCode(),
+                diagnostic.getMessage(locale),
+                diagnostic.toString());
+        }
+
+        /**
+         * ソースを復元した {@link Diagnostic} を返します．
+         * 
+         * @param charset
+         *            文字セット
+         * @return ソースを復元した {@link Diagnostic}
+         */
+        Diagnostic<JavaFileObject> restore(final Charset charset) {
+            final CachedDiagnostic diagnostic = new CachedDiagnostic(
+                kind,
+                sourceUri,
+                sourceKind,
+                position,
+                startPosition,
+                endPosition,
+                lineNumber,
+                columnNumber,
+                code,
+                message,
+                string);
+            if (sourceUri != null) {
+                diagnostic.source = new InMemoryJavaFileObject(
+                    sourceUri,
+                    sourceKind,
+                    charset);
+            }
+            return diagnostic;
+        }
+
+        @Override
+        public Diagnostic.Kind getKind() {
+            return kind;
+        }
+
+        @Override
+        public JavaFileObject getSource() {
+            return source;
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public long getStartPosition() {
+            return startPosition;
+        }
+
+        @Override
+        public long getEndPosition() {
+            return endPosition;
+        }
+
+        @Override
+        public long getLineNumber() {
+            return lineNumber;
+        }
+
+        @Override
+        public long getColumnNumber() {
+            return columnNumber;
+        }
+
+        @Override
+        public String getCode() {
+            return code;
+        }
+
+        @Override
+        public String getMessage(final Locale locale) {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return string;
+        }
+
+        void writeTo(final DataOutput out) throws IOException {
+            writeString(out, kind.name());
+            writeString(out, sourceUri == null ? null : sourceUri.toString());
+            writeString(out, sourceKind == null ? null : sourceKind.name());
+            out.writeLong(position);
+            out.writeLong(startPosition);
+            out.writeLong(endPosition);
+            out.writeLong(lineNumber);
+            out.writeLong(columnNumber);
+            writeString(out, code);
+            writeString(out, message);
+            writeString(out, string);
+        }
+
+        static CachedDiagnostic readFrom(final DataInput in)
+                throws IOException {
+            final Diagnostic.Kind kind = Diagnostic.Kind.valueOf(readString(in));
+            final String sourceUri = readString(in);
+            final String sourceKind = readString(in);
+            return new CachedDiagnostic(
+                kind,
+                sourceUri == null ? null : URI.create(sourceUri),
+                sourceKind == null ? null : JavaFileObject.Kind
+                    .valueOf(sourceKind),
+                in.readLong(),
+                in.readLong(),
+                in.readLong(),
+                in.readLong(),
+                in.readLong(),
+                readString(in),
+                readString(in),
+                readString(in));
+        }
+
+    }
+
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileObject.Kind;
+
+import static java.util.Collections.*;
+
+import static org.seasar.aptina.commons.util.AssertionUtils.*;
+
+/**
+ * {@link Compilation#compile()} によるコンパイルの結果です．
+ * <p>
+ * このクラスのインスタンスはコンパイルの完了後に状態が変わることはないため，
+ * 複数のスレッドから参照することができます． 生成されたファイルを参照するためにファイルマネージャを保持しているため，
+ * 使い終わったら {@link #close()} を呼び出さなければなりません．
+ * </p>
+ * <p>
+ * {@link #close()} を呼び出した後は， ファイルマネージャが {@link CompilerSession}
+ * に返却されて他のコンパイルで使われている可能性があるため， {@link #close()} と {@link #isClosed()}
+ * 以外のメソッドは {@link IllegalStateException} をスローします．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class CompilationResult {
+
+    final CompilerSession compilerSession;
+
+    final StandardJavaFileManager standardJavaFileManager;
+
+    final TestingJavaFileManager testingJavaFileManager;
+
+    final Boolean compiledResult;
+
+    final IndexedDiagnosticCollector diagnostics;
+
+    final ProcessingEnvironment processingEnvironment;
+
+    final List<ProcessorStatistics> processorStatistics;
+
+    final boolean cached;
+
+    ClassLoader classLoader;
+
+    volatile boolean closed;
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param compilerSession
+     *            {@link CompilerSession} または {@code null}
+     * @param standardJavaFileManager
+     *            {@link StandardJavaFileManager}
+     * @param testingJavaFileManager
+     *            {@link TestingJavaFileManager}
+     * @param compiledResult
+     *            コンパイラの実行結果
+     * @param diagnostics
+     *            コンパイル中に作成された {@link Diagnostic} のリスト
+     * @param processingEnvironment
+     *            {@link ProcessingEnvironment}
+     * @param processorStatistics
+     *            {@link Processor} ごとの {@link ProcessorStatistics} のリスト
+     * @param cached
+     *            {@link CompilationCache} から取得した結果の場合は {@code true}
+     */
+    CompilationResult(final CompilerSession compilerSession,
+            final StandardJavaFileManager standardJavaFileManager,
+            final TestingJavaFileManager testingJavaFileManager,
+            final Boolean compiledResult,
+            final IndexedDiagnosticCollector diagnostics,
+            final ProcessingEnvironment processingEnvironment,
+            final List<ProcessorStatistics> processorStatistics,
+            final boolean cached) {
+        this.compilerSession = compilerSession;
+        this.standardJavaFileManager = standardJavaFileManager;
+        this.testingJavaFileManager = testingJavaFileManager;
+        this.compiledResult = compiledResult;
+        this.diagnostics = diagnostics;
+        this.processingEnvironment = processingEnvironment;
+        this.processorStatistics = unmodifiableList(processorStatistics);
+        this.cached = cached;
+    }
+
+    /**
+     * コンパイラの実行結果を返します．
+     * 
+     * @return コンパイラの実行結果
+     * @see CompilationTask#call()
+     */
+    public Boolean getCompiledResult() {
+        assertOpen();
+        return compiledResult;
+    }
+
+    /**
+     * コンパイル中に作成された {@link Diagnostic} のリストを返します．
+     * 
+     * @return コンパイル中に作成された {@link Diagnostic} のリスト
+     */
+    public List<Diagnostic<? extends JavaFileObject>> getDiagnostics() {
+        assertOpen();
+        return diagnostics.getDiagnostics();
+    }
+
+    /**
+     * 指定されたクラスに対する {@link Diagnostic} のリストを返します．
+     * <p>
+     * {@link Diagnostic} はコンパイル中にクラス名で索引付けされているため， このメソッドは一定時間で完了します．
+     * </p>
+     * 
+     * @param className
+     *            クラス名
+     * @return 指定されたクラスに対する {@link Diagnostic} のリスト
+     */
+    public List<Diagnostic<? extends JavaFileObject>> getDiagnostics(
+            final String className) {
+        assertNotNull("className", className);
+        assertOpen();
+        return diagnostics.getDiagnostics(className);
+    }
+
+    /**
+     * 指定された {@link javax.tools.Diagnostic.Kind} を持つ {@link Diagnostic} のリストを返します．
+     * 
+     * @param kind
+     *            {@link javax.tools.Diagnostic.Kind}
+     * @return 指定された {@link javax.tools.Diagnostic.Kind} を持つ {@link Diagnostic}
+     *         のリスト
+     */
+    public List<Diagnostic<? extends JavaFileObject>> getDiagnostics(
+            final javax.tools.Diagnostic.Kind kind) {
+        assertNotNull("kind", kind);
+        assertOpen();
+        return diagnostics.getDiagnostics(kind);
+    }
+
+    /**
+     * 指定されたクラスに対する指定された {@link javax.tools.Diagnostic.Kind} を持つ
+     * {@link Diagnostic} のリストを返します．
+     * 
+     * @param className
+     *            クラス名
+     * @param kind
+     *            {@link javax.tools.Diagnostic.Kind}
+     * @return 指定されたクラスに対する指定された {@link javax.tools.Diagnostic.Kind} を持つ
+     *         {@link Diagnostic} のリスト
+     */
+    public List<Diagnostic<? extends JavaFileObject>> getDiagnostics(
+            final String className, final javax.tools.Diagnostic.Kind kind) {
+        assertNotNull("className", className);
+        assertNotNull("kind", kind);
+        assertOpen();
+        return diagnostics.getDiagnostics(className, kind);
+    }
+
+    /**
+     * 指定されたコードを持つ {@link Diagnostic} のリストを返します．
+     * 
+     * @param code
+     *            {@link Diagnostic#getCode()} が返すコード
+     * @return 指定されたコードを持つ {@link Diagnostic} のリスト
+     */
+    public List<Diagnostic<? extends JavaFileObject>> getDiagnosticsWithCode(
+            final String code) {
+        assertNotNull("code", code);
+        assertOpen();
+        return diagnostics.getDiagnosticsWithCode(code);
+    }
+
+    /**
+     * コンパイル時に {@link Processor} に渡された {@link ProcessingEnvironment} を返します．
+     * 
+     * @return {@link ProcessingEnvironment}， {@link CompilationCache} から取得した結果の場合は
+     *         {@code null}
+     */
+    public ProcessingEnvironment getProcessingEnvironment() {
+        assertOpen();
+        return processingEnvironment;
+    }
+
+    /**
+     * {@link Processor} ごとの呼び出し回数と処理時間を返します．
+     * <p>
+     * リストの要素は {@link Processor} が追加された順に並んでいます．
+     * {@link CompilationCache} から取得した結果の場合は空のリストを返します．
+     * </p>
+     * 
+     * @return {@link Processor} ごとの {@link ProcessorStatistics} のリスト
+     */
+    public List<ProcessorStatistics> getProcessorStatistics() {
+        assertOpen();
+        return processorStatistics;
+    }
+
+    /**
+     * {@link CompilationCache} から取得した結果の場合は {@code true} を返します．
+     * 
+     * @return {@link CompilationCache} から取得した結果の場合は {@code true}
+     */
+    public boolean isCached() {
+        assertOpen();
+        return cached;
+    }
+
+    /**
+     * コンパイル中に生成されたファイルのマップを返します．
+     * <p>
+     * マップのキーはパッケージ名を {@code /} で区切ったファイルのパスです．
+     * メモリ上のコンパイル対象として追加されたソースも含まれます．
+     * </p>
+     * 
+     * @return コンパイル中に生成されたファイルのマップ
+     */
+    public Map<String, ? extends JavaFileObject> getGeneratedFiles() {
+        assertOpen();
+        return unmodifiableMap(testingJavaFileManager.fileObjects);
+    }
+
+    /**
+     * コンパイル中に生成されたクラスファイルからクラスを定義する {@link ClassLoader} を返します．
+     * <p>
+     * 親 {@link ClassLoader} はこのメソッドを最初に呼び出したスレッドのコンテキストクラスローダです．
+     * 同じインスタンスに対しては常に同じ {@link ClassLoader} を返します．
+     * </p>
+     * 
+     * @return 生成されたクラスを定義する {@link ClassLoader}
+     * @see #getClassLoader(ClassLoader)
+     */
+    public synchronized ClassLoader getClassLoader() {
+        assertOpen();
+        if (classLoader == null) {
+            final ClassLoader parent = Thread.currentThread()
+                .getContextClassLoader();
+            classLoader = getClassLoader(parent != null ? parent
+                    : CompilationResult.class.getClassLoader());
+        }
+        return classLoader;
+    }
+
+    /**
+     * コンパイル中に生成されたクラスファイルからクラスを定義する {@link ClassLoader} を返します．
+     * <p>
+     * 返される {@link ClassLoader} はクラスのロードを親 {@link ClassLoader} に先に委譲し，
+     * 親がロードできなかったクラスをメモリ上のクラスファイルから定義します． クラスはロードを要求された時点で定義されるため，
+     * 生成されたクラスをディスクに書き出すことなくインスタンス化して実行することができます．
+     * このメソッドは呼び出されるたびに新しい {@link ClassLoader} を返します．
+     * </p>
+     * 
+     * @param parent
+     *            親 {@link ClassLoader}
+     * @return 生成されたクラスを定義する {@link ClassLoader}
+     */
+    public ClassLoader getClassLoader(final ClassLoader parent) {
+        assertOpen();
+        return new InMemoryClassLoader(parent, getGeneratedFiles());
+    }
+
+    /**
+     * {@link Processor} が生成したソースを返します．
+     * 
+     * @param className
+     *            生成されたクラスの完全限定名
+     * @return 生成されたソースの内容
+     * @throws IOException
+     *             入出力例外が発生した場合
+     * @throws SourceNotGeneratedException
+     *             ソースが生成されなかった場合
+     */
+    public String getGeneratedSource(final String className)
+            throws IOException, SourceNotGeneratedException {
+        assertNotEmpty("className", className);
+        assertOpen();
+        final JavaFileObject javaFileObject = testingJavaFileManager
+            .getJavaFileForInput(
+                StandardLocation.SOURCE_OUTPUT,
+                className,
+                Kind.SOURCE);
+        if (javaFileObject == null) {
+            throw new SourceNotGeneratedException(className);
+        }
+        final CharSequence content = javaFileObject.getCharContent(true);
+        if (content == null) {
+            throw new SourceNotGeneratedException(className);
+        }
+        return content.toString();
+    }
+
+    /**
+     * {@link #close()} が呼び出されていれば {@code true} を返します．
+     * 
+     * @return {@link #close()} が呼び出されていれば {@code true}
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * コンパイルで使用したファイルマネージャをクローズします．
+     * <p>
+     * {@link CompilerSession} から借りた {@link StandardJavaFileManager} はクローズせずに返却します．
+     * </p>
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Compilation.closeFileManager(
+            compilerSession,
+            standardJavaFileManager,
+            testingJavaFileManager);
+    }
+
+    /**
+     * {@link #close()} が呼び出されていれば例外をスローします．
+     * 
+     * @throws IllegalStateException
+     *             {@link #close()} が呼び出されている場合
+     */
+    void assertOpen() throws IllegalStateException {
+        if (closed) {
+            throw new IllegalStateException("compilation result closed");
+        }
+    }
+
+}
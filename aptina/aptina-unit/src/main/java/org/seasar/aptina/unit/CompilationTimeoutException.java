@@ -0,0 +1,47 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import junit.framework.AssertionFailedError;
+
+/**
+ * コンパイルが制限時間内に完了しなかった場合にスローされる例外です。
+ * <p>
+ * 例外の原因には， 制限時間を過ぎた時点でコンパイルを実行していたスレッドのスタックトレースが設定されます。
+ * </p>
+ * 
+ * @author koichik
+ */
+@SuppressWarnings("serial")
+public class CompilationTimeoutException extends AssertionFailedError {
+
+    /**
+     * インスタンスを構築します。
+     */
+    public CompilationTimeoutException() {
+    }
+
+    /**
+     * インスタンスを構築します。
+     * 
+     * @param message
+     *            メッセージ
+     */
+    public CompilationTimeoutException(final String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.processing.Processor;
+import javax.tools.FileObject;
+import javax.tools.JavaCompiler.CompilationTask;
+
+import static org.seasar.aptina.commons.util.AssertionUtils.*;
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+import static org.seasar.aptina.commons.util.IOUtils.*;
+import static org.seasar.aptina.commons.util.StringUtils.*;
+
+/**
+ * コンパイルのフェーズと {@link Processor} の呼び出しを記録し， Trace Event Format の JSON
+ * として出力するトレーサです．
+ * <p>
+ * {@link Compilation#setTracer(CompilationTracer)} で設定すると， Java コンパイラが
+ * {@code com.sun.source.util.JavacTask} の場合は {@code com.sun.source.util.TaskListener}
+ * を登録し， パース・エンター・解析・生成・注釈処理の各ラウンドの開始と終了を記録します．
+ * {@code TaskListener} はコンパイル時のクラスパスに含まれないため， {@link Proxy} で実装します．
+ * また， ラウンドごとの {@link Processor#init(javax.annotation.processing.ProcessingEnvironment)}
+ * と {@link Processor#process(java.util.Set, javax.annotation.processing.RoundEnvironment)}
+ * の呼び出しも記録します．
+ * </p>
+ * <p>
+ * {@link #write(File)} で出力したファイルは {@code chrome://tracing} や Perfetto
+ * などのトレースビューアで読み込むことができます． 全てのイベントは開始時刻と所要時間を持つ Complete イベント
+ * ({@code "ph":"X"}) で， スレッドはイベントを記録したスレッドです．
+ * </p>
+ * <p>
+ * {@link AptinaTestCase} では， システムプロパティ {@value #TRACE_DIRECTORY_PROPERTY}
+ * にディレクトリを指定すると， テストメソッドごとのトレースが {@code クラス名.メソッド名.json} として出力されます．
+ * </p>
+ * <p>
+ * このクラスのメソッドはスレッドセーフです．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class CompilationTracer {
+
+    /** テストメソッドごとのトレースを出力するディレクトリを指定するシステムプロパティの名前 */
+    public static final String TRACE_DIRECTORY_PROPERTY = "aptina.unit.traceDirectory";
+
+    /** {@code TaskListener} のクラス名 */
+    static final String TASK_LISTENER_CLASS_NAME = "com.sun.source.util.TaskListener";
+
+    /** トレースの時刻の基準 (ナノ秒) */
+    final long origin = System.nanoTime();
+
+    final List<Event> events = newArrayList();
+
+    /**
+     * システムプロパティ {@value #TRACE_DIRECTORY_PROPERTY} に指定されたディレクトリを返します．
+     * 
+     * @return トレースを出力するディレクトリ， 指定されていない場合は {@code null}
+     */
+    public static File getTraceDirectory() {
+        final String directory = System.getProperty(TRACE_DIRECTORY_PROPERTY);
+        if (directory == null || directory.length() == 0) {
+            return null;
+        }
+        return new File(directory);
+    }
+
+    /**
+     * 記録したイベントの数を返します．
+     * 
+     * @return 記録したイベントの数
+     */
+    public synchronized int getEventCount() {
+        return events.size();
+    }
+
+    /**
+     * 記録したイベントを破棄します．
+     */
+    public synchronized void clear() {
+        events.clear();
+    }
+
+    /**
+     * 記録したイベントを Trace Event Format の JSON としてファイルに出力します．
+     * <p>
+     * 親ディレクトリが存在しない場合は作成します．
+     * </p>
+     * 
+     * @param file
+     *            出力先のファイル
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    public void write(final File file) throws IOException {
+        assertNotNull("file", file);
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("cannot create directory: " + parent);
+        }
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(file),
+            "UTF-8"));
+        try {
+            write(writer);
+        } finally {
+            closeSilently(writer);
+        }
+    }
+
+    /**
+     * 記録したイベントを Trace Event Format の JSON として出力します．
+     * 
+     * @param writer
+     *            出力先
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    public synchronized void write(final Writer writer) throws IOException {
+        assertNotNull("writer", writer);
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        for (int i = 0; i < events.size(); ++i) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write('\n');
+            events.get(i).write(writer);
+        }
+        writer.write("\n]}\n");
+        writer.flush();
+    }
+
+    /**
+     * イベントを記録します．
+     * 
+     * @param name
+     *            イベントの名前
+     * @param category
+     *            イベントのカテゴリ
+     * @param start
+     *            開始時刻 ({@link System#nanoTime()})
+     * @param end
+     *            終了時刻 ({@link System#nanoTime()})
+     * @param args
+     *            イベントの引数の名前と値を交互に並べたもの， 値が {@code null} の引数は出力されません
+     */
+    void record(final String name, final String category, final long start,
+            final long end, final Object... args) {
+        final Event event = new Event(
+            name,
+            category,
+            start - origin,
+            end - start,
+            Thread.currentThread().getId(),
+            args);
+        synchronized (this) {
+            events.add(event);
+        }
+    }
+
+    /**
+     * {@link CompilationTask} に {@code TaskListener} を登録します．
+     * <p>
+     * Java コンパイラが {@code com.sun.source.util.JavacTask} でない場合は何もしません．
+     * {@code addTaskListener} があればそれを， なければ {@code setTaskListener} を使います．
+     * </p>
+     * 
+     * @param task
+     *            {@link CompilationTask}
+     * @return {@code TaskListener} を登録した場合は {@code true}
+     */
+    boolean install(final CompilationTask task) {
+        final ClassLoader loader = task.getClass().getClassLoader();
+        try {
+            final Class<?> javacTaskClass = Class.forName(
+                Compilation.JAVAC_TASK_CLASS_NAME,
+                false,
+                loader);
+            if (!javacTaskClass.isInstance(task)) {
+                return false;
+            }
+            final Class<?> listenerClass = Class.forName(
+                TASK_LISTENER_CLASS_NAME,
+                false,
+                loader);
+            Method method;
+            try {
+                method = javacTaskClass.getMethod(
+                    "addTaskListener",
+                    listenerClass);
+            } catch (final NoSuchMethodException e) {
+                method = javacTaskClass.getMethod(
+                    "setTaskListener",
+                    listenerClass);
+            }
+            method.invoke(task, Proxy.newProxyInstance(
+                loader,
+                new Class<?>[] { listenerClass },
+                new TaskListenerHandler()));
+            return true;
+        } catch (final ClassNotFoundException e) {
+            return false;
+        } catch (final NoSuchMethodException e) {
+            return false;
+        } catch (final IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (final InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * 記録されたイベントです．
+     * 
+     * @author koichik
+     */
+    static class Event {
+
+        final String name;
+
+        final String category;
+
+        final long timestamp;
+
+        final long duration;
+
+        final long threadId;
+
+        final Object[] args;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param name
+         *            イベントの名前
+         * @param category
+         *            イベントのカテゴリ
+         * @param timestamp
+         *            トレースの開始からの経過時間 (ナノ秒)
+         * @param duration
+         *            所要時間 (ナノ秒)
+         * @param threadId
+         *            イベントを記録したスレッドの ID
+         * @param args
+         *            イベントの引数の名前と値を交互に並べたもの
+         */
+        Event(final String name, final String category, final long timestamp,
+                final long duration, final long threadId, final Object[] args) {
+            this.name = name;
+            this.category = category;
+            this.timestamp = timestamp;
+            this.duration = duration;
+            this.threadId = threadId;
+            this.args = args;
+        }
+
+        /**
+         * イベントを JSON として出力します．
+         * 
+         * @param writer
+         *            出力先
+         * @throws IOException
+         *             入出力例外が発生した場合
+         */
+        void write(final Writer writer) throws IOException {
+            writer.write("{\"name\":");
+            appendJsonString(writer, name);
+            writer.write(",\"cat\":");
+            appendJsonString(writer, category);
+            writer.write(",\"ph\":\"X\",\"pid\":1,\"tid\":");
+            writer.write(Long.toString(threadId));
+            writer.write(",\"ts\":");
+            writeMicros(writer, timestamp);
+            writer.write(",\"dur\":");
+            writeMicros(writer, duration);
+            writer.write(",\"args\":{");
+            boolean first = true;
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                final Object value = args[i + 1];
+                if (value == null) {
+                    continue;
+                }
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                appendJsonString(writer, String.valueOf(args[i]));
+                writer.write(':');
+                if (value instanceof Number) {
+                    writer.write(value.toString());
+                } else {
+                    appendJsonString(writer, value.toString());
+                }
+            }
+            writer.write("}}");
+        }
+
+        /**
+         * ナノ秒をマイクロ秒の小数として出力します．
+         * 
+         * @param writer
+         *            出力先
+         * @param nanos
+         *            ナノ秒
+         * @throws IOException
+         *             入出力例外が発生した場合
+         */
+        static void writeMicros(final Writer writer, final long nanos)
+                throws IOException {
+            writer.write(Long.toString(nanos / 1000));
+            writer.write('.');
+            final String fraction = Long.toString(1000 + nanos % 1000);
+            writer.write(fraction, 1, 3);
+        }
+
+    }
+
+    /**
+     * {@code com.sun.source.util.TaskListener} を実装する {@link InvocationHandler}
+     * です．
+     * <p>
+     * {@code TaskEvent} の種類とソースファイル， クラスが等しい {@code started} と
+     * {@code finished} の組をひとつのイベントとして記録します． 例えばエンターフェーズでは全てのファイルの
+     * {@code started} の後に {@code finished} が続くため， 開始と終了が入れ子になるとは限りません．
+     * </p>
+     * 
+     * @author koichik
+     */
+    class TaskListenerHandler implements InvocationHandler {
+
+        final Map<String, Long> startTimes = newHashMap();
+
+        @Override
+        public Object invoke(final Object proxy, final Method method,
+                final Object[] args) throws Throwable {
+            final String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                if ("equals".equals(name)) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(name)) {
+                    return System.identityHashCode(proxy);
+                }
+                return "CompilationTracer$TaskListener";
+            }
+            final long now = System.nanoTime();
+            final Object taskEvent = args[0];
+            final Class<?> eventClass = taskEvent.getClass();
+            final String kind = String.valueOf(eventClass.getMethod(
+                "getKind").invoke(taskEvent));
+            final FileObject sourceFile = FileObject.class.cast(eventClass
+                .getMethod("getSourceFile")
+                .invoke(taskEvent));
+            final Object typeElement = eventClass
+                .getMethod("getTypeElement")
+                .invoke(taskEvent);
+            final String file = sourceFile == null ? null : sourceFile
+                .getName();
+            final String className = typeElement == null ? null
+                    : typeElement.toString();
+            final String key = kind + '\0' + file + '\0' + className;
+            if ("started".equals(name)) {
+                startTimes.put(key, now);
+            } else if ("finished".equals(name)) {
+                final Long start = startTimes.remove(key);
+                if (start != null) {
+                    record(
+                        kind,
+                        "javac",
+                        start,
+                        now,
+                        "file",
+                        file,
+                        "class",
+                        className);
+                }
+            }
+            return null;
+        }
+
+    }
+
+}
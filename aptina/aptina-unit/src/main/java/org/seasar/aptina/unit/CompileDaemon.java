@@ -0,0 +1,602 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+
+import static org.seasar.aptina.commons.util.AssertionUtils.*;
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+
+/**
+ * {@link RemoteCompilation} からの要求でコンパイルを実行する常駐プロセスです．
+ * <p>
+ * IDE やコマンドラインから {@link Processor} のテストを繰り返し実行する場合， テストのたびに JVM の起動と
+ * Java コンパイラのウォームアップに数秒かかります． このクラスはループバックアドレスのソケットで待ち受け，
+ * {@link CompilerSession} に保持した {@link JavaCompiler} と {@link StandardJavaFileManager}
+ * を使い回してコンパイルを実行するため， クライアントは JIT コンパイル済みのコンパイラの速度でコンパイルすることができます．
+ * </p>
+ * <p>
+ * 要求ごとに新しい {@link Compilation} を作成し， {@link Processor}
+ * は要求で指定されたクラスパスから新しい {@link ClassLoader} でロードします．
+ * {@link Diagnostic} と生成されたファイルはコンパイル後にクライアントへ転送されます．
+ * </p>
+ * <p>
+ * デーモンはループバックアドレスだけで待ち受け， 起動時に生成した認証トークンを含まない要求を拒否します．
+ * 認証トークンは所有者だけが読み書きできるファイル (デフォルトはユーザのホームディレクトリの
+ * {@code .aptina-unit/daemon-ポート番号.token}) に書き込まれ， {@link RemoteCompilation}
+ * はそのファイルから読み込みます． ファイルのパーミッションを変更できないファイルシステムではデーモンを起動できません．
+ * </p>
+ * <p>
+ * 要求で指定された {@link Processor} のクラスパスは， デーモンの起動時に許可したディレクトリまたは
+ * JAR ファイルの下になければなりません． 許可されていないクラスパスを含む要求や， コンパイラにコードをロードさせる
+ * オプション ({@code -processorpath} や {@code -Xplugin} など) を含む要求はエラーになります．
+ * 許可したパスを指定しなかった場合， {@link Processor} はデーモンのクラスパスからのみロードされます．
+ * </p>
+ * <p>
+ * 要求は最大 {@value #MAX_WORKERS} スレッドで並行に処理され， 処理を待つ接続が {@value #MAX_PENDING_CONNECTIONS}
+ * を超えると新しい接続は切断されます． 要求の読み込みには制限時間 (デフォルトは {@value #DEFAULT_READ_TIMEOUT} ミリ秒)
+ * があり， 要求を送らずに接続を保持するクライアントがスレッドを占有し続けることはありません．
+ * </p>
+ * <p>
+ * コマンドラインから起動するには次のようにします． ポート番号を省略すると {@value #DEFAULT_PORT} で待ち受けます．
+ * ポート番号に続けて {@link Processor} のクラスパスとして許可するパスを指定することができます．
+ * </p>
+ * 
+ * <pre>
+ * java -cp aptina-unit.jar:aptina-commons.jar:junit.jar:tools.jar org.seasar.aptina.unit.CompileDaemon [port [allowedProcessorPath...]]
+ * </pre>
+ * 
+ * @author koichik
+ * @see RemoteCompilation
+ */
+public class CompileDaemon implements Runnable {
+
+    /** デフォルトのポート番号 */
+    public static final int DEFAULT_PORT = 7781;
+
+    /** 要求を処理するスレッドの最大数 */
+    public static final int MAX_WORKERS = 8;
+
+    /** 処理を待つ接続の最大数 */
+    public static final int MAX_PENDING_CONNECTIONS = 50;
+
+    /** 要求を読み込む制限時間のデフォルト (ミリ秒) */
+    public static final int DEFAULT_READ_TIMEOUT = 30 * 1000;
+
+    /** コンパイラにコードをロードさせるため要求で指定することのできないオプション */
+    static final List<String> REJECTED_OPTIONS = Arrays.asList(
+        "-processorpath",
+        "--processor-path",
+        "--processor-module-path",
+        "-processor",
+        "-Xplugin");
+
+    static final Logger logger = Logger
+        .getLogger(CompileDaemon.class.getName());
+
+    final ServerSocket serverSocket;
+
+    final String token = RemoteProtocol.generateToken();
+
+    final File tokenFile;
+
+    final List<File> allowedProcessorPaths = newArrayList();
+
+    final CompilerSession compilerSession = new CompilerSession();
+
+    final ClassLoader classLoader;
+
+    final ThreadPoolExecutor executor = createExecutor();
+
+    volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+
+    volatile boolean closed;
+
+    /**
+     * ループバックアドレスの指定されたポートで待ち受けるインスタンスを構築します．
+     * <p>
+     * 認証トークンはデフォルトのファイルに書き込まれ， {@link Processor} はデーモンのクラスパスからのみロードされます．
+     * </p>
+     * 
+     * @param port
+     *            ポート番号， {@code 0} の場合は空いているポート
+     * @throws IOException
+     *             ソケットを作成できなかった場合や， 認証トークンを書き込めなかった場合
+     */
+    public CompileDaemon(final int port) throws IOException {
+        this(port, null);
+    }
+
+    /**
+     * ループバックアドレスの指定されたポートで待ち受けるインスタンスを構築します．
+     * 
+     * @param port
+     *            ポート番号， {@code 0} の場合は空いているポート
+     * @param tokenFile
+     *            認証トークンを書き込むファイル， {@code null} の場合はデフォルトのファイル
+     * @param allowedProcessorPaths
+     *            要求で {@link Processor} のクラスパスとして指定することを許可するディレクトリまたは JAR
+     *            ファイルの並び
+     * @throws IOException
+     *             ソケットを作成できなかった場合や， 認証トークンを書き込めなかった場合
+     */
+    public CompileDaemon(final int port, final File tokenFile,
+            final File... allowedProcessorPaths) throws IOException {
+        assertNotNull("allowedProcessorPaths", allowedProcessorPaths);
+        for (final File allowedProcessorPath : allowedProcessorPaths) {
+            this.allowedProcessorPaths.add(allowedProcessorPath
+                .getCanonicalFile());
+        }
+        serverSocket = new ServerSocket(port, 50, InetAddress
+            .getByName(RemoteProtocol.LOOPBACK_ADDRESS));
+        this.tokenFile = tokenFile != null ? tokenFile : RemoteProtocol
+            .getDefaultTokenFile(serverSocket.getLocalPort());
+        try {
+            RemoteProtocol.writeToken(this.tokenFile, token);
+        } catch (final IOException e) {
+            RemoteProtocol.closeSilently(serverSocket);
+            throw e;
+        }
+        final ClassLoader contextClassLoader = Thread
+            .currentThread()
+            .getContextClassLoader();
+        classLoader = contextClassLoader != null ? contextClassLoader
+                : CompileDaemon.class.getClassLoader();
+    }
+
+    /**
+     * コマンドラインからデーモンを起動します．
+     * 
+     * @param args
+     *            ポート番号と {@link Processor} のクラスパスとして許可するパスの並び (省略可)
+     * @throws IOException
+     *             ソケットを作成できなかった場合や， 認証トークンを書き込めなかった場合
+     */
+    public static void main(final String[] args) throws IOException {
+        final File[] allowedProcessorPaths = new File[Math.max(
+            0,
+            args.length - 1)];
+        for (int i = 0; i < allowedProcessorPaths.length; ++i) {
+            allowedProcessorPaths[i] = new File(args[i + 1]);
+        }
+        final CompileDaemon daemon = new CompileDaemon(args.length > 0 ? Integer
+            .parseInt(args[0]) : DEFAULT_PORT, null, allowedProcessorPaths);
+        System.out.println("aptina-unit compile daemon listening on "
+                + RemoteProtocol.LOOPBACK_ADDRESS + ":" + daemon.getPort()
+                + ", token file " + daemon.getTokenFile());
+        daemon.run();
+    }
+
+    /**
+     * 待ち受けているポート番号を返します．
+     * 
+     * @return 待ち受けているポート番号
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * 認証トークンを書き込んだファイルを返します．
+     * 
+     * @return 認証トークンを書き込んだファイル
+     */
+    public File getTokenFile() {
+        return tokenFile;
+    }
+
+    /**
+     * 要求を読み込む制限時間を設定します．
+     * <p>
+     * 制限時間内に要求を読み込めなかった接続は切断されます． 設定されなかった場合は {@value #DEFAULT_READ_TIMEOUT}
+     * ミリ秒です．
+     * </p>
+     * 
+     * @param timeout
+     *            制限時間， {@code 0} の場合は無制限
+     * @param unit
+     *            制限時間の単位
+     */
+    public void setReadTimeout(final long timeout, final TimeUnit unit) {
+        assertNotNull("unit", unit);
+        readTimeout = (int) Math.min(Integer.MAX_VALUE, unit.toMillis(timeout));
+    }
+
+    /**
+     * 接続を受け付けるデーモンスレッドを開始します．
+     */
+    public void start() {
+        final Thread thread = new Thread(this, "aptina-unit-daemon");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * {@link #close()} が呼び出されるまで接続を受け付けます．
+     */
+    @Override
+    public void run() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (final IOException e) {
+                if (closed) {
+                    return;
+                }
+                logger.log(Level.WARNING, "failed to accept a connection", e);
+                continue;
+            }
+            try {
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            serve(socket);
+                        } finally {
+                            RemoteProtocol.closeSilently(socket);
+                        }
+                    }
+
+                });
+            } catch (final RejectedExecutionException e) {
+                RemoteProtocol.closeSilently(socket);
+                if (closed) {
+                    return;
+                }
+                logger.warning("rejected a connection from "
+                        + socket.getRemoteSocketAddress()
+                        + ": too many pending connections");
+            }
+        }
+    }
+
+    /**
+     * 接続の受け付けを終了し， 保持しているファイルマネージャをクローズします．
+     * <p>
+     * 認証トークンを書き込んだファイルは削除されます．
+     * </p>
+     */
+    public void close() {
+        closed = true;
+        RemoteProtocol.closeSilently(serverSocket);
+        tokenFile.delete();
+        executor.shutdownNow();
+        compilerSession.close();
+    }
+
+    /**
+     * 接続から要求を読み込んでコンパイルを実行し， 応答を書き込みます．
+     * 
+     * @param socket
+     *            ソケット
+     */
+    void serve(final Socket socket) {
+        try {
+            socket.setSoTimeout(readTimeout);
+            socket.setTcpNoDelay(true);
+            final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            RemoteProtocol.readHeader(in);
+            // 認証されるまでは要求の本体を読み込まない
+            if (!RemoteProtocol.isSameToken(token, RemoteProtocol
+                .readToken(in))) {
+                logger.warning("rejected a request with an invalid token from "
+                        + socket.getRemoteSocketAddress());
+                out.writeInt(RemoteProtocol.STATUS_ERROR);
+                RemoteProtocol.writeString(out, "authentication failed");
+                out.flush();
+                return;
+            }
+            final Locale locale = toLocale(RemoteProtocol.readString(in));
+            final String charsetName = RemoteProtocol.readString(in);
+            final boolean processingOnly = in.readBoolean();
+            final long timeoutNanos = in.readLong();
+            final List<String> options = RemoteProtocol.readStrings(in);
+            final List<String> sourcePaths = RemoteProtocol.readStrings(in);
+            final List<String> processorPaths = RemoteProtocol.readStrings(in);
+            final List<String> processors = RemoteProtocol.readStrings(in);
+            final List<String> classNames = RemoteProtocol.readStrings(in);
+            final List<String> sources = RemoteProtocol.readStrings(in);
+            try {
+                if (classNames.size() != sources.size()) {
+                    throw new IOException("illegal compilation units");
+                }
+                checkOptions(options);
+                final ClassLoader processorClassLoader = createClassLoader(processorPaths);
+                final Compilation compilation = new Compilation();
+                compilation.setLocale(locale);
+                compilation.setCharset(charsetName == null ? null : Charset
+                    .forName(charsetName));
+                compilation.setProcessingOnly(processingOnly);
+                compilation.setTimeout(timeoutNanos, TimeUnit.NANOSECONDS);
+                compilation.options.addAll(options);
+                for (final String sourcePath : sourcePaths) {
+                    compilation.sourcePaths.add(new File(sourcePath));
+                }
+                for (int i = 0; i < classNames.size(); ++i) {
+                    final String source = sources.get(i);
+                    if (source == null) {
+                        compilation.addCompilationUnit(classNames.get(i));
+                    } else {
+                        compilation.addCompilationUnit(
+                            classNames.get(i),
+                            source);
+                    }
+                }
+                for (final String processor : processors) {
+                    compilation.processors.add(Class.forName(
+                        processor,
+                        true,
+                        processorClassLoader).asSubclass(Processor.class).newInstance());
+                }
+                compile(compilation, processorClassLoader, locale, out);
+            } catch (final CompilationTimeoutException e) {
+                out.writeInt(RemoteProtocol.STATUS_TIMEOUT);
+                RemoteProtocol.writeString(out, e.getMessage());
+            } catch (final Exception e) {
+                writeError(out, e);
+            } catch (final Error e) {
+                writeError(out, e);
+            }
+            out.flush();
+        } catch (final SocketException ignore) {
+            // クライアントが切断した
+        } catch (final IOException e) {
+            // 要求を読み込めないか応答を書き込めない
+            logger.log(Level.WARNING, "failed to serve a request from "
+                    + socket.getRemoteSocketAddress(), e);
+        }
+    }
+
+    /**
+     * コンパイルを実行し， 結果を応答として書き込みます．
+     * 
+     * @param compilation
+     *            {@link Compilation}
+     * @param processorClassLoader
+     *            {@link Processor} をロードした {@link ClassLoader}
+     * @param locale
+     *            {@link Diagnostic} のメッセージのロケールまたは {@code null}
+     * @param out
+     *            出力ストリーム
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    void compile(final Compilation compilation,
+            final ClassLoader processorClassLoader, final Locale locale,
+            final DataOutputStream out) throws IOException {
+        final StringWriter output = new StringWriter();
+        compilation.setOut(output);
+        compilation.setCompilerSession(compilerSession);
+        compilation.setDiagnosticSink(DiagnosticSinks.off());
+        final Thread thread = Thread.currentThread();
+        final ClassLoader contextClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(processorClassLoader);
+        final CompilationResult result;
+        try {
+            result = compilation.compile();
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
+        try {
+            out.writeInt(RemoteProtocol.STATUS_OK);
+            final Boolean compiledResult = result.getCompiledResult();
+            out.writeInt(compiledResult == null ? -1 : compiledResult
+                .booleanValue() ? 1 : 0);
+            RemoteProtocol.writeString(out, output.toString());
+            final List<Diagnostic<? extends JavaFileObject>> diagnostics = result
+                .getDiagnostics();
+            out.writeInt(diagnostics.size());
+            final Locale messageLocale = locale != null ? locale : Locale
+                .getDefault();
+            for (final Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+                RemoteDiagnostic.write(out, diagnostic, messageLocale);
+            }
+            final Map<String, ? extends JavaFileObject> files = result
+                .getGeneratedFiles();
+            out.writeInt(files.size());
+            for (final Entry<String, ? extends JavaFileObject> entry : files
+                .entrySet()) {
+                final InMemoryJavaFileObject file = InMemoryJavaFileObject.class
+                    .cast(entry.getValue());
+                RemoteProtocol.writeString(out, entry.getKey());
+                RemoteProtocol.writeString(out, file.toUri().toString());
+                RemoteProtocol.writeString(out, file.getKind().name());
+                RemoteProtocol.writeString(out, file.binaryName);
+                final ByteBuffer content = file.getContent();
+                final byte[] bytes = new byte[content.remaining()];
+                content.get(bytes);
+                RemoteProtocol.writeBytes(out, bytes);
+            }
+        } finally {
+            result.close();
+        }
+    }
+
+    /**
+     * サーバ側で発生した例外を応答として書き込みます．
+     * 
+     * @param out
+     *            出力ストリーム
+     * @param t
+     *            例外
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    void writeError(final DataOutputStream out, final Throwable t)
+            throws IOException {
+        final StringWriter trace = new StringWriter();
+        t.printStackTrace(new PrintWriter(trace));
+        out.writeInt(RemoteProtocol.STATUS_ERROR);
+        RemoteProtocol.writeString(out, trace.toString());
+    }
+
+    /**
+     * 要求を処理するスレッドプールを作成します．
+     * 
+     * @return 要求を処理するスレッドプール
+     */
+    static ThreadPoolExecutor createExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            MAX_WORKERS,
+            MAX_WORKERS,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_PENDING_CONNECTIONS),
+            new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(
+                        runnable,
+                        "aptina-unit-daemon-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 要求で指定されたコンパイラオプションにコンパイラにコードをロードさせるオプションが含まれていれば例外をスローします．
+     * 
+     * @param options
+     *            コンパイラオプション
+     * @throws IOException
+     *             許可されていないオプションが含まれていた場合
+     */
+    static void checkOptions(final List<String> options) throws IOException {
+        for (final String option : options) {
+            for (final String rejected : REJECTED_OPTIONS) {
+                if (option != null && option.startsWith(rejected)) {
+                    throw new IOException("option not allowed: " + option);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@link Processor} をロードする {@link ClassLoader} を作成します．
+     * 
+     * @param processorPaths
+     *            {@link Processor} のクラスパス
+     * @return {@link Processor} をロードする {@link ClassLoader}
+     * @throws MalformedURLException
+     *             クラスパスを {@link URL} に変換できなかった場合
+     * @throws IOException
+     *             許可されていないクラスパスが含まれていた場合
+     */
+    ClassLoader createClassLoader(final List<String> processorPaths)
+            throws MalformedURLException, IOException {
+        if (processorPaths.isEmpty()) {
+            return classLoader;
+        }
+        final URL[] urls = new URL[processorPaths.size()];
+        for (int i = 0; i < urls.length; ++i) {
+            final File processorPath = new File(processorPaths.get(i))
+                .getCanonicalFile();
+            if (!isAllowedProcessorPath(processorPath)) {
+                throw new IOException("processor path not allowed: "
+                        + processorPaths.get(i));
+            }
+            urls[i] = processorPath.toURI().toURL();
+        }
+        return new URLClassLoader(urls, classLoader);
+    }
+
+    /**
+     * {@link Processor} のクラスパスが許可されたパスの下にあれば {@code true} を返します．
+     * 
+     * @param processorPath
+     *            正規化された {@link Processor} のクラスパス
+     * @return {@link Processor} のクラスパスが許可されたパスの下にあれば {@code true}
+     */
+    boolean isAllowedProcessorPath(final File processorPath) {
+        final String path = processorPath.getPath();
+        for (final File allowed : allowedProcessorPaths) {
+            final String allowedPath = allowed.getPath();
+            if (path.equals(allowedPath)
+                    || path.startsWith(allowedPath.endsWith(File.separator) ? allowedPath
+                            : allowedPath + File.separator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 文字列をロケールに変換します．
+     * 
+     * @param locale
+     *            {@link Locale#toString()} 形式の文字列または {@code null}
+     * @return ロケールまたは {@code null}
+     */
+    static Locale toLocale(final String locale) {
+        if (locale == null || locale.length() == 0) {
+            return null;
+        }
+        final String[] parts = locale.split("_", 3);
+        switch (parts.length) {
+        case 1:
+            return new Locale(parts[0]);
+        case 2:
+            return new Locale(parts[0], parts[1]);
+        default:
+            return new Locale(parts[0], parts[1], parts[2]);
+        }
+    }
+
+}
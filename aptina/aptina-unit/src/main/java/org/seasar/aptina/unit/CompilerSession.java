@@ -0,0 +1,241 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static java.util.Arrays.*;
+
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+import static org.seasar.aptina.commons.util.IOUtils.*;
+
+/**
+ * 複数のコンパイルで {@link JavaCompiler} と {@link StandardJavaFileManager} を使い回すためのセッションです．
+ * <p>
+ * {@link StandardJavaFileManager} はクラスパスやプラットフォームクラスパスの索引を内部に保持しているため，
+ * コンパイルごとに生成すると初期化に多くの時間がかかります． このクラスは使い終わった
+ * {@link StandardJavaFileManager} をロケール・文字セット・コンパイラオプションごとにプールし，
+ * 次のコンパイルで再利用します． {@link AptinaTestCase} はプールから借りた
+ * {@link StandardJavaFileManager} の上に， テストごとに新しい {@link TestingJavaFileManager}
+ * を重ねるため， 生成されたファイルがテスト間で共有されることはありません．
+ * </p>
+ * <p>
+ * このクラスのメソッドはスレッドセーフです． 借りている間の {@link StandardJavaFileManager}
+ * は他のコンパイルに貸し出されることはありません．
+ * </p>
+ * <p>
+ * テストクラス単位で共有するには， 次のように {@code static} フィールドに保持したセッションを
+ * {@link AptinaTestCase#setCompilerSession(CompilerSession)} で設定します． JVM 全体で共有するには
+ * {@link #getSharedSession()} が返すセッションを設定するか， システムプロパティ
+ * {@value #SHARED_SESSION_PROPERTY} に {@code true} を指定します．
+ * </p>
+ * 
+ * <pre>
+ * public class XxxProcessorTest extends AptinaTestCase {
+ *
+ *     static final CompilerSession session = new CompilerSession();
+ *
+ *     &#x40;Override
+ *     protected void setUp() throws Exception {
+ *         super.setUp();
+ *         setCompilerSession(session);
+ *     }
+ *
+ *     ...
+ * }
+ * </pre>
+ * 
+ * @author koichik
+ */
+public class CompilerSession {
+
+    /** JVM 全体で共有されるセッションをデフォルトで使用するかどうかを指定するシステムプロパティの名前 */
+    public static final String SHARED_SESSION_PROPERTY = "aptina.unit.sharedCompilerSession";
+
+    /** JVM 全体で共有されるセッション */
+    static final CompilerSession sharedSession = new CompilerSession();
+
+    final JavaCompiler javaCompiler;
+
+    final Map<List<Object>, LinkedList<StandardJavaFileManager>> idleFileManagers = newHashMap();
+
+    final Map<StandardJavaFileManager, List<Object>> leasedFileManagers = new IdentityHashMap<StandardJavaFileManager, List<Object>>();
+
+    boolean closed;
+
+    /**
+     * JVM 全体で共有されるセッションを返します．
+     * 
+     * @return JVM 全体で共有されるセッション
+     */
+    public static CompilerSession getSharedSession() {
+        return sharedSession;
+    }
+
+    /**
+     * {@link AptinaTestCase} がデフォルトで使用するセッションを返します．
+     * 
+     * @return システムプロパティ {@value #SHARED_SESSION_PROPERTY} に {@code true}
+     *         が指定されていれば JVM 全体で共有されるセッション， それ以外は {@code null}
+     */
+    static CompilerSession getDefaultSession() {
+        return Boolean.getBoolean(SHARED_SESSION_PROPERTY) ? sharedSession
+                : null;
+    }
+
+    /**
+     * インスタンスを構築します．
+     */
+    public CompilerSession() {
+        this(ToolProvider.getSystemJavaCompiler());
+    }
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param javaCompiler
+     *            使用する {@link JavaCompiler}
+     */
+    public CompilerSession(final JavaCompiler javaCompiler) {
+        this.javaCompiler = javaCompiler;
+    }
+
+    /**
+     * {@link JavaCompiler} を返します．
+     * 
+     * @return {@link JavaCompiler}
+     */
+    public JavaCompiler getJavaCompiler() {
+        return javaCompiler;
+    }
+
+    /**
+     * {@link StandardJavaFileManager} を借ります．
+     * <p>
+     * 同じロケール・文字セット・コンパイラオプションで使われた {@link StandardJavaFileManager}
+     * がプールされていればそれを返し， そうでなければ新しく生成して返します．
+     * コンパイラオプションの一部 ({@code -classpath} など) は {@link StandardJavaFileManager}
+     * の状態を変更するため， コンパイラオプションもプールのキーに含まれます．
+     * </p>
+     * <p>
+     * 借りた {@link StandardJavaFileManager} は使い終わったら
+     * {@link #releaseFileManager(StandardJavaFileManager)} で返却しなければなりません．
+     * </p>
+     * 
+     * @param locale
+     *            ロケール
+     * @param charset
+     *            文字セット
+     * @param options
+     *            コンパイラオプション
+     * @return {@link StandardJavaFileManager}
+     * @throws IllegalStateException
+     *             セッションがクローズされている場合
+     */
+    public synchronized StandardJavaFileManager acquireFileManager(
+            final Locale locale, final Charset charset,
+            final List<String> options) throws IllegalStateException {
+        if (closed) {
+            throw new IllegalStateException("session closed");
+        }
+        final List<Object> key = asList(locale, charset, new ArrayList<String>(
+            options));
+        final LinkedList<StandardJavaFileManager> idles = idleFileManagers
+            .get(key);
+        final StandardJavaFileManager fileManager = idles == null
+                || idles.isEmpty() ? javaCompiler.getStandardFileManager(
+            null,
+            locale,
+            charset) : idles.removeFirst();
+        leasedFileManagers.put(fileManager, key);
+        return fileManager;
+    }
+
+    /**
+     * 借りていた {@link StandardJavaFileManager} を返却します．
+     * <p>
+     * セッションがクローズされていた場合， 返却された {@link StandardJavaFileManager} はクローズされます．
+     * </p>
+     * 
+     * @param fileManager
+     *            {@link #acquireFileManager(Locale, Charset, List)} で借りた
+     *            {@link StandardJavaFileManager}
+     */
+    public synchronized void releaseFileManager(
+            final StandardJavaFileManager fileManager) {
+        final List<Object> key = leasedFileManagers.remove(fileManager);
+        if (key == null) {
+            return;
+        }
+        if (closed) {
+            closeSilently(fileManager);
+            return;
+        }
+        LinkedList<StandardJavaFileManager> idles = idleFileManagers.get(key);
+        if (idles == null) {
+            idles = new LinkedList<StandardJavaFileManager>();
+            idleFileManagers.put(key, idles);
+        }
+        idles.addFirst(fileManager);
+    }
+
+    /**
+     * 借りていた {@link StandardJavaFileManager} をプールへ戻さずに破棄します．
+     * <p>
+     * コンパイルがタイムアウトした場合など， 借りた {@link StandardJavaFileManager}
+     * を再利用できない場合に使います． 破棄された {@link StandardJavaFileManager} はクローズされます．
+     * </p>
+     * 
+     * @param fileManager
+     *            {@link #acquireFileManager(Locale, Charset, List)} で借りた
+     *            {@link StandardJavaFileManager}
+     */
+    public synchronized void discardFileManager(
+            final StandardJavaFileManager fileManager) {
+        if (leasedFileManagers.remove(fileManager) == null) {
+            return;
+        }
+        closeSilently(fileManager);
+    }
+
+    /**
+     * セッションをクローズし， プールされている {@link StandardJavaFileManager} をクローズします．
+     * <p>
+     * 貸し出し中の {@link StandardJavaFileManager} は返却された時点でクローズされます．
+     * </p>
+     */
+    public synchronized void close() {
+        closed = true;
+        for (final LinkedList<StandardJavaFileManager> idles : idleFileManagers
+            .values()) {
+            for (final StandardJavaFileManager fileManager : idles) {
+                closeSilently(fileManager);
+            }
+        }
+        idleFileManagers.clear();
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * コンパイル中に作成された {@link Diagnostic} を出力する先です．
+ * <p>
+ * {@link DiagnosticSinks} が標準的な実装を提供します． 実装は複数のスレッドから同時に呼び出されても安全でなければなりません．
+ * </p>
+ * 
+ * @author koichik
+ * @see DiagnosticSinks
+ */
+public interface DiagnosticSink {
+
+    /**
+     * {@link Diagnostic} を出力します．
+     * 
+     * @param diagnostic
+     *            {@link Diagnostic}
+     */
+    void report(Diagnostic<? extends JavaFileObject> diagnostic);
+
+    /**
+     * 保留している {@link Diagnostic} を出力します．
+     * <p>
+     * {@link AptinaTestCase} はテストが失敗した時点と {@link AptinaTestCase#tearDown()}
+     * でこのメソッドを呼び出します．
+     * </p>
+     * 
+     * @param failed
+     *            テストが失敗した場合は {@code true}
+     */
+    void flush(boolean failed);
+
+}
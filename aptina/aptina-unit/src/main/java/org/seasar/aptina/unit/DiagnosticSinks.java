@@ -0,0 +1,332 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * 標準的な {@link DiagnosticSink} を作成するクラスです．
+ * <p>
+ * {@link AptinaTestCase} がデフォルトで使用する {@link DiagnosticSink} はシステムプロパティ
+ * {@value #DIAGNOSTIC_SINK_PROPERTY} で指定することができます． 指定できる値は次のとおりです．
+ * </p>
+ * <dl>
+ * <dt>{@code sync} (デフォルト)</dt>
+ * <dd>{@link Diagnostic} を作成されたスレッドで標準出力に出力します．</dd>
+ * <dt>{@code off}</dt>
+ * <dd>{@link Diagnostic} を出力しません．</dd>
+ * <dt>{@code buffered}</dt>
+ * <dd>{@link Diagnostic} をバックグラウンドのスレッドで標準出力に出力します．</dd>
+ * <dt>{@code onFailure}</dt>
+ * <dd>{@link Diagnostic} を保持しておき， テストが失敗した場合だけ標準出力に出力します．</dd>
+ * </dl>
+ * <p>
+ * {@code buffered} と {@code onFailure} が保持する {@link Diagnostic} の数は
+ * {@value #DEFAULT_CAPACITY} 個までです． それを超えた {@link Diagnostic} は出力されず，
+ * 出力されなかった数だけが出力されます．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class DiagnosticSinks {
+
+    /** {@link AptinaTestCase} がデフォルトで使用する {@link DiagnosticSink} を指定するシステムプロパティの名前 */
+    public static final String DIAGNOSTIC_SINK_PROPERTY = "aptina.unit.diagnosticSink";
+
+    /** 保持する {@link Diagnostic} の数のデフォルト値 */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /** バックグラウンドで出力するスレッド */
+    static ExecutorService writer;
+
+    private DiagnosticSinks() {
+    }
+
+    /**
+     * システムプロパティ {@value #DIAGNOSTIC_SINK_PROPERTY} に従って {@link DiagnosticSink}
+     * を作成して返します．
+     * 
+     * @return {@link DiagnosticSink}
+     * @throws IllegalArgumentException
+     *             システムプロパティの値が不正な場合
+     */
+    public static DiagnosticSink createDefault()
+            throws IllegalArgumentException {
+        final String mode = System.getProperty(DIAGNOSTIC_SINK_PROPERTY, "sync");
+        if ("sync".equals(mode)) {
+            return sync(System.out);
+        }
+        if ("off".equals(mode)) {
+            return off();
+        }
+        if ("buffered".equals(mode)) {
+            return buffered(System.out, DEFAULT_CAPACITY);
+        }
+        if ("onFailure".equals(mode)) {
+            return onFailure(System.out, DEFAULT_CAPACITY);
+        }
+        throw new IllegalArgumentException(DIAGNOSTIC_SINK_PROPERTY + "="
+                + mode);
+    }
+
+    /**
+     * {@link Diagnostic} を出力しない {@link DiagnosticSink} を返します．
+     * 
+     * @return {@link Diagnostic} を出力しない {@link DiagnosticSink}
+     */
+    public static DiagnosticSink off() {
+        return OffSink.INSTANCE;
+    }
+
+    /**
+     * {@link Diagnostic} を作成されたスレッドで出力する {@link DiagnosticSink} を返します．
+     * 
+     * @param out
+     *            出力先
+     * @return {@link Diagnostic} を作成されたスレッドで出力する {@link DiagnosticSink}
+     */
+    public static DiagnosticSink sync(final PrintStream out) {
+        return new SyncSink(out);
+    }
+
+    /**
+     * {@link Diagnostic} をバックグラウンドのスレッドで出力する {@link DiagnosticSink} を返します．
+     * <p>
+     * 出力は JVM 全体で一つのスレッドが行うため， 並行して実行されるテストの出力が一つの {@link Diagnostic}
+     * の途中で混ざることはありません．
+     * </p>
+     * 
+     * @param out
+     *            出力先
+     * @param capacity
+     *            出力を待つ {@link Diagnostic} の最大数
+     * @return {@link Diagnostic} をバックグラウンドのスレッドで出力する {@link DiagnosticSink}
+     */
+    public static DiagnosticSink buffered(final PrintStream out,
+            final int capacity) {
+        return new BufferedSink(out, capacity);
+    }
+
+    /**
+     * {@link Diagnostic} を保持しておき， テストが失敗した場合だけ出力する {@link DiagnosticSink} を返します．
+     * <p>
+     * 保持する {@link Diagnostic} が最大数を超えた場合は古いものから捨てられます．
+     * </p>
+     * 
+     * @param out
+     *            出力先
+     * @param capacity
+     *            保持する {@link Diagnostic} の最大数
+     * @return テストが失敗した場合だけ出力する {@link DiagnosticSink}
+     */
+    public static DiagnosticSink onFailure(final PrintStream out,
+            final int capacity) {
+        return new OnFailureSink(out, capacity);
+    }
+
+    /**
+     * バックグラウンドで出力するスレッドを返します．
+     * 
+     * @return バックグラウンドで出力するスレッド
+     */
+    static synchronized ExecutorService getWriter() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(
+                        r,
+                        "aptina-unit-diagnostic-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+
+            });
+        }
+        return writer;
+    }
+
+    /**
+     * {@link Diagnostic} を出力しない {@link DiagnosticSink} です．
+     * 
+     * @author koichik
+     */
+    static class OffSink implements DiagnosticSink {
+
+        static final OffSink INSTANCE = new OffSink();
+
+        @Override
+        public void report(final Diagnostic<? extends JavaFileObject> diagnostic) {
+        }
+
+        @Override
+        public void flush(final boolean failed) {
+        }
+
+    }
+
+    /**
+     * {@link Diagnostic} を作成されたスレッドで出力する {@link DiagnosticSink} です．
+     * 
+     * @author koichik
+     */
+    static class SyncSink implements DiagnosticSink {
+
+        final PrintStream out;
+
+        SyncSink(final PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void report(final Diagnostic<? extends JavaFileObject> diagnostic) {
+            out.println(diagnostic);
+        }
+
+        @Override
+        public void flush(final boolean failed) {
+            out.flush();
+        }
+
+    }
+
+    /**
+     * {@link Diagnostic} をバックグラウンドのスレッドで出力する {@link DiagnosticSink} です．
+     * 
+     * @author koichik
+     */
+    static class BufferedSink implements DiagnosticSink {
+
+        final PrintStream out;
+
+        final int capacity;
+
+        final AtomicInteger pending = new AtomicInteger();
+
+        final AtomicInteger dropped = new AtomicInteger();
+
+        BufferedSink(final PrintStream out, final int capacity) {
+            this.out = out;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void report(final Diagnostic<? extends JavaFileObject> diagnostic) {
+            if (pending.incrementAndGet() > capacity) {
+                pending.decrementAndGet();
+                dropped.incrementAndGet();
+                return;
+            }
+            // Diagnostic はコンパイラの状態を参照している可能性があるため，文字列に変換してから渡す
+            final String message = String.valueOf(diagnostic);
+            getWriter().execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    pending.decrementAndGet();
+                    out.println(message);
+                }
+
+            });
+        }
+
+        @Override
+        public void flush(final boolean failed) {
+            try {
+                getWriter().submit(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        final int count = dropped.getAndSet(0);
+                        if (count > 0) {
+                            out.println("... " + count
+                                    + " diagnostics dropped");
+                        }
+                        out.flush();
+                    }
+
+                }).get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+    }
+
+    /**
+     * {@link Diagnostic} を保持しておき， テストが失敗した場合だけ出力する {@link DiagnosticSink} です．
+     * 
+     * @author koichik
+     */
+    static class OnFailureSink implements DiagnosticSink {
+
+        final PrintStream out;
+
+        final int capacity;
+
+        final ArrayDeque<String> messages = new ArrayDeque<String>();
+
+        int dropped;
+
+        OnFailureSink(final PrintStream out, final int capacity) {
+            this.out = out;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public synchronized void report(
+                final Diagnostic<? extends JavaFileObject> diagnostic) {
+            if (capacity <= 0) {
+                ++dropped;
+                return;
+            }
+            if (messages.size() >= capacity) {
+                messages.removeFirst();
+                ++dropped;
+            }
+            messages.addLast(String.valueOf(diagnostic));
+        }
+
+        @Override
+        public synchronized void flush(final boolean failed) {
+            if (failed) {
+                if (dropped > 0) {
+                    out.println("... " + dropped + " diagnostics dropped");
+                }
+                for (final String message : messages) {
+                    out.println(message);
+                }
+                out.flush();
+            }
+            messages.clear();
+            dropped = 0;
+        }
+
+    }
+
+}
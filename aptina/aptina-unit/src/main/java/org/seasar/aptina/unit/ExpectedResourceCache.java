@@ -0,0 +1,198 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static org.seasar.aptina.commons.util.IOUtils.*;
+
+/**
+ * 生成されたソースと比較するために読み込んだ期待値の文字列をキャッシュするクラスです．
+ * <p>
+ * キャッシュは JVM 全体で共有され， URL と文字セットの組をキーとして最近使われた順に
+ * {@link #DEFAULT_MAX_ENTRIES} 件まで保持します． キャッシュした内容は，
+ * リソースの最終更新時刻 (ファイルの場合はさらにサイズ) が読み込んだ時点から変わると破棄されます．
+ * 最終更新時刻を取得できないリソースはキャッシュされません．
+ * </p>
+ * 
+ * @author koichik
+ */
+class ExpectedResourceCache {
+
+    /** キャッシュする最大のエントリ数 */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    /** JVM 全体で共有されるインスタンス */
+    static final ExpectedResourceCache instance = new ExpectedResourceCache(
+        DEFAULT_MAX_ENTRIES);
+
+    final Map<String, CachedResource> entries;
+
+    int hits;
+
+    int misses;
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param maxEntries
+     *            キャッシュする最大のエントリ数
+     */
+    ExpectedResourceCache(final int maxEntries) {
+        entries = new LinkedHashMap<String, CachedResource>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Entry<String, CachedResource> eldest) {
+                return size() > maxEntries;
+            }
+
+        };
+    }
+
+    /**
+     * JVM 全体で共有されるインスタンスを返します．
+     * 
+     * @return JVM 全体で共有されるインスタンス
+     */
+    static ExpectedResourceCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * ファイルの内容を文字列で返します．
+     * 
+     * @param file
+     *            ファイル
+     * @param charset
+     *            文字セット， {@code null} の場合はプラットフォームデフォルトの文字セット
+     * @return ファイルの内容の文字列
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    String read(final File file, final Charset charset) throws IOException {
+        return read(file.getAbsoluteFile().toURI().toURL(), charset);
+    }
+
+    /**
+     * URL が表すリソースの内容を文字列で返します．
+     * 
+     * @param url
+     *            リソースのURL
+     * @param charset
+     *            文字セット， {@code null} の場合はプラットフォームデフォルトの文字セット
+     * @return リソースの内容の文字列
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    String read(final URL url, final Charset charset) throws IOException {
+        final String key = url.toExternalForm() + '\u0000'
+                + (charset != null ? charset.name() : "");
+        final File file = GoldenFiles.toFile(url);
+        URLConnection connection = null;
+        final long lastModified;
+        final long length;
+        if (file != null) {
+            lastModified = file.lastModified();
+            length = file.length();
+        } else {
+            connection = url.openConnection();
+            lastModified = connection.getLastModified();
+            length = -1;
+        }
+
+        if (lastModified != 0) {
+            synchronized (this) {
+                final CachedResource cached = entries.get(key);
+                if (cached != null && cached.lastModified == lastModified
+                        && cached.length == length) {
+                    ++hits;
+                    return cached.content;
+                }
+                ++misses;
+            }
+        }
+
+        final InputStream is = connection != null ? connection
+            .getInputStream() : url.openStream();
+        final String content;
+        try {
+            content = readString(is, charset != null ? charset : Charset
+                .defaultCharset());
+        } finally {
+            closeSilently(is);
+        }
+        if (lastModified != 0) {
+            synchronized (this) {
+                entries.put(key, new CachedResource(
+                    lastModified,
+                    length,
+                    content));
+            }
+        }
+        return content;
+    }
+
+    /**
+     * キャッシュを空にします．
+     */
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * キャッシュされたリソースの内容です．
+     * 
+     * @author koichik
+     */
+    static class CachedResource {
+
+        final long lastModified;
+
+        final long length;
+
+        final String content;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param lastModified
+         *            読み込んだ時点のリソースの最終更新時刻
+         * @param length
+         *            読み込んだ時点のファイルのサイズ， ファイル以外のリソースの場合は {@code -1}
+         * @param content
+         *            リソースの内容の文字列
+         */
+        CachedResource(final long lastModified, final long length,
+                final String content) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.content = content;
+        }
+
+    }
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static org.seasar.aptina.commons.util.IOUtils.*;
+
+/**
+ * 生成されたソースと比較する期待値のファイル (ゴールデンファイル) を扱うクラスです．
+ * <p>
+ * 検証時はファイルをメモリにマップし， 生成されたソースを同じ文字セットでエンコードしたバイト列と直接比較します．
+ * 内容が一致すればファイルを文字列にデコードすることなく検証を終えます．
+ * </p>
+ * <p>
+ * システムプロパティ {@value #UPDATE_PROPERTY} に {@code true} が指定されている場合は更新モードとなり，
+ * 生成されたソースはゴールデンファイルと比較されずに書き込み待ちとして登録されます．
+ * 登録された内容は {@link #write()} でまとめて書き込まれます． 内容が変わらないファイルは書き込まれません．
+ * Windows ではマップされたファイルをマッピングが回収されるまで上書きできないため，
+ * 書き込む前の比較ではファイルをマップせずに読み込みます．
+ * </p>
+ * 
+ * @author koichik
+ */
+class GoldenFiles {
+
+    /** 更新モードを有効にするシステムプロパティの名前 */
+    public static final String UPDATE_PROPERTY = "aptina.unit.updateGoldenFiles";
+
+    /** 更新モードでクラスパス上のリソースを書き込むディレクトリを指定するシステムプロパティの名前 */
+    public static final String RESOURCE_DIRECTORY_PROPERTY = "aptina.unit.goldenResourceDirectory";
+
+    /** 書き込み待ちのファイルとその内容のマップ */
+    final Map<File, byte[]> pending = new LinkedHashMap<File, byte[]>();
+
+    /**
+     * システムプロパティで更新モードが有効にされていれば {@code true} を返します．
+     * 
+     * @return システムプロパティ {@value #UPDATE_PROPERTY} が {@code true} なら {@code true}
+     */
+    static boolean isUpdateEnabled() {
+        return Boolean.getBoolean(UPDATE_PROPERTY);
+    }
+
+    /**
+     * 更新モードでクラスパス上のリソースを書き込むディレクトリを返します．
+     * 
+     * @return システムプロパティ {@value #RESOURCE_DIRECTORY_PROPERTY}
+     *         に指定されたディレクトリ， 指定されていない場合は {@code null}
+     */
+    static File getResourceDirectory() {
+        final String directory = System
+            .getProperty(RESOURCE_DIRECTORY_PROPERTY);
+        if (directory == null || directory.length() == 0) {
+            return null;
+        }
+        return new File(directory);
+    }
+
+    /**
+     * URL が表すファイルを返します．
+     * 
+     * @param url
+     *            URL
+     * @return URL が表すファイル， {@code file} プロトコルでない場合は {@code null}
+     */
+    static File toFile(final URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (final URISyntaxException e) {
+            return new File(url.getPath());
+        }
+    }
+
+    /**
+     * ファイルの内容が文字列をエンコードしたバイト列と一致すれば {@code true} を返します．
+     * 
+     * @param file
+     *            ファイル
+     * @param content
+     *            文字列
+     * @param charset
+     *            文字セット， {@code null} の場合はプラットフォームデフォルトの文字セット
+     * @return ファイルの内容が一致すれば {@code true}， ファイルが存在しない場合は {@code false}
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static boolean matches(final File file, final String content,
+            final Charset charset) throws IOException {
+        return matches(file, encode(content, charset));
+    }
+
+    /**
+     * ファイルの内容がバイト列と一致すれば {@code true} を返します．
+     * 
+     * @param file
+     *            ファイル
+     * @param bytes
+     *            バイト列
+     * @return ファイルの内容が一致すれば {@code true}， ファイルが存在しない場合は {@code false}
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static boolean matches(final File file, final byte[] bytes)
+            throws IOException {
+        if (!file.isFile() || file.length() != bytes.length) {
+            return false;
+        }
+        final FileInputStream is = new FileInputStream(file);
+        try {
+            final FileChannel channel = is.getChannel();
+            final MappedByteBuffer buffer = channel.map(
+                MapMode.READ_ONLY,
+                0,
+                bytes.length);
+            return buffer.equals(ByteBuffer.wrap(bytes));
+        } finally {
+            closeSilently(is);
+        }
+    }
+
+    /**
+     * ファイルをメモリにマップせずに読み込み， 内容がバイト列と一致すれば {@code true} を返します．
+     * 
+     * @param file
+     *            ファイル
+     * @param bytes
+     *            バイト列
+     * @return ファイルの内容が一致すれば {@code true}， ファイルが存在しない場合は {@code false}
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static boolean isSameContent(final File file, final byte[] bytes)
+            throws IOException {
+        if (!file.isFile() || file.length() != bytes.length) {
+            return false;
+        }
+        final FileInputStream is = new FileInputStream(file);
+        try {
+            final byte[] buf = new byte[Math.min(8192, Math.max(
+                1,
+                bytes.length))];
+            int offset = 0;
+            for (int length; (length = is.read(buf)) != -1;) {
+                if (offset + length > bytes.length) {
+                    return false;
+                }
+                for (int i = 0; i < length; ++i) {
+                    if (buf[i] != bytes[offset + i]) {
+                        return false;
+                    }
+                }
+                offset += length;
+            }
+            return offset == bytes.length;
+        } finally {
+            closeSilently(is);
+        }
+    }
+
+    /**
+     * 文字列をエンコードしたバイト列を返します．
+     * 
+     * @param content
+     *            文字列
+     * @param charset
+     *            文字セット， {@code null} の場合はプラットフォームデフォルトの文字セット
+     * @return エンコードしたバイト列
+     */
+    static byte[] encode(final String content, final Charset charset) {
+        final ByteBuffer buffer = (charset != null ? charset : Charset
+            .defaultCharset()).encode(content);
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * ファイルに書き込む内容を登録します．
+     * <p>
+     * 同じファイルに複数回登録された場合は最後に登録された内容が書き込まれます．
+     * </p>
+     * 
+     * @param file
+     *            ファイル
+     * @param content
+     *            ファイルに書き込む内容
+     * @param charset
+     *            文字セット， {@code null} の場合はプラットフォームデフォルトの文字セット
+     */
+    synchronized void add(final File file, final String content,
+            final Charset charset) {
+        pending.put(file.getAbsoluteFile(), encode(content, charset));
+    }
+
+    /**
+     * 登録された内容をファイルに書き込みます．
+     * <p>
+     * 内容が変わらないファイルは書き込まれません． 書き込んだ後に登録された内容は破棄されます．
+     * </p>
+     * 
+     * @return 書き込んだファイルの数
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    synchronized int write() throws IOException {
+        int count = 0;
+        try {
+            for (final Entry<File, byte[]> entry : pending.entrySet()) {
+                final File file = entry.getKey();
+                final byte[] bytes = entry.getValue();
+                // 上書きするかもしれないファイルはマップしない
+                if (isSameContent(file, bytes)) {
+                    continue;
+                }
+                final File parent = file.getParentFile();
+                if (parent != null) {
+                    parent.mkdirs();
+                }
+                final FileOutputStream os = new FileOutputStream(file);
+                try {
+                    os.write(bytes);
+                } finally {
+                    closeSilently(os);
+                }
+                ++count;
+            }
+        } finally {
+            pending.clear();
+        }
+        return count;
+    }
+
+}
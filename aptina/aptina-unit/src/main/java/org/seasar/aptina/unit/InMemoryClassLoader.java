@@ -0,0 +1,197 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+
+import org.seasar.aptina.commons.util.IOUtils;
+
+import static org.seasar.aptina.commons.util.IOUtils.*;
+
+/**
+ * {@link TestingJavaFileManager} がメモリ上に保持しているクラスファイルからクラスを定義する {@link ClassLoader}
+ * です．
+ * <p>
+ * クラスのロードは親 {@link ClassLoader} に先に委譲し， 親がロードできなかったクラスだけをメモリ上のクラスファイルから定義します．
+ * クラスはロードを要求された時点で定義されます． リソースも同様に， 親が見つけられなかった場合にメモリ上のファイルから返します．
+ * </p>
+ * <p>
+ * メモリ上のファイルは {@value #PROTOCOL} プロトコルの {@link URL} で表されるため，
+ * {@link #getResource(String)} や {@link #getResources(String)}， それらを使う
+ * {@link java.util.ServiceLoader} からも参照することができます． この {@link URL}
+ * はこのクラスローダから返されたものだけが有効です．
+ * </p>
+ * 
+ * @author koichik
+ */
+class InMemoryClassLoader extends ClassLoader {
+
+    /** メモリ上のファイルを表す {@link URL} のプロトコル */
+    static final String PROTOCOL = "aptina-unit";
+
+    final Map<String, ? extends JavaFileObject> fileObjects;
+
+    final URLStreamHandler urlStreamHandler = new InMemoryURLStreamHandler();
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param parent
+     *            親 {@link ClassLoader}
+     * @param fileObjects
+     *            メモリ上のファイルのマップ
+     */
+    InMemoryClassLoader(final ClassLoader parent,
+            final Map<String, ? extends JavaFileObject> fileObjects) {
+        super(parent);
+        this.fileObjects = fileObjects;
+    }
+
+    @Override
+    protected Class<?> findClass(final String name)
+            throws ClassNotFoundException {
+        final JavaFileObject fileObject = fileObjects.get(name
+            .replace('.', '/')
+                + Kind.CLASS.extension);
+        if (fileObject == null || fileObject.getKind() != Kind.CLASS) {
+            throw new ClassNotFoundException(name);
+        }
+        definePackageIfNecessary(name);
+        try {
+            if (fileObject instanceof InMemoryJavaFileObject) {
+                return defineClass(name, InMemoryJavaFileObject.class.cast(
+                    fileObject).getContent(), null);
+            }
+            final byte[] bytes = readContent(fileObject);
+            return defineClass(name, bytes, 0, bytes.length);
+        } catch (final IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+
+    @Override
+    protected URL findResource(final String name) {
+        if (!fileObjects.containsKey(name)) {
+            return null;
+        }
+        try {
+            return new URL(PROTOCOL, null, -1, "/" + name, urlStreamHandler);
+        } catch (final MalformedURLException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(final String name) {
+        final URL url = findResource(name);
+        if (url == null) {
+            return Collections.enumeration(Collections.<URL> emptyList());
+        }
+        return Collections.enumeration(Collections.singletonList(url));
+    }
+
+    /**
+     * クラスのパッケージが定義されていなければ定義します．
+     * 
+     * @param className
+     *            クラスの完全限定名
+     */
+    void definePackageIfNecessary(final String className) {
+        final int pos = className.lastIndexOf('.');
+        if (pos < 0) {
+            return;
+        }
+        final String packageName = className.substring(0, pos);
+        synchronized (this) {
+            if (getPackage(packageName) == null) {
+                definePackage(
+                    packageName,
+                    null,
+                    null,
+                    null,
+                    null,
+                    null,
+                    null,
+                    null);
+            }
+        }
+    }
+
+    /**
+     * ファイルの内容を返します．
+     * 
+     * @param fileObject
+     *            ファイル
+     * @return ファイルの内容
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static byte[] readContent(final JavaFileObject fileObject)
+            throws IOException {
+        final InputStream is = fileObject.openInputStream();
+        try {
+            return IOUtils.readBytes(is);
+        } finally {
+            closeSilently(is);
+        }
+    }
+
+    /**
+     * メモリ上のファイルを読み込む {@link URLStreamHandler} です．
+     * 
+     * @author koichik
+     */
+    class InMemoryURLStreamHandler extends URLStreamHandler {
+
+        @Override
+        protected URLConnection openConnection(final URL url)
+                throws IOException {
+            final JavaFileObject fileObject = fileObjects.get(url
+                .getPath()
+                .substring(1));
+            if (fileObject == null) {
+                throw new IOException("resource not found : " + url);
+            }
+            return new URLConnection(url) {
+
+                @Override
+                public void connect() {
+                    connected = true;
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    connect();
+                    return fileObject.openInputStream();
+                }
+
+            };
+        }
+
+    }
+
+}
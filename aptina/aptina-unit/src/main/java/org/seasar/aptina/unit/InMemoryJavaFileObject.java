@@ -15,31 +15,62 @@
  */
 package org.seasar.aptina.unit;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager.Location;
 import javax.tools.JavaFileObject;
 import javax.tools.SimpleJavaFileObject;
 
 import org.seasar.aptina.commons.util.IOUtils;
 
+import static org.seasar.aptina.commons.util.IOUtils.*;
+
 /**
  * 生成されたリソースをメモリ上に保持する{@link JavaFileObject}の実装です。
+ * <p>
+ * ファイルの内容は書き込みに使われたバッファをそのまま保持し， 読み込みには読み込み専用の {@link ByteBuffer}
+ * のビューを共有するため， 読み込みのたびに内容がコピーされることはありません． デコードした文字列は次に書き込まれるまでキャッシュされます．
+ * バッファのビューが公開されるのは書き込みに使われた {@link OutputStream} がクローズされた後だけで，
+ * クローズされた {@link OutputStream} へは書き込めないため， 公開された内容が変更されることはありません．
+ * 書き込み中に読み込まれた場合はそれまでに書き込まれた内容のコピーを返します．
+ * </p>
+ * <p>
+ * 元のファイルを指定して構築した場合， その内容は最初に読み込まれた時点でメモリ上に読み込まれます．
+ * 読み込まれる前に書き込まれた場合， 元のファイルが読み込まれることはありません．
+ * </p>
  * 
  * @author koichik
  */
 class InMemoryJavaFileObject extends SimpleJavaFileObject {
 
-    byte[] content;
+    static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    volatile ByteBuffer content;
+
+    volatile ContentOutputStream outputStream;
+
+    volatile String charContent;
 
-    ByteArrayOutputStream outputStream;
+    volatile FileObject original;
+
+    /** クラスのバイナリ名， ソースまたはクラスファイル以外の場合は {@code null} */
+    String binaryName;
+
+    /** 索引付けされたロケーション， 索引付けされていない場合は {@code null} */
+    Location location;
+
+    /** 索引付けされたパッケージ名 */
+    String packageName;
 
     final Charset charset;
 
@@ -75,20 +106,112 @@ class InMemoryJavaFileObject extends SimpleJavaFileObject {
             final Charset charset, final byte[] content) {
         super(uri, kind);
         this.charset = charset;
-        this.content = content;
+        if (content != null) {
+            this.content = ByteBuffer.wrap(content).asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * インスタンスを構築します。
+     * 
+     * @param uri
+     *            ファイルオブジェクトの{@link URI}
+     * @param kind
+     *            ファイルオブジェクトの種類
+     * @param charset
+     *            文字セット
+     * @param original
+     *            最初に読み込まれた時に内容を読み込む元のファイル
+     */
+    public InMemoryJavaFileObject(final URI uri, final Kind kind,
+            final Charset charset, final FileObject original) {
+        super(uri, kind);
+        this.charset = charset;
+        this.original = original;
+    }
+
+    /**
+     * ファイルの内容を読み込み専用の {@link ByteBuffer} として返します．
+     * <p>
+     * 返される {@link ByteBuffer} は内部のバッファを共有するビューです． 書き込み中の場合はそれまでに書き込まれた内容のコピーを返します．
+     * </p>
+     * 
+     * @return ファイルの内容
+     * @throws IOException
+     *             元のファイルの読み込み中に入出力例外が発生した場合
+     */
+    ByteBuffer getContent() throws IOException {
+        final ByteBuffer content = this.content;
+        if (content != null) {
+            return content.duplicate();
+        }
+        final ContentOutputStream outputStream = this.outputStream;
+        if (outputStream != null) {
+            return outputStream.copyToByteBuffer();
+        }
+        final ByteBuffer originalContent = loadOriginal();
+        return originalContent != null ? originalContent.duplicate() : EMPTY
+            .duplicate();
+    }
+
+    /**
+     * 元のファイルの内容をまだ読み込んでいなければ読み込みます．
+     * 
+     * @return ファイルの内容， 元のファイルが存在しない場合は {@code null}
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    synchronized ByteBuffer loadOriginal() throws IOException {
+        final FileObject original = this.original;
+        if (original == null) {
+            return content;
+        }
+        try {
+            final InputStream is = original.openInputStream();
+            try {
+                content = ByteBuffer
+                    .wrap(IOUtils.readBytes(is))
+                    .asReadOnlyBuffer();
+            } finally {
+                closeSilently(is);
+            }
+        } catch (final FileNotFoundException ignore) {
+        }
+        this.original = null;
+        return content;
+    }
+
+    /**
+     * 内容を共有する新しいインスタンスを返します．
+     * <p>
+     * 返されたインスタンスに書き込んでも， このインスタンスの内容は変更されません．
+     * </p>
+     * 
+     * @return 内容を共有する新しいインスタンス
+     * @throws IOException
+     *             元のファイルの読み込み中に入出力例外が発生した場合
+     */
+    InMemoryJavaFileObject copy() throws IOException {
+        final InMemoryJavaFileObject copy = new InMemoryJavaFileObject(
+            toUri(),
+            getKind(),
+            charset);
+        copy.content = getContent();
+        copy.binaryName = binaryName;
+        return copy;
     }
 
     @Override
     public InputStream openInputStream() throws IOException {
-        return new ByteArrayInputStream(content != null ? content
-                : outputStream != null ? outputStream.toByteArray()
-                        : new byte[0]);
+        return new ByteBufferInputStream(getContent());
     }
 
     @Override
-    public OutputStream openOutputStream() throws IOException {
+    public synchronized OutputStream openOutputStream() throws IOException {
+        original = null;
         content = null;
-        outputStream = new ByteArrayOutputStream(1024);
+        charContent = null;
+        outputStream = new ContentOutputStream(1024);
         return outputStream;
     }
 
@@ -100,9 +223,157 @@ class InMemoryJavaFileObject extends SimpleJavaFileObject {
     @Override
     public CharSequence getCharContent(final boolean ignoreEncodingErrors)
             throws IOException {
-        return new String(
-            IOUtils.readBytes(openInputStream()),
-            charset == null ? Charset.defaultCharset() : charset);
+        String result = charContent;
+        if (result == null) {
+            result = (charset == null ? Charset.defaultCharset() : charset)
+                .decode(getContent())
+                .toString();
+            charContent = result;
+        }
+        return result;
+    }
+
+    /**
+     * 書き込まれた内容をクローズ時にコピーせずに {@link InMemoryJavaFileObject} へ引き渡す
+     * {@link OutputStream} です．
+     * <p>
+     * クローズした後に書き込もうとすると {@link IOException} をスローします．
+     * </p>
+     * 
+     * @author koichik
+     */
+    class ContentOutputStream extends OutputStream {
+
+        byte[] buf;
+
+        int count;
+
+        boolean closed;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param size
+         *            バッファの初期サイズ
+         */
+        ContentOutputStream(final int size) {
+            buf = new byte[size];
+        }
+
+        @Override
+        public synchronized void write(final int b) throws IOException {
+            ensureCapacity(1);
+            buf[count++] = (byte) b;
+            charContent = null;
+        }
+
+        @Override
+        public synchronized void write(final byte[] b, final int off,
+                final int len) throws IOException {
+            if (off < 0 || len < 0 || off + len > b.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            ensureCapacity(len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+            charContent = null;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (outputStream == this) {
+                content = ByteBuffer
+                    .wrap(buf, 0, count)
+                    .slice()
+                    .asReadOnlyBuffer();
+                outputStream = null;
+            }
+        }
+
+        /**
+         * 書き込まれた内容のコピーを読み込み専用の {@link ByteBuffer} として返します．
+         * 
+         * @return 書き込まれた内容のコピー
+         */
+        synchronized ByteBuffer copyToByteBuffer() {
+            return ByteBuffer
+                .wrap(Arrays.copyOf(buf, count))
+                .asReadOnlyBuffer();
+        }
+
+        /**
+         * 指定のバイト数を書き込めるようにバッファを拡張します．
+         * 
+         * @param size
+         *            書き込むバイト数
+         * @throws IOException
+         *             クローズされている場合
+         */
+        void ensureCapacity(final int size) throws IOException {
+            if (closed) {
+                throw new IOException("stream closed");
+            }
+            final int required = count + size;
+            if (required > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, required));
+            }
+        }
+
+    }
+
+    /**
+     * {@link ByteBuffer} から読み込む {@link InputStream} です．
+     * 
+     * @author koichik
+     */
+    static class ByteBufferInputStream extends InputStream {
+
+        final ByteBuffer buffer;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param buffer
+         *            読み込む {@link ByteBuffer}
+         */
+        ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int size = Math.min(len, buffer.remaining());
+            buffer.get(b, off, size);
+            return size;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final int size = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + size);
+            return size;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
     }
 
 }
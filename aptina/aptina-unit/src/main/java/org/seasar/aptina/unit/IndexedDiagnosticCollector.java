@@ -0,0 +1,204 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileObject;
+
+import static java.util.Collections.*;
+
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+
+/**
+ * 通知された {@link Diagnostic} をソースのクラス名， {@link javax.tools.Diagnostic.Kind}，
+ * コードごとに索引付けして保持する {@link DiagnosticListener} です．
+ * <p>
+ * 索引は {@link Diagnostic} が通知された時点で作成されるため， 問い合わせは {@link Diagnostic}
+ * の数によらず一定時間で完了します． ソースのクラス名は， ソースの {@link java.net.URI} の末尾にある
+ * {@code .java} を除いたパスを {@code /} の位置で区切った全ての接尾辞をパッケージ区切りの {@code .}
+ * で連結したものです． たとえば {@code /src/foo/Bar.java} は {@code Bar}， {@code foo.Bar}，
+ * {@code src.foo.Bar} で索引付けされます．
+ * </p>
+ * 
+ * @author koichik
+ */
+class IndexedDiagnosticCollector implements DiagnosticListener<JavaFileObject> {
+
+    final List<Diagnostic<? extends JavaFileObject>> diagnostics = newArrayList();
+
+    final Map<String, List<Diagnostic<? extends JavaFileObject>>> byClassName = newHashMap();
+
+    final Map<Diagnostic.Kind, List<Diagnostic<? extends JavaFileObject>>> byKind = new EnumMap<Diagnostic.Kind, List<Diagnostic<? extends JavaFileObject>>>(
+        Diagnostic.Kind.class);
+
+    final Map<String, Map<Diagnostic.Kind, List<Diagnostic<? extends JavaFileObject>>>> byClassNameAndKind = newHashMap();
+
+    final Map<String, List<Diagnostic<? extends JavaFileObject>>> byCode = newHashMap();
+
+    /** ソースの {@link java.net.URI} からクラス名のリストへのキャッシュ */
+    final Map<String, List<String>> classNames = newHashMap();
+
+    @Override
+    public synchronized void report(
+            final Diagnostic<? extends JavaFileObject> diagnostic) {
+        diagnostics.add(diagnostic);
+        add(byKind, diagnostic.getKind(), diagnostic);
+        if (diagnostic.getCode() != null) {
+            add(byCode, diagnostic.getCode(), diagnostic);
+        }
+        final JavaFileObject source = diagnostic.getSource();
+        if (source == null) {
+            return;
+        }
+        for (final String className : getClassNames(source.toUri().toString())) {
+            add(byClassName, className, diagnostic);
+            Map<Diagnostic.Kind, List<Diagnostic<? extends JavaFileObject>>> kinds = byClassNameAndKind
+                .get(className);
+            if (kinds == null) {
+                kinds = new EnumMap<Diagnostic.Kind, List<Diagnostic<? extends JavaFileObject>>>(
+                    Diagnostic.Kind.class);
+                byClassNameAndKind.put(className, kinds);
+            }
+            add(kinds, diagnostic.getKind(), diagnostic);
+        }
+    }
+
+    /**
+     * 通知された全ての {@link Diagnostic} のリストを返します．
+     * 
+     * @return 通知された全ての {@link Diagnostic} のリスト
+     */
+    public synchronized List<Diagnostic<? extends JavaFileObject>> getDiagnostics() {
+        return unmodifiableList(diagnostics);
+    }
+
+    /**
+     * 指定されたクラスに対する {@link Diagnostic} のリストを返します．
+     * 
+     * @param className
+     *            クラス名
+     * @return 指定されたクラスに対する {@link Diagnostic} のリスト
+     */
+    public synchronized List<Diagnostic<? extends JavaFileObject>> getDiagnostics(
+            final String className) {
+        return get(byClassName, className);
+    }
+
+    /**
+     * 指定された {@link javax.tools.Diagnostic.Kind} を持つ {@link Diagnostic} のリストを返します．
+     * 
+     * @param kind
+     *            {@link javax.tools.Diagnostic.Kind}
+     * @return 指定された {@link javax.tools.Diagnostic.Kind} を持つ {@link Diagnostic}
+     *         のリスト
+     */
+    public synchronized List<Diagnostic<? extends JavaFileObject>> getDiagnostics(
+            final Diagnostic.Kind kind) {
+        return get(byKind, kind);
+    }
+
+    /**
+     * 指定されたクラスに対する指定された {@link javax.tools.Diagnostic.Kind} を持つ
+     * {@link Diagnostic} のリストを返します．
+     * 
+     * @param className
+     *            クラス名
+     * @param kind
+     *            {@link javax.tools.Diagnostic.Kind}
+     * @return 指定されたクラスに対する指定された {@link javax.tools.Diagnostic.Kind} を持つ
+     *         {@link Diagnostic} のリスト
+     */
+    public synchronized List<Diagnostic<? extends JavaFileObject>> getDiagnostics(
+            final String className, final Diagnostic.Kind kind) {
+        final Map<Diagnostic.Kind, List<Diagnostic<? extends JavaFileObject>>> kinds = byClassNameAndKind
+            .get(className);
+        if (kinds == null) {
+            return emptyList();
+        }
+        return get(kinds, kind);
+    }
+
+    /**
+     * 指定されたコードを持つ {@link Diagnostic} のリストを返します．
+     * 
+     * @param code
+     *            {@link Diagnostic#getCode()} が返すコード
+     * @return 指定されたコードを持つ {@link Diagnostic} のリスト
+     */
+    public synchronized List<Diagnostic<? extends JavaFileObject>> getDiagnosticsWithCode(
+            final String code) {
+        return get(byCode, code);
+    }
+
+    /**
+     * ソースの {@link java.net.URI} に対応するクラス名のリストを返します．
+     * 
+     * @param uri
+     *            ソースの {@link java.net.URI}
+     * @return クラス名のリスト
+     */
+    List<String> getClassNames(final String uri) {
+        List<String> result = classNames.get(uri);
+        if (result != null) {
+            return result;
+        }
+        result = newArrayList();
+        if (uri.endsWith(".java")) {
+            final String path = uri.substring(0, uri.length() - 5);
+            int pos = path.length();
+            while (pos > 0) {
+                pos = path.lastIndexOf('/', pos - 1);
+                final String name = path.substring(pos + 1);
+                if (name.length() > 0) {
+                    result.add(name.replace('/', '.'));
+                }
+                if (pos < 0) {
+                    break;
+                }
+            }
+        }
+        classNames.put(uri, result);
+        return result;
+    }
+
+    static <K> void add(
+            final Map<K, List<Diagnostic<? extends JavaFileObject>>> map,
+            final K key, final Diagnostic<? extends JavaFileObject> diagnostic) {
+        List<Diagnostic<? extends JavaFileObject>> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Diagnostic<? extends JavaFileObject>>(4);
+            map.put(key, list);
+        }
+        list.add(diagnostic);
+    }
+
+    static <K> List<Diagnostic<? extends JavaFileObject>> get(
+            final Map<K, List<Diagnostic<? extends JavaFileObject>>> map,
+            final K key) {
+        final List<Diagnostic<? extends JavaFileObject>> list = map.get(key);
+        if (list == null) {
+            return emptyList();
+        }
+        return unmodifiableList(list);
+    }
+
+}
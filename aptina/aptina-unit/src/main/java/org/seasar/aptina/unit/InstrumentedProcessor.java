@@ -0,0 +1,141 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.util.Set;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * 移譲先の {@link Processor} の呼び出し回数と処理時間を {@link ProcessorStatistics} に記録する
+ * {@link Processor} です．
+ * 
+ * @author koichik
+ */
+class InstrumentedProcessor implements Processor {
+
+    final Processor processor;
+
+    final Compilation.AptinaUnitProcessor aptinaUnitProcessor;
+
+    final ProcessorStatistics statistics;
+
+    final CompilationTracer tracer;
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param processor
+     *            移譲先の {@link Processor}
+     * @param aptinaUnitProcessor
+     *            ラウンドを数える {@link Compilation.AptinaUnitProcessor}
+     * @param tracer
+     *            呼び出しを記録する {@link CompilationTracer} または {@code null}
+     */
+    InstrumentedProcessor(final Processor processor,
+            final Compilation.AptinaUnitProcessor aptinaUnitProcessor,
+            final CompilationTracer tracer) {
+        this.processor = processor;
+        this.aptinaUnitProcessor = aptinaUnitProcessor;
+        this.tracer = tracer;
+        this.statistics = new ProcessorStatistics(processor
+            .getClass()
+            .getName());
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return processor.getSupportedOptions();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        final long start = System.nanoTime();
+        try {
+            return processor.getSupportedAnnotationTypes();
+        } finally {
+            statistics.recordSupportedAnnotationTypes(System.nanoTime()
+                    - start);
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return processor.getSupportedSourceVersion();
+    }
+
+    @Override
+    public void init(final ProcessingEnvironment processingEnv) {
+        final long start = System.nanoTime();
+        try {
+            processor.init(processingEnv);
+        } finally {
+            final long end = System.nanoTime();
+            statistics.recordInit(end - start);
+            if (tracer != null) {
+                tracer.record(
+                    statistics.getProcessorClassName(),
+                    "processor",
+                    start,
+                    end,
+                    "method",
+                    "init");
+            }
+        }
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations,
+            final RoundEnvironment roundEnv) {
+        aptinaUnitProcessor.checkCancelled();
+        final long start = System.nanoTime();
+        try {
+            return processor.process(annotations, roundEnv);
+        } finally {
+            final long end = System.nanoTime();
+            statistics.recordProcess(aptinaUnitProcessor.round, end - start);
+            if (tracer != null) {
+                tracer.record(
+                    statistics.getProcessorClassName(),
+                    "processor",
+                    start,
+                    end,
+                    "method",
+                    "process",
+                    "round",
+                    aptinaUnitProcessor.round,
+                    "annotations",
+                    annotations.size());
+            }
+        }
+    }
+
+    @Override
+    public Iterable<? extends Completion> getCompletions(
+            final Element element, final AnnotationMirror annotation,
+            final ExecutableElement member, final String userText) {
+        return processor.getCompletions(element, annotation, member, userText);
+    }
+
+}
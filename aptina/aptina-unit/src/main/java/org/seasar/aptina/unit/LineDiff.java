@@ -0,0 +1,387 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+import static org.seasar.aptina.commons.util.IOUtils.*;
+
+/**
+ * 二つの行のリストの差分を Myers のアルゴリズムで求め， unified 形式で出力するクラスです．
+ * <p>
+ * 最小の編集スクリプトを中央スネークによる分割統治 (Myers, "An O(ND) Difference Algorithm and Its
+ * Variations" の線形空間版) で求めるため， 作業領域は行数に比例する大きさで済みます．
+ * 行は比較の前に整数に置き換えられ， 先頭と末尾の共通部分は分割のたびに取り除かれます．
+ * </p>
+ * 
+ * @author koichik
+ */
+class LineDiff {
+
+    /** ハンクの前後に出力するコンテキストの行数 */
+    static final int DEFAULT_CONTEXT = 3;
+
+    final List<String> expected;
+
+    final List<String> actual;
+
+    final int[] a;
+
+    final int[] b;
+
+    final boolean[] deleted;
+
+    final boolean[] inserted;
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param expected
+     *            期待される行のリスト
+     * @param actual
+     *            実際の行のリスト
+     */
+    LineDiff(final List<String> expected, final List<String> actual) {
+        this.expected = expected;
+        this.actual = actual;
+        final Map<String, Integer> ids = newHashMap();
+        a = toIds(expected, ids);
+        b = toIds(actual, ids);
+        deleted = new boolean[a.length];
+        inserted = new boolean[b.length];
+        diff(0, a.length, 0, b.length);
+    }
+
+    /**
+     * 文字列を行のリストに分割します．
+     * <p>
+     * 行の区切りは {@link BufferedReader#readLine()} と同じく {@code \n}， {@code \r}，
+     * {@code \r\n} のいずれかです．
+     * </p>
+     * 
+     * @param s
+     *            文字列
+     * @return 行のリスト
+     */
+    static List<String> toLines(final String s) {
+        final BufferedReader reader = new BufferedReader(new StringReader(s));
+        try {
+            return readLines(reader);
+        } catch (final IOException ignore) {
+            throw new AssertionError(ignore); // unreachable
+        } finally {
+            closeSilently(reader);
+        }
+    }
+
+    /**
+     * 入力ストリームから全ての行を読み込みます．
+     * 
+     * @param reader
+     *            入力ストリーム
+     * @return 行のリスト
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static List<String> readLines(final BufferedReader reader)
+            throws IOException {
+        final List<String> lines = newArrayList();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * 行のリストを行の内容ごとに採番した整数の配列に変換します．
+     * 
+     * @param lines
+     *            行のリスト
+     * @param ids
+     *            行の内容から番号へのマップ
+     * @return 整数の配列
+     */
+    static int[] toIds(final List<String> lines, final Map<String, Integer> ids) {
+        final int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; ++i) {
+            final String line = lines.get(i);
+            Integer id = ids.get(line);
+            if (id == null) {
+                id = ids.size();
+                ids.put(line, id);
+            }
+            result[i] = id;
+        }
+        return result;
+    }
+
+    /**
+     * 差分がなければ {@code true} を返します．
+     * 
+     * @return 差分がなければ {@code true}
+     */
+    boolean isEmpty() {
+        return getFirstDifference() < 0;
+    }
+
+    /**
+     * 最初に差分が現れる期待される側の行番号 (1 から始まります) を返します．
+     * 
+     * @return 最初に差分が現れる行番号， 差分がない場合は {@code -1}
+     */
+    int getFirstDifference() {
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (i < a.length && deleted[i] || j < b.length && inserted[j]) {
+                return i + 1;
+            }
+            ++i;
+            ++j;
+        }
+        return -1;
+    }
+
+    /**
+     * 差分を unified 形式で返します．
+     * 
+     * @param context
+     *            ハンクの前後に出力するコンテキストの行数
+     * @return unified 形式の差分， 差分がない場合は空文字列
+     */
+    String toUnifiedString(final int context) {
+        // 編集スクリプトを 1 行ずつの操作 (' ', '-', '+') と双方の行位置に展開する
+        final int max = a.length + b.length;
+        final char[] ops = new char[max];
+        final int[] aIndex = new int[max];
+        final int[] bIndex = new int[max];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            aIndex[n] = i;
+            bIndex[n] = j;
+            if (i < a.length && deleted[i]) {
+                ops[n++] = '-';
+                ++i;
+            } else if (j < b.length && inserted[j]) {
+                ops[n++] = '+';
+                ++j;
+            } else {
+                ops[n++] = ' ';
+                ++i;
+                ++j;
+            }
+        }
+
+        final StringBuilder buf = new StringBuilder();
+        int pos = 0;
+        while (pos < n) {
+            while (pos < n && ops[pos] == ' ') {
+                ++pos;
+            }
+            if (pos == n) {
+                break;
+            }
+            // 変更の間にある一致行がコンテキストの 2 倍以下なら一つのハンクにまとめる
+            final int start = Math.max(0, pos - context);
+            int last = pos;
+            for (int k = pos + 1; k < n; ++k) {
+                if (ops[k] != ' ') {
+                    last = k;
+                } else if (k - last > context * 2) {
+                    break;
+                }
+            }
+            final int end = Math.min(n, last + 1 + context);
+            appendHunk(buf, ops, aIndex, bIndex, start, end);
+            pos = end;
+        }
+        if (buf.length() == 0) {
+            return "";
+        }
+        return "--- expected\n+++ actual\n" + buf;
+    }
+
+    /**
+     * ハンクを一つ出力します．
+     * 
+     * @param buf
+     *            出力先
+     * @param ops
+     *            操作の配列
+     * @param aIndex
+     *            各操作の期待される側の行位置
+     * @param bIndex
+     *            各操作の実際の側の行位置
+     * @param start
+     *            ハンクの開始位置 (この位置を含みます)
+     * @param end
+     *            ハンクの終了位置 (この位置を含みません)
+     */
+    void appendHunk(final StringBuilder buf, final char[] ops,
+            final int[] aIndex, final int[] bIndex, final int start,
+            final int end) {
+        int aCount = 0;
+        int bCount = 0;
+        for (int k = start; k < end; ++k) {
+            if (ops[k] != '+') {
+                ++aCount;
+            }
+            if (ops[k] != '-') {
+                ++bCount;
+            }
+        }
+        buf
+            .append("@@ -")
+            .append(toRange(aIndex[start], aCount))
+            .append(" +")
+            .append(toRange(bIndex[start], bCount))
+            .append(" @@\n");
+        for (int k = start; k < end; ++k) {
+            buf.append(ops[k]).append(
+                ops[k] == '+' ? actual.get(bIndex[k]) : expected
+                    .get(aIndex[k])).append('\n');
+        }
+    }
+
+    /**
+     * unified 形式の行範囲を返します．
+     * 
+     * @param index
+     *            開始位置 (0 から始まります)
+     * @param count
+     *            行数
+     * @return unified 形式の行範囲
+     */
+    static String toRange(final int index, final int count) {
+        if (count == 1) {
+            return Integer.toString(index + 1);
+        }
+        return (count == 0 ? index : index + 1) + "," + count;
+    }
+
+    /**
+     * 指定された範囲の差分を求めて {@link #deleted} と {@link #inserted} に記録します．
+     * 
+     * @param aLo
+     *            期待される側の開始位置
+     * @param aHi
+     *            期待される側の終了位置
+     * @param bLo
+     *            実際の側の開始位置
+     * @param bHi
+     *            実際の側の終了位置
+     */
+    void diff(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            ++aLo;
+            ++bLo;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            --aHi;
+            --bHi;
+        }
+        if (aLo == aHi) {
+            for (int j = bLo; j < bHi; ++j) {
+                inserted[j] = true;
+            }
+            return;
+        }
+        if (bLo == bHi) {
+            for (int i = aLo; i < aHi; ++i) {
+                deleted[i] = true;
+            }
+            return;
+        }
+        final int[] split = middleSnake(aLo, aHi, bLo, bHi);
+        diff(aLo, split[0], bLo, split[1]);
+        diff(split[0], aHi, split[1], bHi);
+    }
+
+    /**
+     * 指定された範囲の最短編集経路上にある中央スネークの端点を返します．
+     * <p>
+     * 前方と後方から同時に編集距離を広げていき， 経路が重なったスネークの端点を返します．
+     * 範囲の先頭と末尾は一致しないため， 返される端点で分割した二つの範囲はどちらも元の範囲より小さくなります．
+     * </p>
+     * 
+     * @param aLo
+     *            期待される側の開始位置
+     * @param aHi
+     *            期待される側の終了位置
+     * @param bLo
+     *            実際の側の開始位置
+     * @param bHi
+     *            実際の側の終了位置
+     * @return 端点の位置 ({@code [期待される側, 実際の側]})
+     */
+    int[] middleSnake(final int aLo, final int aHi, final int bLo,
+            final int bHi) {
+        final int n = aHi - aLo;
+        final int m = bHi - bLo;
+        final int delta = n - m;
+        final boolean odd = (delta & 1) != 0;
+        final int max = (n + m + 1) / 2;
+        final int offset = max + 1;
+        final int[] forward = new int[2 * max + 3];
+        final int[] backward = new int[2 * max + 3];
+        for (int d = 0; d <= max; ++d) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d
+                        && forward[offset + k - 1] < forward[offset + k + 1] ? forward[offset
+                        + k + 1]
+                        : forward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    ++x;
+                    ++y;
+                }
+                forward[offset + k] = x;
+                final int r = delta - k;
+                if (odd && r >= -(d - 1) && r <= d - 1
+                        && x + backward[offset + r] >= n) {
+                    return new int[] { aLo + x, bLo + y };
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d
+                        && backward[offset + k - 1] < backward[offset + k + 1] ? backward[offset
+                        + k + 1]
+                        : backward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    ++x;
+                    ++y;
+                }
+                backward[offset + k] = x;
+                final int f = delta - k;
+                if (!odd && f >= -d && f <= d
+                        && x + forward[offset + f] >= n) {
+                    return new int[] { aHi - x, bHi - y };
+                }
+            }
+        }
+        throw new AssertionError("unreachable");
+    }
+
+}
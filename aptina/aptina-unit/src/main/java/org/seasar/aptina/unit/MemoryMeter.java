@@ -0,0 +1,138 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+
+/**
+ * コンパイル中に割り当てられたメモリとコンパイル後に残ったヒープの大きさを計測するクラスです．
+ * <p>
+ * 割り当てられたメモリは {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}
+ * で現在のスレッドについて計測します． このインタフェースはコンパイル時のクラスパスに含まれないため，
+ * リフレクションで呼び出します． JVM がサポートしていない場合は計測できません．
+ * </p>
+ * <p>
+ * ヒープの大きさは， ガベージコレクションを実行して使用量が減らなくなった時点の {@link MemoryMXBean}
+ * のヒープ使用量です．
+ * </p>
+ * 
+ * @author koichik
+ */
+class MemoryMeter {
+
+    /** ガベージコレクションを繰り返す最大の回数 */
+    static final int MAX_GC_COUNT = 10;
+
+    /** {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)} */
+    static final Method getThreadAllocatedBytes = findGetThreadAllocatedBytes();
+
+    /**
+     * {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}
+     * を返します．
+     * 
+     * @return {@code getThreadAllocatedBytes(long)}， JVM がサポートしていない場合は
+     *         {@code null}
+     */
+    static Method findGetThreadAllocatedBytes() {
+        try {
+            final Class<?> beanClass = Class
+                .forName("com.sun.management.ThreadMXBean");
+            final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (!beanClass.isInstance(bean)) {
+                return null;
+            }
+            if (!Boolean.TRUE.equals(beanClass.getMethod(
+                "isThreadAllocatedMemorySupported").invoke(bean))) {
+                return null;
+            }
+            if (!Boolean.TRUE.equals(beanClass.getMethod(
+                "isThreadAllocatedMemoryEnabled").invoke(bean))) {
+                beanClass
+                    .getMethod("setThreadAllocatedMemoryEnabled", boolean.class)
+                    .invoke(bean, true);
+            }
+            return beanClass.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (final Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 割り当てられたメモリを計測できる場合は {@code true} を返します．
+     * 
+     * @return 割り当てられたメモリを計測できる場合は {@code true}
+     */
+    static boolean isAllocationSupported() {
+        return getThreadAllocatedBytes != null;
+    }
+
+    /**
+     * 現在のスレッドがこれまでに割り当てたメモリのバイト数を返します．
+     * 
+     * @return 現在のスレッドがこれまでに割り当てたメモリのバイト数， 計測できない場合は {@code -1}
+     */
+    static long getAllocatedBytes() {
+        if (getThreadAllocatedBytes == null) {
+            return -1;
+        }
+        try {
+            return Long.class.cast(getThreadAllocatedBytes.invoke(
+                ManagementFactory.getThreadMXBean(),
+                Thread.currentThread().getId()));
+        } catch (final Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * ガベージコレクションを実行した後のヒープの使用量を返します．
+     * <p>
+     * ガベージコレクションはヒープの使用量が減らなくなるまで， 最大 {@link #MAX_GC_COUNT} 回繰り返されます．
+     * </p>
+     * 
+     * @return ガベージコレクションを実行した後のヒープの使用量
+     */
+    static long getUsedHeapAfterGc() {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < MAX_GC_COUNT; ++i) {
+            gc();
+            final long current = memory.getHeapMemoryUsage().getUsed();
+            if (current >= used) {
+                return used;
+            }
+            used = current;
+        }
+        return used;
+    }
+
+    /**
+     * ガベージコレクションが実際に行われるまで {@link System#gc()} を呼び出します．
+     */
+    static void gc() {
+        final WeakReference<Object> ref = new WeakReference<Object>(
+            new Object());
+        for (int i = 0; i < MAX_GC_COUNT && ref.get() != null; ++i) {
+            System.gc();
+            System.runFinalization();
+        }
+    }
+
+}
@@ -15,19 +15,25 @@
  */
 package org.seasar.aptina.unit;
 
-import java.io.BufferedReader;
+import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.StringReader;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.Processor;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
 import javax.annotation.processing.SupportedSourceVersion;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ElementVisitor;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.PackageElement;
@@ -38,6 +44,10 @@ import javax.lang.model.util.ElementScanner6;
 
 import static java.util.Arrays.*;
 
+import static org.seasar.aptina.commons.util.AssertionUtils.*;
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+import static org.seasar.aptina.commons.util.StringUtils.*;
+
 /**
  * コンパイル対象の {@link Element} 階層をコンソールに出力する {@link Processor} です．
  * <p>
@@ -45,6 +55,20 @@ import static java.util.Arrays.*;
  * {@link AptinaTestCase#addProcessor(Processor...)} にこのクラスを加えることで， コンパイル対象の
  * {@link Element} 階層を確認することができます．
  * </p>
+ * <p>
+ * {@link #setFormat(Format)} でインデントしたテキストの代わりに JSON や NDJSON を出力することができます．
+ * {@link #setBuffered(boolean)} に {@code true} を設定すると， ルート要素ごとに出力をメモリ上に蓄えてまとめて書き出し，
+ * 出力先のフラッシュはラウンドごとに一度だけになります． 大きなソースツリーの {@link Element}
+ * 階層を解析ツールに渡す場合は， これらを組み合わせて使います．
+ * </p>
+ * <p>
+ * 出力する {@link Element} は， 完全限定名のパターン ({@link #addInclude(String...)}，
+ * {@link #addExclude(String...)})， 種類 ({@link #setKinds(ElementKind...)})，
+ * 階層の深さ ({@link #setMaxDepth(int)}) で絞り込むことができます． {@link #setSkipDocComments(boolean)}
+ * に {@code true} を設定すると Javadoc コメントを取得しません． これらは Javadoc コメントを取得する前に適用されるため，
+ * 大きなビルドでこの {@link Processor} を有効にしたままでもビルド時間が大きく増えることはありません．
+ * 同じ設定は {@code -A} で指定する {@link Processor} のオプションでも指定することができます．
+ * </p>
  * 
  * <p>
  * 次のサンプルは， {@code src/test/java} フォルダにある {@code TestSource.java} をコンパイルし，
@@ -78,8 +102,34 @@ import static java.util.Arrays.*;
  */
 @SupportedSourceVersion(SourceVersion.RELEASE_6)
 @SupportedAnnotationTypes("*")
+@SupportedOptions( { PrintingProcessor.FORMAT_OPTION,
+    PrintingProcessor.BUFFERED_OPTION, PrintingProcessor.INCLUDE_OPTION,
+    PrintingProcessor.EXCLUDE_OPTION, PrintingProcessor.KINDS_OPTION,
+    PrintingProcessor.MAX_DEPTH_OPTION,
+    PrintingProcessor.SKIP_DOC_COMMENTS_OPTION })
 public class PrintingProcessor extends AbstractProcessor {
 
+    /** 出力形式 ({@link Format} の名前) を指定するオプションの名前 */
+    public static final String FORMAT_OPTION = "aptina.printing.format";
+
+    /** ルート要素ごとに出力を蓄えるかどうかを指定するオプションの名前 */
+    public static final String BUFFERED_OPTION = "aptina.printing.buffered";
+
+    /** 出力する {@link Element} の完全限定名のパターンをカンマ区切りで指定するオプションの名前 */
+    public static final String INCLUDE_OPTION = "aptina.printing.include";
+
+    /** 出力しない {@link Element} の完全限定名のパターンをカンマ区切りで指定するオプションの名前 */
+    public static final String EXCLUDE_OPTION = "aptina.printing.exclude";
+
+    /** 出力する {@link ElementKind} の名前をカンマ区切りで指定するオプションの名前 */
+    public static final String KINDS_OPTION = "aptina.printing.kinds";
+
+    /** トラバースする階層の深さの上限を指定するオプションの名前 */
+    public static final String MAX_DEPTH_OPTION = "aptina.printing.maxDepth";
+
+    /** Javadoc コメントを出力しないかどうかを指定するオプションの名前 */
+    public static final String SKIP_DOC_COMMENTS_OPTION = "aptina.printing.skipDocComments";
+
     /** インデント用の空白 (100 文字) */
     protected static final char[] SPACES = new char[100];
     static {
@@ -92,6 +142,30 @@ public class PrintingProcessor extends AbstractProcessor {
     /** 階層の深さ */
     protected int depth;
 
+    /** 出力形式 */
+    protected Format format = Format.TEXT;
+
+    /** ルート要素ごとに出力を蓄え， ラウンドごとにフラッシュする場合は {@code true} */
+    protected boolean buffered;
+
+    /** 出力する {@link Element} の完全限定名のパターンのリスト */
+    protected final List<Pattern> includes = newArrayList();
+
+    /** 出力しない {@link Element} の完全限定名のパターンのリスト */
+    protected final List<Pattern> excludes = newArrayList();
+
+    /** 出力する {@link Element} の種類 */
+    protected Set<ElementKind> kinds = EnumSet.allOf(ElementKind.class);
+
+    /** トラバースする階層の深さの上限， 負数の場合は制限しない */
+    protected int maxDepth = -1;
+
+    /** Javadoc コメントを出力しない場合は {@code true} */
+    protected boolean skipDocComments;
+
+    /** JSON 形式で現在の階層にまだ要素を出力していない場合は {@code true} */
+    boolean first;
+
     /**
      * インスタンスを構築します．
      */
@@ -109,12 +183,202 @@ public class PrintingProcessor extends AbstractProcessor {
         this.out = out;
     }
 
+    /**
+     * 出力形式を返します．
+     * 
+     * @return 出力形式
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * 出力形式を設定します．
+     * <p>
+     * 設定されなかった場合は {@link Format#TEXT} です．
+     * </p>
+     * 
+     * @param format
+     *            出力形式
+     */
+    public void setFormat(final Format format) {
+        assertNotNull("format", format);
+        this.format = format;
+    }
+
+    /**
+     * ルート要素ごとに出力を蓄え， ラウンドごとにフラッシュする場合は {@code true} を返します．
+     * 
+     * @return ルート要素ごとに出力を蓄え， ラウンドごとにフラッシュする場合は {@code true}
+     */
+    public boolean isBuffered() {
+        return buffered;
+    }
+
+    /**
+     * ルート要素ごとに出力を蓄え， ラウンドごとにフラッシュするかどうかを設定します．
+     * <p>
+     * {@code false} の場合は {@link Element} の開始と終了のたびに出力先をフラッシュします．
+     * </p>
+     * 
+     * @param buffered
+     *            ルート要素ごとに出力を蓄え， ラウンドごとにフラッシュする場合は {@code true}
+     */
+    public void setBuffered(final boolean buffered) {
+        this.buffered = buffered;
+    }
+
+    /**
+     * 出力する {@link Element} の完全限定名のパターンを追加します．
+     * <p>
+     * パターンの {@code *} は任意の文字列に， {@code ?} は任意の 1 文字にマッチします．
+     * パターンはパッケージとクラスに適用されます． 追加された場合， いずれかのパターンにマッチするパッケージやクラスと，
+     * そのメンバだけが出力されます． マッチしないクラスのネストしたクラスにもパターンは適用されます．
+     * 追加されなかった場合は全ての {@link Element} を出力します．
+     * </p>
+     * 
+     * @param patterns
+     *            出力する {@link Element} の完全限定名のパターンの並び
+     */
+    public void addInclude(final String... patterns) {
+        assertNotEmpty("patterns", patterns);
+        for (final String pattern : patterns) {
+            includes.add(toPattern(pattern));
+        }
+    }
+
+    /**
+     * 出力しない {@link Element} の完全限定名のパターンを追加します．
+     * <p>
+     * パターンは全ての {@link Element} に適用されます． メンバの完全限定名はそれを宣言しているクラスの完全限定名に
+     * {@code .} とメンバの単純名を続けたものです (例えば {@code foo.Bar.baz})．
+     * マッチした {@link Element} とその子孫はトラバースされません．
+     * </p>
+     * 
+     * @param patterns
+     *            出力しない {@link Element} の完全限定名のパターンの並び
+     */
+    public void addExclude(final String... patterns) {
+        assertNotEmpty("patterns", patterns);
+        for (final String pattern : patterns) {
+            excludes.add(toPattern(pattern));
+        }
+    }
+
+    /**
+     * 出力する {@link Element} の種類を設定します．
+     * <p>
+     * 指定されなかった種類の {@link Element} は出力されませんが， その子孫はトラバースされます．
+     * 設定されなかった場合は全ての種類を出力します．
+     * </p>
+     * 
+     * @param kinds
+     *            出力する {@link Element} の種類の並び
+     */
+    public void setKinds(final ElementKind... kinds) {
+        assertNotEmpty("kinds", kinds);
+        this.kinds = EnumSet.of(kinds[0], kinds);
+    }
+
+    /**
+     * トラバースする階層の深さの上限を設定します．
+     * <p>
+     * ルート要素の深さは {@code 0} です． 例えば {@code 1} を設定するとクラスとそのメンバだけを出力し，
+     * メソッドの引数はトラバースしません． 設定されなかった場合は制限しません．
+     * </p>
+     * 
+     * @param maxDepth
+     *            トラバースする階層の深さの上限， 負数の場合は制限しない
+     */
+    public void setMaxDepth(final int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Javadoc コメントを出力しないかどうかを設定します．
+     * <p>
+     * {@code true} を設定すると {@link javax.lang.model.util.Elements#getDocComment(Element)}
+     * を呼び出しません．
+     * </p>
+     * 
+     * @param skipDocComments
+     *            Javadoc コメントを出力しない場合は {@code true}
+     */
+    public void setSkipDocComments(final boolean skipDocComments) {
+        this.skipDocComments = skipDocComments;
+    }
+
+    @Override
+    public synchronized void init(
+            final ProcessingEnvironment processingEnvironment) {
+        super.init(processingEnvironment);
+        final Map<String, String> options = processingEnvironment
+            .getOptions();
+        final String format = options.get(FORMAT_OPTION);
+        if (format != null) {
+            setFormat(Format.valueOf(format.trim().toUpperCase()));
+        }
+        if (options.containsKey(BUFFERED_OPTION)) {
+            setBuffered(parseBoolean(options.get(BUFFERED_OPTION)));
+        }
+        for (final String include : split(options.get(INCLUDE_OPTION))) {
+            addInclude(include);
+        }
+        for (final String exclude : split(options.get(EXCLUDE_OPTION))) {
+            addExclude(exclude);
+        }
+        final List<String> kindNames = split(options.get(KINDS_OPTION));
+        if (!kindNames.isEmpty()) {
+            final ElementKind[] kinds = new ElementKind[kindNames.size()];
+            for (int i = 0; i < kinds.length; ++i) {
+                kinds[i] = ElementKind.valueOf(kindNames.get(i).toUpperCase());
+            }
+            setKinds(kinds);
+        }
+        final String maxDepth = options.get(MAX_DEPTH_OPTION);
+        if (maxDepth != null) {
+            setMaxDepth(Integer.parseInt(maxDepth.trim()));
+        }
+        if (options.containsKey(SKIP_DOC_COMMENTS_OPTION)) {
+            setSkipDocComments(parseBoolean(options
+                .get(SKIP_DOC_COMMENTS_OPTION)));
+        }
+    }
+
     @Override
     public boolean process(final Set<? extends TypeElement> annotations,
             final RoundEnvironment roundEnv) {
-        for (final Element e : roundEnv.getRootElements()) {
-            new PrintingVisitor().scan(e);
+        final Set<? extends Element> rootElements = roundEnv.getRootElements();
+        if (rootElements.isEmpty()) {
+            return false;
+        }
+        if (format == Format.JSON) {
+            out.print('[');
+            first = true;
         }
+        for (final Element e : rootElements) {
+            if (!buffered) {
+                new PrintingVisitor().scan(e);
+                continue;
+            }
+            final PrintWriter original = out;
+            final CharArrayWriter buffer = new CharArrayWriter();
+            out = new PrintWriter(buffer);
+            try {
+                new PrintingVisitor().scan(e);
+            } finally {
+                out = original;
+            }
+            try {
+                buffer.writeTo(out);
+            } catch (final IOException ignore) {
+                // PrintWriter は例外をスローしない
+            }
+        }
+        if (format == Format.JSON) {
+            out.println(']');
+        }
+        out.flush();
         return false;
     }
 
@@ -125,6 +389,39 @@ public class PrintingProcessor extends AbstractProcessor {
      */
     class PrintingVisitor extends ElementScanner6<Void, Void> {
 
+        /** トラバースしている階層の深さ */
+        int level;
+
+        /** 出力するパッケージまたはクラスの内側をトラバースしている場合は {@code true} */
+        boolean included = includes.isEmpty();
+
+        @Override
+        public Void scan(final Element e, final Void p) {
+            if (maxDepth >= 0 && level > maxDepth) {
+                return null;
+            }
+            final boolean container = e instanceof TypeElement
+                    || e instanceof PackageElement;
+            if (!included && !container) {
+                return null;
+            }
+            final String name = getQualifiedName(e);
+            if (matches(excludes, name)) {
+                return null;
+            }
+            final boolean wasIncluded = included;
+            if (!included && matches(includes, name)) {
+                included = true;
+            }
+            ++level;
+            try {
+                return super.scan(e, p);
+            } finally {
+                --level;
+                included = wasIncluded;
+            }
+        }
+
         @Override
         public Void visitPackage(final PackageElement e, final Void p) {
             enter(e);
@@ -166,16 +463,47 @@ public class PrintingProcessor extends AbstractProcessor {
             return null;
         }
 
+        boolean isPrinted(final Element e) {
+            return included && kinds.contains(e.getKind());
+        }
+
         void enter(final Element e) {
-            printEnterMessage(e);
-            out.flush();
+            if (!isPrinted(e)) {
+                return;
+            }
+            switch (format) {
+            case JSON:
+                printJsonEnterMessage(e);
+                break;
+            case NDJSON:
+                printNdjsonMessage(e);
+                break;
+            default:
+                printEnterMessage(e);
+            }
+            if (!buffered) {
+                out.flush();
+            }
             ++depth;
         }
 
         void leave(final Element e) {
+            if (!isPrinted(e)) {
+                return;
+            }
             --depth;
-            printLeaveMessage(e);
-            out.flush();
+            switch (format) {
+            case JSON:
+                printJsonLeaveMessage(e);
+                break;
+            case NDJSON:
+                break;
+            default:
+                printLeaveMessage(e);
+            }
+            if (!buffered) {
+                out.flush();
+            }
         }
 
     }
@@ -187,20 +515,27 @@ public class PrintingProcessor extends AbstractProcessor {
      *            {@link Element}
      */
     protected void printEnterMessage(final Element e) {
-        final String comment = processingEnv.getElementUtils().getDocComment(e);
+        final String comment = getDocComment(e);
         if (comment != null) {
             indent(depth * 2);
             out.println("/**");
-            final BufferedReader reader = new BufferedReader(new StringReader(
-                comment));
-            try {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    indent(depth * 2);
-                    out.print(" * ");
-                    out.println(line);
+            final int length = comment.length();
+            int start = 0;
+            while (start < length) {
+                int end = start;
+                while (end < length && comment.charAt(end) != '\n'
+                        && comment.charAt(end) != '\r') {
+                    ++end;
                 }
-            } catch (final IOException ignore) {
+                indent(depth * 2);
+                out.print(" * ");
+                out.write(comment, start, end - start);
+                out.println();
+                if (end < length - 1 && comment.charAt(end) == '\r'
+                        && comment.charAt(end + 1) == '\n') {
+                    ++end;
+                }
+                start = end + 1;
             }
             indent(depth * 2);
             out.println(" */");
@@ -223,6 +558,91 @@ public class PrintingProcessor extends AbstractProcessor {
         out.println("}");
     }
 
+    /**
+     * JSON 形式で {@link Element} が開始されたことを出力します．
+     * <p>
+     * {@code {"kind":"CLASS","name":"foo.Bar","doc":"...","children":[} を出力します．
+     * {@code doc} は Javadoc コメントがある場合だけ出力されます．
+     * </p>
+     * 
+     * @param e
+     *            {@link Element}
+     */
+    protected void printJsonEnterMessage(final Element e) {
+        if (!first) {
+            out.print(',');
+        }
+        printJsonProperties(e);
+        out.print(",\"children\":[");
+        first = true;
+    }
+
+    /**
+     * JSON 形式で {@link Element} が終了したことを出力します．
+     * 
+     * @param e
+     *            {@link Element}
+     */
+    protected void printJsonLeaveMessage(final Element e) {
+        out.print("]}");
+        first = false;
+    }
+
+    /**
+     * NDJSON 形式で {@link Element} を 1 行に出力します．
+     * <p>
+     * {@code {"kind":"CLASS","name":"foo.Bar","doc":"...","depth":0}} を出力します．
+     * 要素は階層の順に出力されるため， {@code depth} から木構造を復元することができます．
+     * </p>
+     * 
+     * @param e
+     *            {@link Element}
+     */
+    protected void printNdjsonMessage(final Element e) {
+        printJsonProperties(e);
+        out.print(",\"depth\":");
+        out.print(depth);
+        out.println('}');
+    }
+
+    /**
+     * {@link Element} の種類と名前， Javadoc コメントを JSON オブジェクトのプロパティとして出力します．
+     * 閉じ括弧は出力しません．
+     * 
+     * @param e
+     *            {@link Element}
+     */
+    protected void printJsonProperties(final Element e) {
+        try {
+            out.print("{\"kind\":");
+            appendJsonString(out, e.getKind().name());
+            out.print(",\"name\":");
+            appendJsonString(out, e.toString());
+            final String comment = getDocComment(e);
+            if (comment != null) {
+                out.print(",\"doc\":");
+                appendJsonString(out, comment);
+            }
+        } catch (final IOException ignore) {
+            // PrintWriter は例外をスローしない
+        }
+    }
+
+    /**
+     * {@link Element} の Javadoc コメントを返します．
+     * 
+     * @param e
+     *            {@link Element}
+     * @return Javadoc コメント， コメントがない場合や {@link #setSkipDocComments(boolean)} に
+     *         {@code true} が設定されている場合は {@code null}
+     */
+    protected String getDocComment(final Element e) {
+        if (skipDocComments) {
+            return null;
+        }
+        return processingEnv.getElementUtils().getDocComment(e);
+    }
+
     /**
      * インデントを出力します．
      * 
@@ -235,4 +655,127 @@ public class PrintingProcessor extends AbstractProcessor {
         }
     }
 
+    /**
+     * {@link Element} の完全限定名を返します．
+     * <p>
+     * パッケージとクラス以外の {@link Element} は， 囲んでいる {@link Element} の完全限定名に {@code .}
+     * と単純名を続けたものです．
+     * </p>
+     * 
+     * @param e
+     *            {@link Element}
+     * @return {@link Element} の完全限定名
+     */
+    static String getQualifiedName(final Element e) {
+        if (e instanceof PackageElement) {
+            return PackageElement.class.cast(e).getQualifiedName().toString();
+        }
+        if (e instanceof TypeElement) {
+            return TypeElement.class.cast(e).getQualifiedName().toString();
+        }
+        final Element enclosing = e.getEnclosingElement();
+        if (enclosing == null) {
+            return e.getSimpleName().toString();
+        }
+        return getQualifiedName(enclosing) + "." + e.getSimpleName();
+    }
+
+    /**
+     * 名前がいずれかのパターンにマッチする場合は {@code true} を返します．
+     * 
+     * @param patterns
+     *            パターンのリスト
+     * @param name
+     *            名前
+     * @return 名前がいずれかのパターンにマッチする場合は {@code true}
+     */
+    static boolean matches(final List<Pattern> patterns, final String name) {
+        for (final Pattern pattern : patterns) {
+            if (pattern.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@code *} と {@code ?} をワイルドカードとするパターンを正規表現に変換します．
+     * 
+     * @param pattern
+     *            パターン
+     * @return 正規表現
+     */
+    static Pattern toPattern(final String pattern) {
+        assertNotEmpty("pattern", pattern);
+        final StringBuilder buf = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < pattern.length(); ++i) {
+            final char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                if (start < i) {
+                    buf.append(Pattern.quote(pattern.substring(start, i)));
+                }
+                buf.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < pattern.length()) {
+            buf.append(Pattern.quote(pattern.substring(start)));
+        }
+        return Pattern.compile(buf.toString());
+    }
+
+    /**
+     * カンマ区切りの文字列を分割します．
+     * 
+     * @param value
+     *            カンマ区切りの文字列または {@code null}
+     * @return 空白を除いた空でない要素のリスト
+     */
+    static List<String> split(final String value) {
+        final List<String> list = newArrayList();
+        if (value == null) {
+            return list;
+        }
+        for (final String element : value.split(",")) {
+            final String trimmed = element.trim();
+            if (trimmed.length() > 0) {
+                list.add(trimmed);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * オプションの値を {@code boolean} に変換します．
+     * <p>
+     * 値のない {@code -Aname} は {@code true} とみなします．
+     * </p>
+     * 
+     * @param value
+     *            オプションの値または {@code null}
+     * @return {@code boolean} の値
+     */
+    static boolean parseBoolean(final String value) {
+        return value == null || Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * {@link PrintingProcessor} の出力形式です．
+     * 
+     * @author koichik
+     */
+    public enum Format {
+
+        /** インデントしたテキスト */
+        TEXT,
+
+        /** ラウンドごとにルート要素の配列を 1 行で出力する JSON */
+        JSON,
+
+        /** 1 行に 1 つの {@link Element} を出力する NDJSON */
+        NDJSON
+
+    }
+
 }
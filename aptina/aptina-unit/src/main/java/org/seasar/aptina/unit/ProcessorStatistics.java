@@ -0,0 +1,231 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.processing.Processor;
+
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+
+/**
+ * {@link Processor} ごとの呼び出し回数と処理時間を表すクラスです．
+ * <p>
+ * {@link Processor#init(javax.annotation.processing.ProcessingEnvironment)}，
+ * {@link Processor#getSupportedAnnotationTypes()}，
+ * {@link Processor#process(java.util.Set, javax.annotation.processing.RoundEnvironment)}
+ * の呼び出し回数と， {@link System#nanoTime()} で計測した処理時間の合計を保持します．
+ * {@code process} はラウンドごとの処理時間も保持します．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class ProcessorStatistics {
+
+    final String processorClassName;
+
+    int initCount;
+
+    long initNanos;
+
+    int supportedAnnotationTypesCount;
+
+    long supportedAnnotationTypesNanos;
+
+    int processCount;
+
+    long processNanos;
+
+    final List<Long> roundNanos = newArrayList();
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param processorClassName
+     *            {@link Processor} のクラス名
+     */
+    ProcessorStatistics(final String processorClassName) {
+        this.processorClassName = processorClassName;
+    }
+
+    /**
+     * {@link Processor} のクラス名を返します．
+     * 
+     * @return {@link Processor} のクラス名
+     */
+    public String getProcessorClassName() {
+        return processorClassName;
+    }
+
+    /**
+     * {@code init} の呼び出し回数を返します．
+     * 
+     * @return {@code init} の呼び出し回数
+     */
+    public int getInitCount() {
+        return initCount;
+    }
+
+    /**
+     * {@code init} の処理時間を返します．
+     * 
+     * @param unit
+     *            時間の単位
+     * @return {@code init} の処理時間
+     */
+    public long getInitTime(final TimeUnit unit) {
+        return unit.convert(initNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * {@code getSupportedAnnotationTypes} の呼び出し回数を返します．
+     * 
+     * @return {@code getSupportedAnnotationTypes} の呼び出し回数
+     */
+    public int getSupportedAnnotationTypesCount() {
+        return supportedAnnotationTypesCount;
+    }
+
+    /**
+     * {@code getSupportedAnnotationTypes} の処理時間の合計を返します．
+     * 
+     * @param unit
+     *            時間の単位
+     * @return {@code getSupportedAnnotationTypes} の処理時間の合計
+     */
+    public long getSupportedAnnotationTypesTime(final TimeUnit unit) {
+        return unit.convert(supportedAnnotationTypesNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * {@code process} の呼び出し回数を返します．
+     * 
+     * @return {@code process} の呼び出し回数
+     */
+    public int getProcessCount() {
+        return processCount;
+    }
+
+    /**
+     * {@code process} の処理時間の合計を返します．
+     * 
+     * @param unit
+     *            時間の単位
+     * @return {@code process} の処理時間の合計
+     */
+    public long getProcessTime(final TimeUnit unit) {
+        return unit.convert(processNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * ラウンドごとの {@code process} の処理時間をナノ秒単位で返します．
+     * <p>
+     * リストの要素はラウンドの順に並んでいます． {@code process} が呼び出されなかったラウンドは {@code 0} です．
+     * </p>
+     * 
+     * @return ラウンドごとの {@code process} の処理時間 (ナノ秒)
+     */
+    public List<Long> getRoundNanos() {
+        return Collections.unmodifiableList(roundNanos);
+    }
+
+    /**
+     * {@link Processor} が使用した処理時間の合計を返します．
+     * 
+     * @param unit
+     *            時間の単位
+     * @return 処理時間の合計
+     */
+    public long getTotalTime(final TimeUnit unit) {
+        return unit.convert(
+            initNanos + supportedAnnotationTypesNanos + processNanos,
+            TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * {@code init} の処理時間を記録します．
+     * 
+     * @param nanos
+     *            処理時間 (ナノ秒)
+     */
+    void recordInit(final long nanos) {
+        ++initCount;
+        initNanos += nanos;
+    }
+
+    /**
+     * {@code getSupportedAnnotationTypes} の処理時間を記録します．
+     * 
+     * @param nanos
+     *            処理時間 (ナノ秒)
+     */
+    void recordSupportedAnnotationTypes(final long nanos) {
+        ++supportedAnnotationTypesCount;
+        supportedAnnotationTypesNanos += nanos;
+    }
+
+    /**
+     * {@code process} の処理時間を記録します．
+     * 
+     * @param round
+     *            ラウンド (1 から始まります)
+     * @param nanos
+     *            処理時間 (ナノ秒)
+     */
+    void recordProcess(final int round, final long nanos) {
+        ++processCount;
+        processNanos += nanos;
+        final int index = Math.max(round, 1) - 1;
+        while (roundNanos.size() <= index) {
+            roundNanos.add(0L);
+        }
+        roundNanos.set(index, roundNanos.get(index) + nanos);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder(128);
+        buf.append(processorClassName);
+        buf.append(" init=").append(toMillis(initNanos));
+        buf.append("ms(").append(initCount).append(")");
+        buf.append(" getSupportedAnnotationTypes=").append(
+            toMillis(supportedAnnotationTypesNanos));
+        buf.append("ms(").append(supportedAnnotationTypesCount).append(")");
+        buf.append(" process=").append(toMillis(processNanos));
+        buf.append("ms(").append(processCount).append(") [");
+        for (int i = 0; i < roundNanos.size(); ++i) {
+            if (i > 0) {
+                buf.append(", ");
+            }
+            buf.append(toMillis(roundNanos.get(i))).append("ms");
+        }
+        return new String(buf.append("]"));
+    }
+
+    /**
+     * ナノ秒をミリ秒に変換して返します．
+     * 
+     * @param nanos
+     *            ナノ秒
+     * @return ミリ秒
+     */
+    static String toMillis(final long nanos) {
+        return String.format("%.3f", nanos / 1000000.0);
+    }
+
+}
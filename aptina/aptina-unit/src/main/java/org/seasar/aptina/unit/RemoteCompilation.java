@@ -0,0 +1,437 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+
+import static org.seasar.aptina.commons.util.AssertionUtils.*;
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+
+/**
+ * {@link CompileDaemon} にコンパイルを依頼するクライアントです．
+ * <p>
+ * {@link Compilation} と同じようにコンパイルオプションやコンパイル対象を設定して {@link #compile()}
+ * を呼び出します． {@link Processor} はインスタンスではなくクラス名で指定し， デーモンのプロセスでインスタンス化されます．
+ * {@link #addProcessorPath(File...)} で {@link Processor} のクラスパスを指定すると，
+ * デーモンはコンパイルごとに新しい {@link ClassLoader} でそのクラスパスから {@link Processor}
+ * をロードするため， {@link Processor} を修正して再ビルドしてもデーモンを再起動する必要はありません．
+ * {@link Processor} のクラスパスはデーモンの起動時に許可したパスの下になければなりません．
+ * </p>
+ * <p>
+ * 要求にはデーモンが起動時に書き込んだ認証トークンが含まれます． 認証トークンはデフォルトではデーモンのポート番号に対応するファイルから読み込まれます．
+ * </p>
+ * <p>
+ * デーモンのプロセスではコンパイラとファイルマネージャが {@link CompilerSession} に保持されているため，
+ * JVM の起動や JIT コンパイルによる遅延なしにコンパイルを実行することができます．
+ * </p>
+ * 
+ * <pre>
+ * final RemoteCompilation compilation = new RemoteCompilation(CompileDaemon.DEFAULT_PORT);
+ * compilation.addSourcePath(new File("src/test/java"));
+ * compilation.addProcessorPath(new File("target/classes"));
+ * compilation.addProcessor("foo.bar.TestProcessor");
+ * compilation.addCompilationUnit("foo.bar.TestSource");
+ * final RemoteCompilationResult result = compilation.compile();
+ * assertTrue(result.getCompiledResult());
+ * assertEquals(..., result.getGeneratedSource("foo.bar.Baz"));
+ * </pre>
+ * 
+ * @author koichik
+ */
+public class RemoteCompilation {
+
+    final InetSocketAddress address;
+
+    File tokenFile;
+
+    String token;
+
+    Locale locale;
+
+    Charset charset;
+
+    boolean processingOnly;
+
+    long timeoutNanos;
+
+    final List<String> options = newArrayList();
+
+    final List<File> sourcePaths = newArrayList();
+
+    final List<File> processorPaths = newArrayList();
+
+    final List<String> processors = newArrayList();
+
+    final List<String> classNames = newArrayList();
+
+    final List<String> sources = newArrayList();
+
+    /**
+     * ループバックアドレスの指定されたポートで待ち受けている {@link CompileDaemon} を使うインスタンスを構築します．
+     * 
+     * @param port
+     *            {@link CompileDaemon} のポート番号
+     */
+    public RemoteCompilation(final int port) {
+        this(new InetSocketAddress(RemoteProtocol.LOOPBACK_ADDRESS, port));
+    }
+
+    /**
+     * 指定されたアドレスで待ち受けている {@link CompileDaemon} を使うインスタンスを構築します．
+     * 
+     * @param address
+     *            {@link CompileDaemon} のアドレス
+     */
+    public RemoteCompilation(final InetSocketAddress address) {
+        assertNotNull("address", address);
+        this.address = address;
+        tokenFile = RemoteProtocol.getDefaultTokenFile(address.getPort());
+    }
+
+    /**
+     * 認証トークンを読み込むファイルを設定します．
+     * <p>
+     * 設定されなかった場合はデーモンのポート番号に対応するデフォルトのファイルから読み込まれます．
+     * </p>
+     * 
+     * @param tokenFile
+     *            認証トークンを読み込むファイル
+     */
+    public synchronized void setTokenFile(final File tokenFile) {
+        assertNotNull("tokenFile", tokenFile);
+        this.tokenFile = tokenFile;
+    }
+
+    /**
+     * 認証トークンを設定します．
+     * <p>
+     * 設定された場合は認証トークンをファイルから読み込みません．
+     * </p>
+     * 
+     * @param token
+     *            認証トークン
+     */
+    public synchronized void setToken(final String token) {
+        assertNotEmpty("token", token);
+        this.token = token;
+    }
+
+    /**
+     * ロケールを設定します．
+     * <p>
+     * 設定されなかった場合はデーモンのプラットフォームデフォルトのロケールが使われます．
+     * {@link Diagnostic} のメッセージはこのロケールでローカライズされます．
+     * </p>
+     * 
+     * @param locale
+     *            ロケール
+     */
+    public synchronized void setLocale(final Locale locale) {
+        this.locale = locale;
+    }
+
+    /**
+     * 文字セットを設定します．
+     * <p>
+     * 設定されなかった場合はデーモンのプラットフォームデフォルトの文字セットが使われます．
+     * </p>
+     * 
+     * @param charset
+     *            文字セット
+     */
+    public synchronized void setCharset(final Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * 注釈処理と解析だけを行い， クラスファイルを生成しないかどうかを設定します．
+     * 
+     * @param processingOnly
+     *            注釈処理と解析だけを行う場合は {@code true}
+     * @see Compilation#setProcessingOnly(boolean)
+     */
+    public synchronized void setProcessingOnly(final boolean processingOnly) {
+        this.processingOnly = processingOnly;
+    }
+
+    /**
+     * デーモンでのコンパイルの制限時間を設定します．
+     * 
+     * @param timeout
+     *            制限時間， {@code 0} 以下の場合は制限しません
+     * @param unit
+     *            {@code timeout} の単位
+     * @see Compilation#setTimeout(long, TimeUnit)
+     */
+    public synchronized void setTimeout(final long timeout, final TimeUnit unit) {
+        assertNotNull("unit", unit);
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * コンパイル時に参照するソースパスを追加します．
+     * <p>
+     * パスはデーモンのプロセスで解決されるため， 絶対パスに変換して送られます．
+     * </p>
+     * 
+     * @param sourcePaths
+     *            コンパイル時に参照するソースパスの並び
+     */
+    public synchronized void addSourcePath(final File... sourcePaths) {
+        assertNotEmpty("sourcePaths", sourcePaths);
+        for (final File sourcePath : sourcePaths) {
+            this.sourcePaths.add(sourcePath.getAbsoluteFile());
+        }
+    }
+
+    /**
+     * {@link Processor} をロードするクラスパスを追加します．
+     * <p>
+     * 追加されなかった場合， {@link Processor} はデーモンのクラスパスからロードされます．
+     * </p>
+     * 
+     * @param processorPaths
+     *            {@link Processor} をロードするクラスパスの並び
+     */
+    public synchronized void addProcessorPath(final File... processorPaths) {
+        assertNotEmpty("processorPaths", processorPaths);
+        for (final File processorPath : processorPaths) {
+            this.processorPaths.add(processorPath.getAbsoluteFile());
+        }
+    }
+
+    /**
+     * コンパイラオプションを追加します．
+     * 
+     * @param options
+     *            形式のコンパイラオプションの並び
+     */
+    public synchronized void addOption(final String... options) {
+        assertNotEmpty("options", options);
+        for (final String option : options) {
+            this.options.add(option);
+        }
+    }
+
+    /**
+     * 注釈を処理する {@link Processor} を追加します．
+     * 
+     * @param processorClassNames
+     *            注釈を処理する {@link Processor} の完全限定名の並び
+     */
+    public synchronized void addProcessor(final String... processorClassNames) {
+        assertNotEmpty("processorClassNames", processorClassNames);
+        for (final String processorClassName : processorClassNames) {
+            processors.add(processorClassName);
+        }
+    }
+
+    /**
+     * 注釈を処理する {@link Processor} を追加します．
+     * <p>
+     * 呼び出し側で総称型の配列が生成されて警告にならないよう， 引数の型は {@code Class<?>} です．
+     * </p>
+     * 
+     * @param processorClasses
+     *            注釈を処理する {@link Processor} のクラスの並び
+     * @throws IllegalArgumentException
+     *             {@link Processor} を実装していないクラスが含まれていた場合
+     */
+    public synchronized void addProcessor(final Class<?>... processorClasses)
+            throws IllegalArgumentException {
+        assertNotEmpty("processorClasses", processorClasses);
+        for (final Class<?> processorClass : processorClasses) {
+            if (!Processor.class.isAssignableFrom(processorClass)) {
+                throw new IllegalArgumentException("not a processor : "
+                        + processorClass.getName());
+            }
+        }
+        for (final Class<?> processorClass : processorClasses) {
+            processors.add(processorClass.getName());
+        }
+    }
+
+    /**
+     * コンパイル対象のクラスを追加します．
+     * <p>
+     * 指定されたクラスのソースはソースパス上に存在していなければなりません．
+     * </p>
+     * 
+     * @param className
+     *            コンパイル対象クラスの完全限定名
+     */
+    public synchronized void addCompilationUnit(final String className) {
+        assertNotEmpty("className", className);
+        classNames.add(className);
+        sources.add(null);
+    }
+
+    /**
+     * コンパイル対象のクラスをソースとともに追加します．
+     * 
+     * @param className
+     *            コンパイル対象クラスの完全限定名
+     * @param source
+     *            ソース
+     */
+    public synchronized void addCompilationUnit(final String className,
+            final CharSequence source) {
+        assertNotEmpty("className", className);
+        assertNotEmpty("source", source);
+        classNames.add(className);
+        sources.add(source.toString());
+    }
+
+    /**
+     * {@link CompileDaemon} にコンパイルを依頼します．
+     * 
+     * @return コンパイルの結果
+     * @throws IOException
+     *             {@link CompileDaemon} との通信中に入出力例外が発生した場合や，
+     *             {@link CompileDaemon} で例外が発生した場合
+     * @throws CompilationTimeoutException
+     *             制限時間内にコンパイルが完了しなかった場合
+     */
+    public synchronized RemoteCompilationResult compile() throws IOException,
+            CompilationTimeoutException {
+        final String token = this.token != null ? this.token : RemoteProtocol
+            .readToken(tokenFile);
+        final Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            writeRequest(out, token);
+            out.flush();
+            return readResponse(new DataInputStream(new BufferedInputStream(
+                socket.getInputStream())));
+        } finally {
+            RemoteProtocol.closeSilently(socket);
+        }
+    }
+
+    /**
+     * 要求を書き込みます．
+     * 
+     * @param out
+     *            出力ストリーム
+     * @param token
+     *            認証トークン
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    void writeRequest(final DataOutputStream out, final String token)
+            throws IOException {
+        RemoteProtocol.writeHeader(out);
+        RemoteProtocol.writeString(out, token);
+        RemoteProtocol.writeString(out, locale == null ? null : locale
+            .toString());
+        RemoteProtocol.writeString(out, charset == null ? null : charset
+            .name());
+        out.writeBoolean(processingOnly);
+        out.writeLong(timeoutNanos);
+        RemoteProtocol.writeStrings(out, options);
+        RemoteProtocol.writeStrings(out, toPaths(sourcePaths));
+        RemoteProtocol.writeStrings(out, toPaths(processorPaths));
+        RemoteProtocol.writeStrings(out, processors);
+        RemoteProtocol.writeStrings(out, classNames);
+        RemoteProtocol.writeStrings(out, sources);
+    }
+
+    /**
+     * 応答を読み込みます．
+     * 
+     * @param in
+     *            入力ストリーム
+     * @return コンパイルの結果
+     * @throws IOException
+     *             入出力例外が発生した場合や， {@link CompileDaemon} で例外が発生した場合
+     * @throws CompilationTimeoutException
+     *             制限時間内にコンパイルが完了しなかった場合
+     */
+    RemoteCompilationResult readResponse(final DataInputStream in)
+            throws IOException, CompilationTimeoutException {
+        final int status = in.readInt();
+        if (status == RemoteProtocol.STATUS_TIMEOUT) {
+            throw new CompilationTimeoutException(RemoteProtocol
+                .readString(in));
+        }
+        if (status != RemoteProtocol.STATUS_OK) {
+            throw new IOException("compile daemon failed: "
+                    + RemoteProtocol.readString(in));
+        }
+        final int compiledResult = in.readInt();
+        final String output = RemoteProtocol.readString(in);
+        final List<Diagnostic<? extends JavaFileObject>> diagnostics = newArrayList();
+        for (int i = RemoteProtocol.readSize(in); i > 0; --i) {
+            diagnostics.add(new RemoteDiagnostic(in));
+        }
+        final Charset charset = this.charset != null ? this.charset : Charset
+            .defaultCharset();
+        final Map<String, InMemoryJavaFileObject> files = new LinkedHashMap<String, InMemoryJavaFileObject>();
+        for (int i = RemoteProtocol.readSize(in); i > 0; --i) {
+            final String key = RemoteProtocol.readString(in);
+            final URI uri = URI.create(RemoteProtocol.readString(in));
+            final Kind kind = Kind.valueOf(RemoteProtocol.readString(in));
+            final String binaryName = RemoteProtocol.readString(in);
+            final InMemoryJavaFileObject file = new InMemoryJavaFileObject(
+                uri,
+                kind,
+                charset,
+                RemoteProtocol.readBytes(in));
+            file.binaryName = binaryName;
+            files.put(key, file);
+        }
+        return new RemoteCompilationResult(compiledResult < 0 ? null
+                : Boolean.valueOf(compiledResult != 0), output, diagnostics, files);
+    }
+
+    /**
+     * ファイルのリストをパスのリストに変換します．
+     * 
+     * @param files
+     *            ファイルのリスト
+     * @return パスのリスト
+     */
+    static List<String> toPaths(final List<File> files) {
+        final List<String> paths = newArrayList();
+        for (final File file : files) {
+            paths.add(file.getPath());
+        }
+        return paths;
+    }
+
+}
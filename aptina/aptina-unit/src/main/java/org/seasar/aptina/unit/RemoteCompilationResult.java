@@ -0,0 +1,166 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+
+import static java.util.Collections.*;
+
+import static org.seasar.aptina.commons.util.AssertionUtils.*;
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+
+/**
+ * {@link RemoteCompilation#compile()} によるコンパイルの結果です．
+ * <p>
+ * 生成されたファイルは全てクライアントのメモリ上に転送されているため， {@link CompilationResult}
+ * と異なりクローズする必要はありません． {@link javax.annotation.processing.ProcessingEnvironment}
+ * はデーモンのプロセスにあるため参照することはできません．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class RemoteCompilationResult {
+
+    final Boolean compiledResult;
+
+    final String output;
+
+    final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+
+    final Map<String, InMemoryJavaFileObject> files;
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param compiledResult
+     *            コンパイラの実行結果
+     * @param output
+     *            コンパイラの出力
+     * @param diagnostics
+     *            コンパイル中に作成された {@link Diagnostic} のリスト
+     * @param files
+     *            コンパイル中に生成されたファイルのマップ
+     */
+    RemoteCompilationResult(final Boolean compiledResult,
+            final String output,
+            final List<Diagnostic<? extends JavaFileObject>> diagnostics,
+            final Map<String, InMemoryJavaFileObject> files) {
+        this.compiledResult = compiledResult;
+        this.output = output;
+        this.diagnostics = unmodifiableList(diagnostics);
+        this.files = unmodifiableMap(files);
+    }
+
+    /**
+     * コンパイラの実行結果を返します．
+     * 
+     * @return コンパイラの実行結果
+     */
+    public Boolean getCompiledResult() {
+        return compiledResult;
+    }
+
+    /**
+     * コンパイラが出力したメッセージを返します．
+     * 
+     * @return コンパイラが出力したメッセージ
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * コンパイル中に作成された {@link Diagnostic} のリストを返します．
+     * 
+     * @return コンパイル中に作成された {@link Diagnostic} のリスト
+     */
+    public List<Diagnostic<? extends JavaFileObject>> getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * 指定された {@link javax.tools.Diagnostic.Kind} を持つ {@link Diagnostic} のリストを返します．
+     * 
+     * @param kind
+     *            {@link javax.tools.Diagnostic.Kind}
+     * @return 指定された {@link javax.tools.Diagnostic.Kind} を持つ {@link Diagnostic}
+     *         のリスト
+     */
+    public List<Diagnostic<? extends JavaFileObject>> getDiagnostics(
+            final javax.tools.Diagnostic.Kind kind) {
+        assertNotNull("kind", kind);
+        final List<Diagnostic<? extends JavaFileObject>> result = newArrayList();
+        for (final Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+            if (diagnostic.getKind() == kind) {
+                result.add(diagnostic);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * コンパイル中に生成されたファイルのマップを返します．
+     * 
+     * @return コンパイル中に生成されたファイルのマップ
+     * @see CompilationResult#getGeneratedFiles()
+     */
+    public Map<String, ? extends JavaFileObject> getGeneratedFiles() {
+        return files;
+    }
+
+    /**
+     * コンパイル中に生成されたクラスファイルからクラスを定義する {@link ClassLoader} を返します．
+     * 
+     * @param parent
+     *            親 {@link ClassLoader}
+     * @return 生成されたクラスを定義する {@link ClassLoader}
+     * @see CompilationResult#getClassLoader(ClassLoader)
+     */
+    public ClassLoader getClassLoader(final ClassLoader parent) {
+        return new InMemoryClassLoader(parent, files);
+    }
+
+    /**
+     * {@link javax.annotation.processing.Processor} が生成したソースを返します．
+     * 
+     * @param className
+     *            生成されたクラスの完全限定名
+     * @return 生成されたソースの内容
+     * @throws IOException
+     *             入出力例外が発生した場合
+     * @throws SourceNotGeneratedException
+     *             ソースが生成されなかった場合
+     */
+    public String getGeneratedSource(final String className)
+            throws IOException, SourceNotGeneratedException {
+        assertNotEmpty("className", className);
+        final JavaFileObject javaFileObject = files.get(className.replace(
+            '.',
+            '/')
+                + Kind.SOURCE.extension);
+        if (javaFileObject == null) {
+            throw new SourceNotGeneratedException(className);
+        }
+        return javaFileObject.getCharContent(true).toString();
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * {@link CompileDaemon} から受け取った {@link Diagnostic} です．
+ * <p>
+ * メッセージは要求で指定されたロケールでサーバ側でローカライズされた文字列です．
+ * {@link #getSource()} はソースの {@link URI} だけを持ち， 内容を読み込むことはできない
+ * {@link JavaFileObject} を返します．
+ * </p>
+ * 
+ * @author koichik
+ */
+class RemoteDiagnostic implements Diagnostic<JavaFileObject> {
+
+    final Kind kind;
+
+    final JavaFileObject source;
+
+    final long position;
+
+    final long startPosition;
+
+    final long endPosition;
+
+    final long lineNumber;
+
+    final long columnNumber;
+
+    final String code;
+
+    final String message;
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param in
+     *            {@link RemoteProtocol} の形式で書き込まれた入力ストリーム
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    RemoteDiagnostic(final DataInputStream in) throws IOException {
+        kind = Kind.valueOf(RemoteProtocol.readString(in));
+        final String uri = RemoteProtocol.readString(in);
+        source = uri == null ? null : new SimpleJavaFileObject(
+            URI.create(uri),
+            JavaFileObject.Kind.SOURCE) {
+        };
+        position = in.readLong();
+        startPosition = in.readLong();
+        endPosition = in.readLong();
+        lineNumber = in.readLong();
+        columnNumber = in.readLong();
+        code = RemoteProtocol.readString(in);
+        message = RemoteProtocol.readString(in);
+    }
+
+    /**
+     * {@link Diagnostic} を {@link RemoteProtocol} の形式で書き込みます．
+     * 
+     * @param out
+     *            出力ストリーム
+     * @param diagnostic
+     *            {@link Diagnostic}
+     * @param locale
+     *            メッセージのロケール
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static void write(final DataOutputStream out,
+            final Diagnostic<? extends JavaFileObject> diagnostic,
+            final Locale locale) throws IOException {
+        RemoteProtocol.writeString(out, diagnostic.getKind().name());
+        final JavaFileObject source = diagnostic.getSource();
+        RemoteProtocol.writeString(out, source == null ? null : source
+            .toUri()
+            .toString());
+        out.writeLong(diagnostic.getPosition());
+        out.writeLong(diagnostic.getStartPosition());
+        out.writeLong(diagnostic.getEndPosition());
+        out.writeLong(diagnostic.getLineNumber());
+        out.writeLong(diagnostic.getColumnNumber());
+        RemoteProtocol.writeString(out, diagnostic.getCode());
+        RemoteProtocol.writeString(out, diagnostic.getMessage(locale));
+    }
+
+    @Override
+    public Kind getKind() {
+        return kind;
+    }
+
+    @Override
+    public JavaFileObject getSource() {
+        return source;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public long getStartPosition() {
+        return startPosition;
+    }
+
+    @Override
+    public long getEndPosition() {
+        return endPosition;
+    }
+
+    @Override
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public long getColumnNumber() {
+        return columnNumber;
+    }
+
+    @Override
+    public String getCode() {
+        return code;
+    }
+
+    @Override
+    public String getMessage(final Locale locale) {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        if (source == null) {
+            return kind + ": " + message;
+        }
+        return source.getName() + ":" + lineNumber + ": " + kind + ": "
+                + message;
+    }
+
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+
+import org.seasar.aptina.commons.util.IOUtils;
+
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+
+/**
+ * {@link CompileDaemon} と {@link RemoteCompilation} の間でやり取りするデータの形式です．
+ * <p>
+ * 任意のクラスを復元できてしまう Java のシリアライズは使わず， 文字列とバイト列だけを
+ * {@link DataOutputStream} で読み書きします． 文字列は UTF-8 でエンコードしたバイト列の長さを先頭に付けて書き込むため，
+ * {@link DataOutputStream#writeUTF(String)} の 64KB の制限を受けません．
+ * </p>
+ * <p>
+ * 1 つの接続で 1 つのコンパイルを行います． 要求と応答の形式は次のとおりです．
+ * </p>
+ * <dl>
+ * <dt>要求</dt>
+ * <dd>マジックナンバー， バージョン， 認証トークン， ロケール， 文字セット， 注釈処理と解析だけを行うかどうか， 制限時間，
+ * コンパイラオプション， ソースパス， {@link javax.annotation.processing.Processor}
+ * のクラスパス， {@link javax.annotation.processing.Processor} のクラス名，
+ * コンパイル対象 (クラス名とソース， ソースパス上のクラスの場合はソースは {@code null})</dd>
+ * <dt>応答</dt>
+ * <dd>状態 ({@link #STATUS_OK}， {@link #STATUS_ERROR} または {@link #STATUS_TIMEOUT})，
+ * 正常の場合はコンパイラの実行結果， コンパイラの出力， {@link javax.tools.Diagnostic} の並び，
+ * 生成されたファイルの並び， それ以外の場合はサーバ側で発生した例外のメッセージまたはスタックトレース</dd>
+ * </dl>
+ * <p>
+ * 認証トークンは {@link CompileDaemon} が起動時に生成し， 所有者だけが読み書きできるファイルに書き込みます．
+ * {@link RemoteCompilation} はそのファイルからトークンを読み込んで要求に含めるため，
+ * トークンのファイルを読むことができないユーザはコンパイルを依頼することができません．
+ * </p>
+ * 
+ * @author koichik
+ */
+class RemoteProtocol {
+
+    /** 要求の先頭に書き込まれるマジックナンバー */
+    static final int MAGIC = 0x41505455;
+
+    /** プロトコルのバージョン */
+    static final int VERSION = 2;
+
+    /** 認証トークンのバイト数 */
+    static final int TOKEN_LENGTH = 32;
+
+    /** コンパイルが実行されたことを示す応答の状態 */
+    static final int STATUS_OK = 0;
+
+    /** サーバ側で例外が発生したことを示す応答の状態 */
+    static final int STATUS_ERROR = 1;
+
+    /** 制限時間内にコンパイルが完了しなかったことを示す応答の状態 */
+    static final int STATUS_TIMEOUT = 2;
+
+    /** {@link CompileDaemon} が待ち受けるループバックアドレス */
+    static final String LOOPBACK_ADDRESS = "127.0.0.1";
+
+    /** 文字列やバイト列の長さの上限 */
+    static final int MAX_LENGTH = 256 * 1024 * 1024;
+
+    /** 文字列をエンコードする文字セット */
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 要求の先頭を読み込み， マジックナンバーとバージョンを検証します．
+     * 
+     * @param in
+     *            入力ストリーム
+     * @throws IOException
+     *             入出力例外が発生した場合や， 要求の形式が正しくない場合
+     */
+    static void readHeader(final DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new StreamCorruptedException("not an aptina-unit request");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("unsupported version "
+                    + version);
+        }
+    }
+
+    /**
+     * 要求の先頭を書き込みます．
+     * 
+     * @param out
+     *            出力ストリーム
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static void writeHeader(final DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * 新しい認証トークンを生成して返します．
+     * 
+     * @return 認証トークン
+     */
+    static String generateToken() {
+        final byte[] bytes = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(bytes);
+        return CompilationCache.toHexString(bytes);
+    }
+
+    /**
+     * 二つの認証トークンが等しければ {@code true} を返します．
+     * <p>
+     * 比較にかかる時間から認証トークンを推測されないよう， 内容によらず一定時間で比較します．
+     * </p>
+     * 
+     * @param expected
+     *            正しい認証トークン
+     * @param actual
+     *            要求に含まれていた認証トークンまたは {@code null}
+     * @return 二つの認証トークンが等しければ {@code true}
+     */
+    static boolean isSameToken(final String expected, final String actual) {
+        if (actual == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(expected.getBytes(UTF_8), actual
+            .getBytes(UTF_8));
+    }
+
+    /**
+     * 指定されたポートで待ち受ける {@link CompileDaemon} がデフォルトで認証トークンを書き込むファイルを返します．
+     * 
+     * @param port
+     *            ポート番号
+     * @return ユーザのホームディレクトリの {@code .aptina-unit/daemon-ポート番号.token}
+     */
+    static File getDefaultTokenFile(final int port) {
+        return new File(new File(System.getProperty("user.home"), ".aptina-unit"),
+            "daemon-" + port + ".token");
+    }
+
+    /**
+     * 認証トークンを所有者だけが読み書きできるファイルに書き込みます．
+     * <p>
+     * 親ディレクトリが存在しない場合は所有者だけがアクセスできるディレクトリとして作成します．
+     * ファイルのパーミッションを変更できない場合 (POSIX 以外のファイルシステムなど) は例外をスローします．
+     * </p>
+     * 
+     * @param file
+     *            ファイル
+     * @param token
+     *            認証トークン
+     * @throws IOException
+     *             入出力例外が発生した場合や， パーミッションを変更できなかった場合
+     */
+    static void writeToken(final File file, final String token)
+            throws IOException {
+        final File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.exists()) {
+            if (!directory.mkdirs()) {
+                throw new IOException("cannot create " + directory);
+            }
+            restrictToOwner(directory);
+            if (!directory.setExecutable(true, true)) {
+                throw new IOException("cannot restrict permissions of "
+                        + directory);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("cannot delete " + file);
+        }
+        if (!file.createNewFile()) {
+            throw new IOException("cannot create " + file);
+        }
+        // トークンを書き込む前にパーミッションを変更する
+        restrictToOwner(file);
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(token.getBytes(UTF_8));
+        } finally {
+            IOUtils.closeSilently(os);
+        }
+    }
+
+    /**
+     * ファイルから認証トークンを読み込みます．
+     * 
+     * @param file
+     *            ファイル
+     * @return 認証トークン
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static String readToken(final File file) throws IOException {
+        return new String(IOUtils.readBytes(file), UTF_8).trim();
+    }
+
+    /**
+     * 要求から認証トークンを読み込みます．
+     * <p>
+     * 認証前のクライアントが任意の長さのバッファを割り当てさせることができないよう，
+     * {@link #readString(DataInputStream)} と異なり認証トークンの長さ以外の文字列は読み込みません．
+     * </p>
+     * 
+     * @param in
+     *            入力ストリーム
+     * @return 認証トークン， 長さが認証トークンと異なる場合は {@code null}
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static String readToken(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length != TOKEN_LENGTH * 2) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        try {
+            in.readFully(bytes);
+        } catch (final EOFException e) {
+            throw new StreamCorruptedException("truncated");
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * ファイルまたはディレクトリを所有者だけが読み書きできるようにします．
+     * 
+     * @param file
+     *            ファイルまたはディレクトリ
+     * @throws IOException
+     *             パーミッションを変更できなかった場合
+     */
+    static void restrictToOwner(final File file) throws IOException {
+        if (!(file.setReadable(false, false) && file.setReadable(true, true)
+                && file.setWritable(false, false)
+                && file.setWritable(true, true) && file.setExecutable(
+            false,
+            false))) {
+            throw new IOException("cannot restrict permissions of " + file);
+        }
+    }
+
+    /**
+     * 文字列を読み込みます．
+     * 
+     * @param in
+     *            入力ストリーム
+     * @return 文字列または {@code null}
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static String readString(final DataInputStream in) throws IOException {
+        final byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, UTF_8);
+    }
+
+    /**
+     * 文字列を書き込みます．
+     * 
+     * @param out
+     *            出力ストリーム
+     * @param s
+     *            文字列または {@code null}
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static void writeString(final DataOutputStream out, final String s)
+            throws IOException {
+        writeBytes(out, s == null ? null : s.getBytes(UTF_8));
+    }
+
+    /**
+     * バイト列を読み込みます．
+     * 
+     * @param in
+     *            入力ストリーム
+     * @return バイト列または {@code null}
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static byte[] readBytes(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_LENGTH) {
+            throw new StreamCorruptedException("too long: " + length);
+        }
+        final byte[] bytes = new byte[length];
+        try {
+            in.readFully(bytes);
+        } catch (final EOFException e) {
+            throw new StreamCorruptedException("truncated");
+        }
+        return bytes;
+    }
+
+    /**
+     * バイト列を書き込みます．
+     * 
+     * @param out
+     *            出力ストリーム
+     * @param bytes
+     *            バイト列または {@code null}
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static void writeBytes(final DataOutputStream out, final byte[] bytes)
+            throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * 文字列のリストを読み込みます．
+     * 
+     * @param in
+     *            入力ストリーム
+     * @return 文字列のリスト
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static List<String> readStrings(final DataInputStream in)
+            throws IOException {
+        final int size = readSize(in);
+        final List<String> list = newArrayList();
+        for (int i = 0; i < size; ++i) {
+            list.add(readString(in));
+        }
+        return list;
+    }
+
+    /**
+     * 文字列のリストを書き込みます．
+     * 
+     * @param out
+     *            出力ストリーム
+     * @param list
+     *            文字列のリスト
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static void writeStrings(final DataOutputStream out,
+            final List<String> list) throws IOException {
+        out.writeInt(list.size());
+        for (final String s : list) {
+            writeString(out, s);
+        }
+    }
+
+    /**
+     * 要素の数を読み込みます．
+     * 
+     * @param in
+     *            入力ストリーム
+     * @return 要素の数
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    static int readSize(final DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        if (size < 0 || size > MAX_LENGTH) {
+            throw new StreamCorruptedException("illegal size: " + size);
+        }
+        return size;
+    }
+
+    /**
+     * ソケットをクローズします． 例外が発生しても無視します．
+     * <p>
+     * Java 6 の {@link Socket} は {@link java.io.Closeable} を実装していないため，
+     * {@link org.seasar.aptina.commons.util.IOUtils#closeSilently(java.io.Closeable)}
+     * を使うことができません．
+     * </p>
+     * 
+     * @param socket
+     *            ソケット
+     */
+    static void closeSilently(final Socket socket) {
+        try {
+            socket.close();
+        } catch (final IOException ignore) {
+        }
+    }
+
+    /**
+     * サーバソケットをクローズします． 例外が発生しても無視します．
+     * 
+     * @param serverSocket
+     *            サーバソケット
+     */
+    static void closeSilently(final ServerSocket serverSocket) {
+        try {
+            serverSocket.close();
+        } catch (final IOException ignore) {
+        }
+    }
+
+}
@@ -0,0 +1,445 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.net.URI;
+import java.util.Random;
+
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+import static org.seasar.aptina.commons.util.AssertionUtils.*;
+
+/**
+ * {@link javax.annotation.processing.Processor} の負荷試験のためにコンパイル対象のソースを合成するクラスです．
+ * <p>
+ * ソースはシードとインデックスだけから決まるため， 同じシードを与えれば何度でも同じソースが得られます．
+ * {@link #getSource(int)} が返すソースは内容を保持せず， Java コンパイラが読み込むたびに合成されます．
+ * そのため， {@link AptinaTestCase#addCompilationUnit(String, CharSequence)} や
+ * {@link Compilation#addCompilationUnit(String, CharSequence)} に大量のソースを追加しても，
+ * ソースの文字列がメモリ上に溜まることはありません．
+ * </p>
+ * <p>
+ * 次のサンプルは， {@link Preset#BEAN_STATE} のソースを 10,000 個コンパイルします．
+ * </p>
+ * 
+ * <pre>
+ * SourceSynthesizer synthesizer = new SourceSynthesizer(42L, Preset.BEAN_STATE);
+ * addProcessor(new BeansProcessor());
+ * for (int i = 0; i &lt; 10000; ++i) {
+ *     addCompilationUnit(synthesizer.getClassName(i), synthesizer.getSource(i));
+ * }
+ * compile();
+ * </pre>
+ * 
+ * @author koichik
+ */
+public class SourceSynthesizer {
+
+    /** デフォルトのパッケージ名 */
+    public static final String DEFAULT_PACKAGE_NAME = "synthetic";
+
+    /** デフォルトのフィールド数 */
+    public static final int DEFAULT_FIELD_COUNT = 8;
+
+    /** デフォルトの型パラメータ数の最大値 */
+    public static final int DEFAULT_MAX_TYPE_PARAMETERS = 2;
+
+    /** デフォルトの型引数の入れ子の深さの最大値 */
+    public static final int DEFAULT_MAX_GENERIC_DEPTH = 3;
+
+    /** {@link Preset#BEAN_STATE} のソースに付けるアノテーションの名前 */
+    static final String BEAN_STATE_ANNOTATION_NAME = "org.seasar.aptina.beans.BeanState";
+
+    /**
+     * 合成するソースの形です．
+     * 
+     * @author koichik
+     */
+    public enum Preset {
+
+        /**
+         * 型パラメータ， フィールド， コンストラクタ， アクセサメソッド， 総称メソッドを持つクラスです．
+         */
+        PLAIN,
+
+        /**
+         * Aptina Beans の {@code @BeanState} を付けたクラスです．
+         * <p>
+         * バウンドプロパティや制約プロパティの指定， 配列やパラメータ化された型のフィールド， 型パラメータ，
+         * 複数のコンストラクタを持ちます． クラス名は {@code BeanState} で終わります．
+         * </p>
+         */
+        BEAN_STATE
+
+    }
+
+    final String packageName;
+
+    final long seed;
+
+    final Preset preset;
+
+    final int fieldCount;
+
+    final int maxTypeParameters;
+
+    final int maxGenericDepth;
+
+    /**
+     * デフォルトのパッケージ名と形状でインスタンスを構築します．
+     * 
+     * @param seed
+     *            シード
+     * @param preset
+     *            合成するソースの形
+     */
+    public SourceSynthesizer(final long seed, final Preset preset) {
+        this(
+            DEFAULT_PACKAGE_NAME,
+            seed,
+            preset,
+            DEFAULT_FIELD_COUNT,
+            DEFAULT_MAX_TYPE_PARAMETERS,
+            DEFAULT_MAX_GENERIC_DEPTH);
+    }
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param packageName
+     *            合成するクラスのパッケージ名
+     * @param seed
+     *            シード
+     * @param preset
+     *            合成するソースの形
+     * @param fieldCount
+     *            クラスごとのフィールド数
+     * @param maxTypeParameters
+     *            クラスごとの型パラメータ数の最大値
+     * @param maxGenericDepth
+     *            フィールドの型引数の入れ子の深さの最大値
+     */
+    public SourceSynthesizer(final String packageName, final long seed,
+            final Preset preset, final int fieldCount,
+            final int maxTypeParameters, final int maxGenericDepth) {
+        assertNotEmpty("packageName", packageName);
+        assertNotNull("preset", preset);
+        this.packageName = packageName;
+        this.seed = seed;
+        this.preset = preset;
+        this.fieldCount = fieldCount;
+        this.maxTypeParameters = maxTypeParameters;
+        this.maxGenericDepth = maxGenericDepth;
+    }
+
+    /**
+     * 合成するクラスの完全限定名を返します．
+     * 
+     * @param index
+     *            インデックス
+     * @return 合成するクラスの完全限定名
+     */
+    public String getClassName(final int index) {
+        return packageName + "." + getSimpleName(index);
+    }
+
+    /**
+     * 合成するクラスのソースを返します．
+     * <p>
+     * 返されるソースは内容を保持しません． {@link CharSequence#toString()}
+     * などで内容が必要になるたびにソースが合成されます．
+     * </p>
+     * 
+     * @param index
+     *            インデックス
+     * @return 合成するクラスのソース
+     */
+    public CharSequence getSource(final int index) {
+        return new SyntheticSource(this, index);
+    }
+
+    /**
+     * 合成するクラスの単純名を返します．
+     * 
+     * @param index
+     *            インデックス
+     * @return 合成するクラスの単純名
+     */
+    String getSimpleName(final int index) {
+        return preset == Preset.BEAN_STATE ? "Synthetic" + index + "BeanState"
+                : "Synthetic" + index;
+    }
+
+    /**
+     * ソースを合成します．
+     * 
+     * @param index
+     *            インデックス
+     * @return 合成したソース
+     */
+    String synthesize(final int index) {
+        // インデックスごとに独立した乱数列を使い， 合成する順序に依存しないようにする
+        final Random random = new Random(seed ^ index * 0x9E3779B97F4A7C15L);
+        final String simpleName = getSimpleName(index);
+        final int typeParameters = random.nextInt(maxTypeParameters + 1);
+        final String[] fieldTypes = new String[fieldCount];
+        for (int i = 0; i < fieldCount; ++i) {
+            fieldTypes[i] = fieldType(random, typeParameters, random
+                .nextInt(maxGenericDepth + 1));
+        }
+
+        final StringBuilder buf = new StringBuilder(256 + fieldCount * 96);
+        buf.append("package ").append(packageName).append(";\n\n");
+        if (preset == Preset.BEAN_STATE) {
+            buf
+                .append('@')
+                .append(BEAN_STATE_ANNOTATION_NAME)
+                .append("(boundProperties = ")
+                .append(random.nextBoolean())
+                .append(", constrainedProperties = ")
+                .append(random.nextBoolean())
+                .append(")\n");
+        }
+        buf.append("public class ").append(simpleName);
+        appendTypeParameters(buf, typeParameters);
+        buf.append(" {\n\n");
+
+        for (int i = 0; i < fieldCount; ++i) {
+            buf.append("    /** f").append(i).append(" */\n    ");
+            if (preset == Preset.PLAIN) {
+                buf.append("private ");
+            } else if (random.nextBoolean()) {
+                buf.append("protected ");
+            }
+            buf
+                .append(fieldTypes[i])
+                .append(" f")
+                .append(i)
+                .append(";\n\n");
+        }
+
+        buf.append("    public ").append(simpleName).append("() {\n    }\n\n");
+        if (fieldCount > 0) {
+            buf
+                .append("    protected ")
+                .append(simpleName)
+                .append("(final ")
+                .append(fieldTypes[0])
+                .append(" f0) {\n        this.f0 = f0;\n    }\n\n");
+        }
+
+        if (preset == Preset.PLAIN) {
+            for (int i = 0; i < fieldCount; ++i) {
+                buf
+                    .append("    public ")
+                    .append(fieldTypes[i])
+                    .append(" getF")
+                    .append(i)
+                    .append("() {\n        return f")
+                    .append(i)
+                    .append(";\n    }\n\n");
+                buf
+                    .append("    public void setF")
+                    .append(i)
+                    .append("(final ")
+                    .append(fieldTypes[i])
+                    .append(" f")
+                    .append(i)
+                    .append(") {\n        this.f")
+                    .append(i)
+                    .append(" = f")
+                    .append(i)
+                    .append(";\n    }\n\n");
+            }
+            buf
+                .append("    public <E extends java.lang.Comparable<? super E>> E max(")
+                .append("final java.util.Collection<? extends E> values) {\n")
+                .append("        return java.util.Collections.max(values);\n")
+                .append("    }\n\n");
+        }
+        buf.append("}\n");
+        return buf.toString();
+    }
+
+    /**
+     * 型パラメータの宣言を追加します．
+     * 
+     * @param buf
+     *            出力先
+     * @param typeParameters
+     *            型パラメータの数
+     */
+    static void appendTypeParameters(final StringBuilder buf,
+            final int typeParameters) {
+        if (typeParameters == 0) {
+            return;
+        }
+        buf.append("<T0 extends java.lang.Comparable<T0>");
+        for (int i = 1; i < typeParameters; ++i) {
+            buf.append(", T").append(i).append(" extends java.util.List<T").append(
+                i - 1).append("> & java.io.Serializable");
+        }
+        buf.append('>');
+    }
+
+    /**
+     * フィールドの型を返します．
+     * 
+     * @param random
+     *            乱数
+     * @param typeParameters
+     *            クラスの型パラメータの数
+     * @param depth
+     *            型引数の入れ子の深さ
+     * @return フィールドの型
+     */
+    static String fieldType(final Random random, final int typeParameters,
+            final int depth) {
+        switch (random.nextInt(8)) {
+        case 0:
+            return "int";
+        case 1:
+            return "long";
+        case 2:
+            return "boolean";
+        case 3:
+            return "double[]";
+        case 4:
+            return referenceType(random, typeParameters, depth) + "[]";
+        default:
+            return referenceType(random, typeParameters, depth);
+        }
+    }
+
+    /**
+     * 参照型を返します．
+     * 
+     * @param random
+     *            乱数
+     * @param typeParameters
+     *            クラスの型パラメータの数
+     * @param depth
+     *            型引数の入れ子の深さ
+     * @return 参照型
+     */
+    static String referenceType(final Random random, final int typeParameters,
+            final int depth) {
+        if (depth > 0) {
+            final String element = referenceType(
+                random,
+                typeParameters,
+                depth - 1);
+            switch (random.nextInt(3)) {
+            case 0:
+                return "java.util.List<" + element + ">";
+            case 1:
+                return "java.util.Map<java.lang.String, " + element + ">";
+            default:
+                return "java.util.List<? extends " + element + ">";
+            }
+        }
+        switch (random.nextInt(4)) {
+        case 0:
+            return "java.lang.String";
+        case 1:
+            return "java.lang.Integer";
+        case 2:
+            return "java.math.BigDecimal";
+        default:
+            return typeParameters == 0 ? "java.lang.Long" : "T"
+                    + random.nextInt(typeParameters);
+        }
+    }
+
+    /**
+     * 内容を保持せず， 必要になるたびに合成されるソースです．
+     * 
+     * @author koichik
+     */
+    static class SyntheticSource implements CharSequence {
+
+        final SourceSynthesizer synthesizer;
+
+        final int index;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param synthesizer
+         *            {@link SourceSynthesizer}
+         * @param index
+         *            インデックス
+         */
+        SyntheticSource(final SourceSynthesizer synthesizer, final int index) {
+            this.synthesizer = synthesizer;
+            this.index = index;
+        }
+
+        @Override
+        public int length() {
+            return toString().length();
+        }
+
+        @Override
+        public char charAt(final int index) {
+            return toString().charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return synthesizer.synthesize(index);
+        }
+
+    }
+
+    /**
+     * 読み込まれるたびにソースを合成する {@link JavaFileObject} です．
+     * 
+     * @author koichik
+     */
+    static class SyntheticJavaFileObject extends SimpleJavaFileObject {
+
+        final SyntheticSource source;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param className
+         *            クラス名
+         * @param source
+         *            ソース
+         */
+        SyntheticJavaFileObject(final String className,
+                final SyntheticSource source) {
+            super(URI.create("synthetic:/" + className.replace('.', '/')
+                    + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+            return source.toString();
+        }
+
+    }
+
+}
@@ -15,12 +15,15 @@
  */
 package org.seasar.aptina.unit;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
 
 import javax.annotation.processing.Processor;
 import javax.tools.FileObject;
@@ -31,8 +34,6 @@ import javax.tools.StandardJavaFileManager;
 import javax.tools.StandardLocation;
 import javax.tools.JavaFileObject.Kind;
 
-import org.seasar.aptina.commons.util.IOUtils;
-
 import static org.seasar.aptina.commons.util.CollectionUtils.*;
 
 /**
@@ -47,6 +48,9 @@ class TestingJavaFileManager extends
 
     final Map<String, InMemoryJavaFileObject> javaFileObjects = newHashMap();
 
+    /** ロケーションとパッケージごとの索引 */
+    final Map<Location, Map<String, Map<String, InMemoryJavaFileObject>>> index = newHashMap();
+
     final Charset charset;
 
     /**
@@ -99,35 +103,33 @@ class TestingJavaFileManager extends
             return fileObjects.get(key);
         }
 
-        byte[] content = null;
-        URI uri = null;
-        try {
-            FileObject originalFileObject = null;
-            if (location == StandardLocation.CLASS_OUTPUT) {
-                // 通常はコンパイル時にCLASS_OUTPUTへコピーされるリソースがAptina Unit環境ではコピーされないため，
-                // まずはSOURCE_PATHから読み込む
-                originalFileObject = super.getFileForInput(
-                    StandardLocation.SOURCE_PATH,
-                    packageName,
-                    relativeName);
-            }
-            if (originalFileObject == null) {
-                originalFileObject = super.getFileForOutput(
-                    location,
-                    packageName,
-                    relativeName,
-                    sibling);
-            }
-            uri = originalFileObject.toUri();
-            content = IOUtils.readBytes(originalFileObject.openInputStream());
-        } catch (final FileNotFoundException ignore) {
+        FileObject originalFileObject = null;
+        if (location == StandardLocation.CLASS_OUTPUT) {
+            // 通常はコンパイル時にCLASS_OUTPUTへコピーされるリソースがAptina Unit環境ではコピーされないため，
+            // まずはSOURCE_PATHから読み込む
+            originalFileObject = super.getFileForInput(
+                StandardLocation.SOURCE_PATH,
+                packageName,
+                relativeName);
+        }
+        if (originalFileObject == null) {
+            originalFileObject = super.getFileForOutput(
+                location,
+                packageName,
+                relativeName,
+                sibling);
         }
+        // 元のファイルの内容は読み込まれるまで読み込まない
         final InMemoryJavaFileObject fileObject = new InMemoryJavaFileObject(
-            uri != null ? uri : toURI(location, packageName, relativeName),
+            originalFileObject != null ? originalFileObject.toUri() : toURI(
+                location,
+                packageName,
+                relativeName),
             Kind.OTHER,
             charset,
-            content);
+            originalFileObject);
         fileObjects.put(key, fileObject);
+        addIndex(location, packageName, key, fileObject);
         return fileObject;
     }
 
@@ -150,24 +152,83 @@ class TestingJavaFileManager extends
             return fileObjects.get(key);
         }
 
-        byte[] content = null;
-        URI uri = null;
-        try {
-            final JavaFileObject originalFileObject = super
-                .getJavaFileForOutput(location, className, kind, sibling);
-            uri = originalFileObject.toUri();
-            content = IOUtils.readBytes(originalFileObject.openInputStream());
-        } catch (final FileNotFoundException ignore) {
-        }
+        final JavaFileObject originalFileObject = super.getJavaFileForOutput(
+            location,
+            className,
+            kind,
+            sibling);
+        // 元のファイルの内容は読み込まれるまで読み込まない
         final InMemoryJavaFileObject fileObject = new InMemoryJavaFileObject(
-            uri != null ? uri : toURI(location, className),
+            originalFileObject != null ? originalFileObject.toUri() : toURI(
+                location,
+                className),
             kind,
             charset,
-            content);
+            originalFileObject);
+        fileObject.binaryName = className;
         fileObjects.put(key, fileObject);
+        final int pos = className.lastIndexOf('.');
+        addIndex(location, pos < 0 ? "" : className.substring(0, pos), key,
+            fileObject);
         return fileObject;
     }
 
+    @Override
+    public Iterable<JavaFileObject> list(final Location location,
+            final String packageName, final Set<Kind> kinds,
+            final boolean recurse) throws IOException {
+        final Iterable<JavaFileObject> files = super.list(
+            location,
+            packageName,
+            kinds,
+            recurse);
+        final Map<String, Map<String, InMemoryJavaFileObject>> packages = index
+            .get(location);
+        if (packages == null) {
+            return files;
+        }
+        final Map<String, InMemoryJavaFileObject> inMemoryFiles = newHashMap();
+        for (final Entry<String, Map<String, InMemoryJavaFileObject>> entry : packages
+            .entrySet()) {
+            final String name = entry.getKey();
+            if (name.equals(packageName) || recurse
+                    && (packageName.length() == 0 || name
+                        .startsWith(packageName + "."))) {
+                for (final Entry<String, InMemoryJavaFileObject> file : entry
+                    .getValue()
+                    .entrySet()) {
+                    if (kinds.contains(file.getValue().getKind())) {
+                        inMemoryFiles.put(file.getKey(), file.getValue());
+                    }
+                }
+            }
+        }
+        if (inMemoryFiles.isEmpty()) {
+            return files;
+        }
+        final List<JavaFileObject> result = new ArrayList<JavaFileObject>(
+            inMemoryFiles.values());
+        for (final JavaFileObject file : files) {
+            // メモリ上のファイルで上書きされたファイルは除外する
+            final String binaryName = super.inferBinaryName(location, file);
+            if (binaryName == null
+                    || !inMemoryFiles.containsKey(createKey(binaryName, file
+                        .getKind()))) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String inferBinaryName(final Location location,
+            final JavaFileObject file) {
+        if (file instanceof InMemoryJavaFileObject) {
+            return InMemoryJavaFileObject.class.cast(file).binaryName;
+        }
+        return super.inferBinaryName(location, file);
+    }
+
     @Override
     public boolean isSameFile(final FileObject lhs, final FileObject rhs) {
         if (lhs instanceof InMemoryJavaFileObject) {
@@ -201,6 +262,88 @@ class TestingJavaFileManager extends
         return null;
     }
 
+    /**
+     * 前回のコンパイルで使われた {@link TestingJavaFileManager} が保持しているファイルを引き継ぎます．
+     * <p>
+     * 引き継いだクラスファイルはクラスパス上のクラスとして {@link #list(Location, String, Set, boolean)}
+     * に含まれます． 指定されたクラス (およびそのネストしたクラス) のクラスファイルは引き継ぎません．
+     * 生成されたソースやリソースは前回と同じロケーションとパッケージのファイルとして
+     * {@link #list(Location, String, Set, boolean)} に含まれます．
+     * </p>
+     * 
+     * @param previous
+     *            前回のコンパイルで使われた {@link TestingJavaFileManager}
+     * @param classNames
+     *            引き継がないクラスの完全限定名のセット
+     * @throws IOException
+     *             入出力例外が発生した場合
+     */
+    void inherit(final TestingJavaFileManager previous,
+            final Set<String> classNames) throws IOException {
+        for (final Entry<String, InMemoryJavaFileObject> entry : previous.fileObjects
+            .entrySet()) {
+            final String key = entry.getKey();
+            final InMemoryJavaFileObject fileObject = entry.getValue();
+            if (fileObject.getKind() != Kind.CLASS) {
+                final InMemoryJavaFileObject copy = fileObject.copy();
+                fileObjects.put(key, copy);
+                if (fileObject.location != null) {
+                    addIndex(fileObject.location, fileObject.packageName, key,
+                        copy);
+                }
+                continue;
+            }
+            final String binaryName = key.substring(
+                0,
+                key.length() - Kind.CLASS.extension.length()).replace('/', '.');
+            final int dollar = binaryName.indexOf('$');
+            if (classNames.contains(dollar < 0 ? binaryName : binaryName
+                .substring(0, dollar))) {
+                continue;
+            }
+            final InMemoryJavaFileObject copy = fileObject.copy();
+            copy.binaryName = binaryName;
+            fileObjects.put(key, copy);
+            final int pos = binaryName.lastIndexOf('.');
+            addIndex(StandardLocation.CLASS_PATH, pos < 0 ? "" : binaryName
+                .substring(0, pos), key, copy);
+        }
+    }
+
+    /**
+     * メモリ上のファイルをロケーションとパッケージの索引に追加します．
+     * <p>
+     * ロケーションとパッケージ名はファイルにも記録され， 次のコンパイルへ引き継ぐ際に使われます．
+     * </p>
+     * 
+     * @param location
+     *            ロケーション
+     * @param packageName
+     *            パッケージ名
+     * @param key
+     *            ファイルのキー
+     * @param fileObject
+     *            メモリ上のファイル
+     */
+    void addIndex(final Location location, final String packageName,
+            final String key, final InMemoryJavaFileObject fileObject) {
+        Map<String, Map<String, InMemoryJavaFileObject>> packages = index
+            .get(location);
+        if (packages == null) {
+            packages = newHashMap();
+            index.put(location, packages);
+        }
+        final String name = packageName == null ? "" : packageName;
+        Map<String, InMemoryJavaFileObject> files = packages.get(name);
+        if (files == null) {
+            files = newHashMap();
+            packages.put(name, files);
+        }
+        files.put(key, fileObject);
+        fileObject.location = location;
+        fileObject.packageName = name;
+    }
+
     URI toURI(final Location location, final String packageName,
             final String relativeName) {
         try {
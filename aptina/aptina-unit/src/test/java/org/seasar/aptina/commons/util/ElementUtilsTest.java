@@ -15,13 +15,20 @@
  */
 package org.seasar.aptina.commons.util;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 import javax.annotation.Generated;
 import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
 
+import org.seasar.aptina.commons.util.ElementUtils.MemberIndex;
 import org.seasar.aptina.unit.AptinaTestCase;
 
 import static org.seasar.aptina.commons.util.ElementUtils.*;
@@ -57,12 +64,111 @@ public class ElementUtilsTest extends AptinaTestCase {
             .toString());
     }
 
+    /**
+     * @throws Exception
+     */
+    public void testMemberIndex() throws Exception {
+        addCompilationUnit(
+            "Qux",
+            "public class Qux<T> {"
+                    + "int a; String b;"
+                    + "public Qux() {} public Qux(int a) {} public Qux(java.util.List<T> list) {}"
+                    + "void m() {} void m(int a) {} void m(String[] a, T t) {} String n() { return null; }"
+                    + "}");
+        compile();
+
+        final TypeElement typeElement = getTypeElement("Qux");
+        final MemberIndex memberIndex = getMemberIndex(typeElement);
+        assertSame(memberIndex, getMemberIndex(typeElement));
+        assertEquals(2, memberIndex.fields.size());
+        assertEquals(7, memberIndex.executables.size());
+
+        assertEquals("a", getFieldElement(typeElement, "a")
+            .getSimpleName()
+            .toString());
+        assertNull(getFieldElement(typeElement, "c"));
+
+        assertEquals(0, getConstructorElement(typeElement)
+            .getParameters()
+            .size());
+        assertEquals(1, getConstructorElement(typeElement, int.class)
+            .getParameters()
+            .size());
+        assertNotNull(getConstructorElement(typeElement, "java.util.List<T>"));
+        assertNull(getConstructorElement(typeElement, long.class));
+
+        assertEquals(0, getMethodElement(typeElement, "m")
+            .getParameters()
+            .size());
+        assertEquals(1, getMethodElement(typeElement, "m", int.class)
+            .getParameters()
+            .size());
+        assertNotNull(getMethodElement(
+            typeElement,
+            "m",
+            "java.lang.String[]",
+            "T"));
+        assertNotNull(getMethodElement(typeElement, "n"));
+        assertNull(getMethodElement(typeElement, "n", int.class));
+        assertNull(getMethodElement(typeElement, "o"));
+    }
+
+    /**
+     * 型エレメントのインスタンスが使い回されてメンバだけが作り直された場合に索引が作り直されることを確認します．
+     * 
+     * @throws Exception
+     */
+    public void testMemberIndexWithReloadedMembers() throws Exception {
+        addCompilationUnit("Qux", "public class Qux { int a; String b; }");
+        compile();
+
+        final TypeElement qux = getTypeElement("Qux");
+        final List<Element> members = new ArrayList<Element>();
+        members.add(getFieldElement(qux, "a"));
+        final TypeElement typeElement = (TypeElement) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class<?>[] { TypeElement.class },
+            new InvocationHandler() {
+                public Object invoke(final Object proxy, final Method method,
+                        final Object[] args) throws Throwable {
+                    if (method.getName().equals("getEnclosedElements")) {
+                        return new ArrayList<Element>(members);
+                    }
+                    if (method.getName().equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if (method.getName().equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    return method.invoke(qux, args);
+                }
+            });
+
+        final MemberIndex memberIndex = getMemberIndex(typeElement);
+        assertSame(memberIndex, getMemberIndex(typeElement));
+        assertNotNull(getFieldElement(typeElement, "a"));
+        assertNull(getFieldElement(typeElement, "b"));
+
+        members.add(getFieldElement(qux, "b"));
+        assertNotNull(getFieldElement(typeElement, "b"));
+        assertNotSame(memberIndex, getMemberIndex(typeElement));
+
+        members.set(0, getFieldElement(qux, "b"));
+        members.set(1, getFieldElement(qux, "a"));
+        final MemberIndex reordered = getMemberIndex(typeElement);
+        assertEquals(2, reordered.fields.size());
+        assertSame(reordered, getMemberIndex(typeElement));
+    }
+
     /**
      * @throws Exception
      */
     public void testToStringOfTypeParameterDecl() throws Exception {
         addCompilationUnit(Foo.class);
         addCompilationUnit(Bar.class);
+        addCompilationUnit(
+            "Baz",
+            "public class Baz<T extends Comparable<T>, U> {}");
         compile();
 
         TypeElement typeElement = getTypeElement(Foo.class);
@@ -73,6 +179,11 @@ public class ElementUtilsTest extends AptinaTestCase {
         assertEquals(
             "<E, T extends java.util.List<E> & java.io.Serializable>",
             toStringOfTypeParameterDecl(typeElement.getTypeParameters()));
+
+        typeElement = getTypeElement("Baz");
+        assertEquals(
+            "<T extends java.lang.Comparable<T>, U>",
+            toStringOfTypeParameterDecl(typeElement.getTypeParameters()));
     }
 
     /**
@@ -81,6 +192,9 @@ public class ElementUtilsTest extends AptinaTestCase {
     public void testToStringOfTypeParameterNames() throws Exception {
         addCompilationUnit(Foo.class);
         addCompilationUnit(Bar.class);
+        addCompilationUnit(
+            "Baz",
+            "public class Baz<T extends Comparable<T>, U> {}");
         compile();
 
         TypeElement typeElement = getTypeElement(Foo.class);
@@ -15,11 +15,22 @@
  */
 package org.seasar.aptina.commons.util;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.nio.charset.Charset;
 import java.util.Locale;
+import java.util.Map;
+
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
 
 import org.seasar.aptina.unit.AptinaTestCase;
 
+import static org.seasar.aptina.commons.util.TypeMirrorUtils.*;
+
 /**
  * 
  * @author koichik
@@ -40,4 +51,103 @@ public class TypeMirrorUtilsTest extends AptinaTestCase {
     public void test() throws Exception {
     }
 
+    /**
+     * @throws Exception
+     */
+    public void testGetTypeMirror() throws Exception {
+        addCompilationUnit(Foo.class);
+        compile();
+
+        final Map<Object, TypeMirror> cache = getTypeMirrorCache(getElementUtils());
+        assertNotNull(cache);
+        assertSame(cache, getTypeMirrorCache(getElementUtils()));
+
+        final TypeMirror intType = getTypeMirror(int.class);
+        assertEquals(TypeKind.INT, intType.getKind());
+        assertSame(intType, getTypeMirror(int.class));
+        assertSame(intType, getTypeMirror("int"));
+
+        final TypeMirror fooType = getTypeMirror(Foo.class);
+        assertEquals(Foo.class.getName(), fooType.toString());
+        assertSame(fooType, getTypeMirror(Foo.class.getName()));
+        assertSame(fooType, cache.get(Foo.class));
+        assertSame(fooType, cache.get(Foo.class.getName()));
+
+        final TypeMirror arrayType = getTypeMirror(String[][].class);
+        assertEquals("java.lang.String[][]", arrayType.toString());
+        assertSame(arrayType, getTypeMirror(String[][].class));
+        assertNotNull(cache.get(String[].class));
+        assertSame(getTypeMirror("java.lang.String[][]"), getTypeMirror(
+            "java.lang.String[][]"));
+        assertTrue(getTypeUtils().isSameType(arrayType, getTypeMirror(
+            "java.lang.String[][]")));
+        assertTrue(getTypeUtils().isSameType(arrayType, getTypeMirror(
+            "[[Ljava.lang.String;")));
+        assertNotNull(cache.get("java.lang.String[]"));
+
+        assertNull(getTypeMirror("Unknown"));
+        assertFalse(cache.containsKey("Unknown"));
+    }
+
+    /**
+     * 処理環境のキャッシュが公開メソッドの呼び出しごとに一度だけ検索されることを確認します．
+     * 
+     * @throws Exception
+     */
+    public void testGetTypeElementCount() throws Exception {
+        addCompilationUnit(Foo.class);
+        compile();
+
+        final Elements elementUtils = getElementUtils();
+        final int[] count = new int[1];
+        final Elements countingElementUtils = (Elements) Proxy
+            .newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { Elements.class },
+                new InvocationHandler() {
+                    public Object invoke(final Object proxy,
+                            final Method method, final Object[] args)
+                            throws Throwable {
+                        if (method.getName().equals("getTypeElement")) {
+                            ++count[0];
+                        }
+                        try {
+                            return method.invoke(elementUtils, args);
+                        } catch (final InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+
+        // java.lang.Object とキャッシュされていない java.lang.Number
+        TypeMirrorUtils.getTypeMirror(
+            getTypeUtils(),
+            countingElementUtils,
+            Number[][][].class);
+        assertEquals(2, count[0]);
+
+        count[0] = 0;
+        TypeMirrorUtils.getTypeMirror(
+            getTypeUtils(),
+            countingElementUtils,
+            Number[][][].class);
+        assertEquals(1, count[0]);
+
+        count[0] = 0;
+        TypeMirrorUtils.getTypeMirror(
+            getTypeUtils(),
+            countingElementUtils,
+            "java.lang.Number[][][][]");
+        assertEquals(1, count[0]);
+
+        count[0] = 0;
+        toTypeMirrors(
+            getTypeUtils(),
+            countingElementUtils,
+            int.class,
+            Number.class,
+            Number[].class);
+        assertEquals(1, count[0]);
+    }
+
 }
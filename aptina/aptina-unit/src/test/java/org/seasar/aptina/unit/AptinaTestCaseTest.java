@@ -16,24 +16,50 @@
 package org.seasar.aptina.unit;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
 import java.io.StringReader;
+import java.io.Writer;
+import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
 import javax.lang.model.element.TypeElement;
 import javax.tools.Diagnostic;
 import javax.tools.FileObject;
 import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
 import javax.tools.StandardLocation;
 import javax.tools.Diagnostic.Kind;
 
+import junit.framework.AssertionFailedError;
+
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+import static org.seasar.aptina.commons.util.IOUtils.*;
+
 /**
  * 
  * @author koichik
  */
 public class AptinaTestCaseTest extends AptinaTestCase {
 
+    static final String SERVICE = "META-INF/services/"
+            + Callable.class.getName();
+
     @Override
     protected void setUp() throws Exception {
         super.setUp();
@@ -94,6 +120,335 @@ public class AptinaTestCaseTest extends AptinaTestCase {
             "foo.bar.Baz");
     }
 
+    /**
+     * @throws Exception
+     */
+    public void testClassLoader() throws Exception {
+        addCompilationUnit(
+            "foo.Greeting",
+            "package foo; public class Greeting implements java.util.concurrent.Callable<String> {"
+                    + "public String call() { return \"hello\"; } }");
+
+        compile();
+
+        assertTrue(getCompiledResult());
+        final ClassLoader loader = getClassLoader();
+        assertSame(loader, getClassLoader());
+        final Class<?> clazz = loader.loadClass("foo.Greeting");
+        assertSame(loader, clazz.getClassLoader());
+        assertNotNull(clazz.getPackage());
+        assertSame(clazz, loader.loadClass("foo.Greeting"));
+        assertSame(String.class, loader.loadClass("java.lang.String"));
+        assertSame(TestSource.class, loader.loadClass(TestSource.class
+            .getName()));
+        final Callable<?> callable = Callable.class.cast(clazz.newInstance());
+        assertEquals("hello", callable.call());
+        assertNotNull(loader.getResourceAsStream("foo/Greeting.class"));
+        try {
+            loader.loadClass("foo.NotExist");
+            fail();
+        } catch (final ClassNotFoundException expected) {
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testProcessorStatistics() throws Exception {
+        final TestProcessor processor = new TestProcessor();
+        addProcessor(processor);
+        addCompilationUnit(TestSource.class);
+
+        compile();
+
+        assertTrue(processor.called);
+        final List<ProcessorStatistics> statistics = getProcessorStatistics();
+        assertEquals(1, statistics.size());
+        final ProcessorStatistics statistic = statistics.get(0);
+        assertEquals(TestProcessor.class.getName(), statistic
+            .getProcessorClassName());
+        assertEquals(1, statistic.getInitCount());
+        assertTrue(statistic.getSupportedAnnotationTypesCount() > 0);
+        assertTrue(statistic.getProcessCount() > 0);
+        assertTrue(statistic.getRoundNanos().size() >= statistic
+            .getProcessCount());
+        assertTrue(statistic.getTotalTime(TimeUnit.NANOSECONDS) > 0);
+        assertTrue(statistic.toString().startsWith(
+            TestProcessor.class.getName()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testClassLoaderResources() throws Exception {
+        addProcessor(new ServiceWritingProcessor());
+        addCompilationUnit(
+            "foo.Greeting",
+            "package foo; public class Greeting implements java.util.concurrent.Callable<String> {"
+                    + "public String call() { return \"hello\"; } }");
+
+        compile();
+
+        assertTrue(getCompiledResult());
+        final ClassLoader loader = getClassLoader();
+        final URL url = loader.getResource("foo/Greeting.class");
+        assertNotNull(url);
+        assertEquals(InMemoryClassLoader.PROTOCOL, url.getProtocol());
+        assertTrue(Collections.list(loader.getResources(SERVICE)).contains(
+            loader.getResource(SERVICE)));
+        assertNull(loader.getResource("foo/NotExist.class"));
+
+        final Iterator<?> services = ServiceLoader.load(
+            Callable.class,
+            loader).iterator();
+        assertTrue(services.hasNext());
+        assertEquals("hello", Callable.class.cast(services.next()).call());
+        assertFalse(services.hasNext());
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testIncremental() throws Exception {
+        setIncremental(true);
+        addProcessor(new TestProcessor());
+        addCompilationUnit(
+            "foo.Hello",
+            "package foo; @org.seasar.aptina.unit.Hoge public class Hello { public static String hello() { return \"hello\"; } }");
+        compile();
+        assertTrue(getCompiledResult());
+        assertEqualsGeneratedSource(
+            "package foo.bar;public class Baz {}",
+            "foo.bar.Baz");
+
+        addCompilationUnit(
+            "foo.Greeting",
+            "package foo; public class Greeting implements java.util.concurrent.Callable<String> {"
+                    + "public String call() { return Hello.hello() + new foo.bar.Baz(); } }");
+        compile();
+        assertTrue(getCompiledResult());
+        assertTrue(getDiagnostics(Kind.ERROR).isEmpty());
+        assertEqualsGeneratedSource(
+            "package foo.bar;public class Baz {}",
+            "foo.bar.Baz");
+        final List<String> inherited = newArrayList();
+        for (final JavaFileObject file : compilationResult.testingJavaFileManager
+            .list(StandardLocation.SOURCE_OUTPUT, "foo.bar", EnumSet
+                .of(JavaFileObject.Kind.SOURCE), false)) {
+            inherited.add(file.getName());
+        }
+        assertEquals(1, inherited.size());
+        assertTrue(inherited.get(0).endsWith("Baz.java"));
+        final Callable<?> callable = Callable.class.cast(getClassLoader()
+            .loadClass("foo.Greeting")
+            .newInstance());
+        assertTrue(callable.call().toString().startsWith("hellofoo.bar.Baz@"));
+
+        addCompilationUnit(
+            "foo.Hello",
+            "package foo; public class Hello { public static String hello() { return \"hi\"; } }");
+        compile();
+        assertTrue(getCompiledResult());
+        final Class<?> hello = getClassLoader().loadClass("foo.Hello");
+        assertEquals("hi", hello.getMethod("hello").invoke(null));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testReset() throws Exception {
+        addProcessor(new TestProcessor());
+        addCompilationUnit(TestSource.class);
+        compile();
+        assertTrue(getCompiledResult());
+        final CompilationResult result = compilationResult;
+
+        reset();
+        assertTrue(result.isClosed());
+        assertNull(compilationResult);
+        try {
+            getCompiledResult();
+            fail();
+        } catch (final IllegalStateException expected) {
+        }
+        try {
+            getDiagnostics();
+            fail();
+        } catch (final IllegalStateException expected) {
+        }
+
+        setCharset(Charset.forName("UTF-8"));
+        setIncremental(true);
+        addCompilationUnit("Foo", "public class Foo {}");
+        compile();
+        assertTrue(getCompiledResult());
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testProcessingOnly() throws Exception {
+        setProcessingOnly(true);
+        final TestProcessor processor = new TestProcessor();
+        addProcessor(processor);
+        addCompilationUnit(TestSource.class);
+
+        compile();
+
+        assertTrue(getCompiledResult());
+        assertTrue(processor.called);
+        assertNotNull(getTypeElement(TestSource.class));
+        assertEqualsGeneratedSource(
+            "package foo.bar;public class Baz {}",
+            "foo.bar.Baz");
+        for (final String name : compilationResult.getGeneratedFiles().keySet()) {
+            assertFalse(name, name.endsWith(".class"));
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testProcessingOnlyWithError() throws Exception {
+        setProcessingOnly(true);
+        addCompilationUnit("Foo", "public class Foo { Bar bar; }");
+
+        compile();
+
+        assertFalse(getCompiledResult());
+        assertFalse(getDiagnostics("Foo", Kind.ERROR).isEmpty());
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testUpdateGoldenFiles() throws Exception {
+        final File file = File.createTempFile("aptina", ".java");
+        try {
+            file.delete();
+            addProcessor(new TestProcessor());
+            addCompilationUnit(TestSource.class);
+            compile();
+
+            setUpdateGoldenFiles(true);
+            assertEqualsGeneratedSourceWithFile(file, "foo.bar.Baz");
+            assertFalse(file.exists());
+            assertEquals(1, goldenFiles.write());
+            assertEquals(
+                "package foo.bar;public class Baz {}",
+                readString(file, "UTF-8"));
+
+            setUpdateGoldenFiles(false);
+            assertEqualsGeneratedSourceWithFile(file, "foo.bar.Baz");
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testAllocatedBytes() throws Exception {
+        if (!MemoryMeter.isAllocationSupported()) {
+            return;
+        }
+        addProcessor(new TestProcessor());
+        addCompilationUnit(TestSource.class);
+        compile();
+
+        assertTrue(getAllocatedBytes() > 0);
+        assertAllocatedLessThan(Long.MAX_VALUE);
+        try {
+            assertAllocatedLessThan(1);
+            fail();
+        } catch (final AssertionFailedError expected) {
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testRetainedHeapBytes() throws Exception {
+        addProcessor(new TestProcessor());
+        addCompilationUnit(TestSource.class);
+        compile();
+        try {
+            getRetainedHeapBytes();
+            fail();
+        } catch (final IllegalStateException expected) {
+        }
+
+        setMeasureRetainedHeap(true);
+        processors.clear();
+        addProcessor(new TestProcessor());
+        addCompilationUnit(TestSource.class);
+        compile();
+        assertRetainedLessThan(Long.MAX_VALUE);
+        try {
+            assertRetainedLessThan(Long.MIN_VALUE);
+            fail();
+        } catch (final AssertionFailedError expected) {
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testCompileTimeout() throws Exception {
+        final SleepingProcessor sleepingProcessor = new SleepingProcessor();
+        setCompileTimeout(100, TimeUnit.MILLISECONDS);
+        assertEquals(100, getCompileTimeout(TimeUnit.MILLISECONDS));
+        addProcessor(sleepingProcessor);
+        addCompilationUnit(TestSource.class);
+        try {
+            compile();
+            fail();
+        } catch (final CompilationTimeoutException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(
+                "100 ms"));
+            assertNotNull(expected.getCause());
+        }
+        sleepingProcessor.thread.join(10000);
+        assertTrue(sleepingProcessor.interrupted);
+
+        setCompileTimeout(0, TimeUnit.MILLISECONDS);
+        processors.clear();
+        addProcessor(new TestProcessor());
+        addCompilationUnit(TestSource.class);
+        assertCompilesWithin(60, TimeUnit.SECONDS);
+        assertTrue(getCompiledResult());
+        assertEquals(0, getCompileTimeout(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testCompilerSession() throws Exception {
+        final CompilerSession session = new CompilerSession();
+        try {
+            setCompilerSession(session);
+            addProcessor(new TestProcessor());
+            addCompilationUnit(TestSource.class);
+            compile();
+            assertTrue(getCompiledResult());
+            final StandardJavaFileManager fileManager = compilationResult.standardJavaFileManager;
+
+            reset();
+            setUp();
+            setCompilerSession(session);
+            addProcessor(new TestProcessor());
+            addCompilationUnit(TestSource.class);
+            compile();
+            assertTrue(getCompiledResult());
+            assertSame(fileManager, compilationResult.standardJavaFileManager);
+            assertEqualsGeneratedSource(
+                "package foo.bar;public class Baz {}",
+                "foo.bar.Baz");
+        } finally {
+            session.close();
+        }
+    }
+
     /**
      * @throws Exception
      */
@@ -246,4 +601,60 @@ public class AptinaTestCaseTest extends AptinaTestCase {
         assertEquals("あいう", reader.readLine());
     }
 
+    /**
+     * {@code foo.Greeting} を {@link Callable} のサービスとして登録するリソースを生成する {@link Processor} です．
+     */
+    @SupportedSourceVersion(SourceVersion.RELEASE_6)
+    @SupportedAnnotationTypes("*")
+    static class ServiceWritingProcessor extends AbstractProcessor {
+
+        @Override
+        public boolean process(final Set<? extends TypeElement> annotations,
+                final RoundEnvironment roundEnv) {
+            if (roundEnv.processingOver()) {
+                return false;
+            }
+            try {
+                final Writer writer = processingEnv.getFiler().createResource(
+                    StandardLocation.CLASS_OUTPUT,
+                    "",
+                    SERVICE).openWriter();
+                try {
+                    writer.write("foo.Greeting\n");
+                } finally {
+                    writer.close();
+                }
+            } catch (final IOException e) {
+                throw new RuntimeException(e);
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * 割り込まれるまで眠り続ける {@link Processor} です．
+     */
+    @SupportedSourceVersion(SourceVersion.RELEASE_6)
+    @SupportedAnnotationTypes("*")
+    static class SleepingProcessor extends AbstractProcessor {
+
+        volatile Thread thread;
+
+        volatile boolean interrupted;
+
+        @Override
+        public boolean process(final Set<? extends TypeElement> annotations,
+                final RoundEnvironment roundEnv) {
+            thread = Thread.currentThread();
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+            return false;
+        }
+
+    }
+
 }
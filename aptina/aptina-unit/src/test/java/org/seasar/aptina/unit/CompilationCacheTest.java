@@ -0,0 +1,331 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.Processor;
+import javax.tools.JavaFileObject;
+
+import junit.framework.TestCase;
+
+import org.seasar.aptina.commons.util.IOUtils;
+
+/**
+ * 
+ * @author koichik
+ */
+public class CompilationCacheTest extends TestCase {
+
+    File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("aptina", "cache");
+        directory.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testCache() throws Exception {
+        final CompilationCache cache = new CompilationCache();
+
+        final TestProcessor processor1 = new TestProcessor();
+        final CompilationResult result1 = compile(cache, processor1, "Foo");
+        final Boolean compiledResult1;
+        final int diagnosticsSize1;
+        final Set<String> generatedFiles1;
+        try {
+            assertFalse(result1.isCached());
+            assertTrue(processor1.called);
+            compiledResult1 = result1.getCompiledResult();
+            diagnosticsSize1 = result1.getDiagnostics().size();
+            generatedFiles1 = new HashSet<String>(result1
+                .getGeneratedFiles()
+                .keySet());
+        } finally {
+            result1.close();
+        }
+
+        final TestProcessor processor2 = new TestProcessor();
+        final CompilationResult result2 = compile(cache, processor2, "Foo");
+        try {
+            assertTrue(result2.isCached());
+            assertFalse(processor2.called);
+            assertNull(result2.getProcessingEnvironment());
+            assertEquals(compiledResult1, result2.getCompiledResult());
+            assertEquals(diagnosticsSize1, result2.getDiagnostics().size());
+            assertEquals(
+                "package foo.bar;public class Baz {}",
+                result2.getGeneratedSource("foo.bar.Baz"));
+            assertEquals(generatedFiles1, result2.getGeneratedFiles().keySet());
+        } finally {
+            result2.close();
+        }
+
+        final TestProcessor processor3 = new TestProcessor();
+        final CompilationResult result3 = compile(cache, processor3, "Bar");
+        try {
+            assertFalse(result3.isCached());
+            assertTrue(processor3.called);
+        } finally {
+            result3.close();
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testPersistentCache() throws Exception {
+        final CompilationResult result1 = compile(
+            new CompilationCache(directory),
+            new TestProcessor(),
+            "Foo");
+        final Boolean compiledResult1;
+        final String diagnostics1;
+        try {
+            assertFalse(result1.isCached());
+            compiledResult1 = result1.getCompiledResult();
+            diagnostics1 = result1.getDiagnostics().toString();
+        } finally {
+            result1.close();
+        }
+        assertEquals(1, directory.listFiles().length);
+
+        final CompilationResult result2 = compile(
+            new CompilationCache(directory),
+            new TestProcessor(),
+            "Foo");
+        try {
+            assertTrue(result2.isCached());
+            assertEquals(compiledResult1, result2.getCompiledResult());
+            assertEquals(diagnostics1, result2.getDiagnostics().toString());
+            assertEquals(
+                "package foo.bar;public class Baz {}",
+                result2.getGeneratedSource("foo.bar.Baz"));
+        } finally {
+            result2.close();
+        }
+    }
+
+    /**
+     * 壊れたエントリがキャッシュミスとして扱われ， 削除されることを確認します．
+     * 
+     * @throws Exception
+     */
+    public void testCorruptedEntry() throws Exception {
+        compile(new CompilationCache(directory), new TestProcessor(), "Foo")
+            .close();
+        final File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        final File file = files[0];
+        final byte[] content = IOUtils.readBytes(file);
+
+        // 途中で切れたエントリ
+        writeEntry(file, Arrays.copyOf(content, content.length / 2));
+        assertCacheMiss(file);
+
+        // 負の長さ
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(CompilationCache.FORMAT_VERSION);
+        out.writeByte(1);
+        out.writeInt(0);
+        out.writeInt(1);
+        out.writeInt(-5);
+        writeEntry(file, bytes.toByteArray());
+        assertCacheMiss(file);
+
+        // 巨大な長さ
+        bytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(bytes);
+        out.writeInt(CompilationCache.FORMAT_VERSION);
+        out.writeByte(1);
+        out.writeInt(0);
+        out.writeInt(1);
+        out.writeInt(Integer.MAX_VALUE);
+        writeEntry(file, bytes.toByteArray());
+        assertCacheMiss(file);
+
+        // 負の要素数
+        bytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(bytes);
+        out.writeInt(CompilationCache.FORMAT_VERSION);
+        out.writeByte(1);
+        out.writeInt(Integer.MIN_VALUE);
+        writeEntry(file, bytes.toByteArray());
+        assertCacheMiss(file);
+
+        // 不正な列挙型の名前
+        bytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(bytes);
+        out.writeInt(CompilationCache.FORMAT_VERSION);
+        out.writeByte(1);
+        out.writeInt(0);
+        out.writeInt(1);
+        CompilationCache.writeString(out, "Foo.class");
+        CompilationCache.writeString(out, "mem:///Foo.class");
+        CompilationCache.writeString(out, "NO_SUCH_KIND");
+        writeEntry(file, bytes.toByteArray());
+        assertCacheMiss(file);
+
+        // 壊れたエントリは作り直される
+        writeEntry(file, Arrays.copyOf(content, content.length / 2));
+        final CompilationResult result = compile(
+            new CompilationCache(directory),
+            new TestProcessor(),
+            "Foo");
+        try {
+            assertFalse(result.isCached());
+            assertTrue(result.getCompiledResult());
+        } finally {
+            result.close();
+        }
+        assertTrue(file.exists());
+        assertNotNull(new CompilationCache(directory).get(file.getName()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testCreateKey() throws Exception {
+        final File source = new File(directory, "foo/Foo.java");
+        source.getParentFile().mkdirs();
+        write(source, "package foo; public class Foo {}");
+        final File classes = new File(directory.getPath() + "-classes");
+        classes.mkdirs();
+        final File resource = new File(classes, "foo.txt");
+        write(resource, "foo");
+        try {
+            final List<String> options = Arrays.asList(
+                "-classpath",
+                classes.getPath());
+            final List<Processor> processors = Arrays
+                .<Processor> asList(new TestProcessor());
+            final List<File> sourcePaths = Arrays.asList(directory);
+            final List<JavaFileObject> compilationUnits = Collections
+                .emptyList();
+            final String key = CompilationCache.createKey(
+                null,
+                null,
+                options,
+                false,
+                processors,
+                sourcePaths,
+                compilationUnits);
+            assertNotNull(key);
+            assertEquals(key, CompilationCache.createKey(
+                null,
+                null,
+                options,
+                false,
+                processors,
+                sourcePaths,
+                compilationUnits));
+
+            write(source, "package foo; public class Foo { int i; }");
+            final String key2 = CompilationCache.createKey(
+                null,
+                null,
+                options,
+                false,
+                processors,
+                sourcePaths,
+                compilationUnits);
+            assertFalse(key.equals(key2));
+
+            write(resource, "foobar");
+            assertFalse(key2.equals(CompilationCache.createKey(
+                null,
+                null,
+                options,
+                false,
+                processors,
+                sourcePaths,
+                compilationUnits)));
+        } finally {
+            resource.delete();
+            classes.delete();
+            source.delete();
+            source.getParentFile().delete();
+        }
+
+        assertNotNull(CompilationCache.getCodeSourceLocation(TestProcessor.class));
+        assertNull(CompilationCache.getCodeSourceLocation(String.class));
+    }
+
+    void writeEntry(final File file, final byte[] content) throws Exception {
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+    }
+
+    void assertCacheMiss(final File file) throws Exception {
+        assertNull(new CompilationCache(directory).get(file.getName()));
+        assertFalse(file.exists());
+    }
+
+    void write(final File file, final String content) throws Exception {
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content.getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+    }
+
+    CompilationResult compile(final CompilationCache cache,
+            final TestProcessor processor, final String className)
+            throws Exception {
+        final Compilation compilation = new Compilation();
+        compilation.setLocale(Locale.JAPANESE);
+        compilation.setCharset(Charset.forName("UTF-8"));
+        compilation.setCompilationCache(cache);
+        compilation.addProcessor(processor);
+        compilation.addCompilationUnit(className, "@"
+                + Hoge.class.getName() + " public class " + className + " {}");
+        return compilation.compile();
+    }
+
+}
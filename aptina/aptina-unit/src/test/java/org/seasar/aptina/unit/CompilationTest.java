@@ -0,0 +1,137 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+
+/**
+ * 
+ * @author koichik
+ */
+public class CompilationTest extends TestCase {
+
+    /**
+     * @throws Exception
+     */
+    public void testCompile() throws Exception {
+        final TestProcessor processor = new TestProcessor();
+        final Compilation compilation = createCompilation();
+        compilation.addProcessor(processor);
+        compilation.addCompilationUnit(TestSource.class.getName());
+
+        final CompilationResult result = compilation.compile();
+        try {
+            assertTrue(result.getCompiledResult());
+            assertFalse(result.getDiagnostics().isEmpty());
+            assertNotNull(result.getProcessingEnvironment());
+            assertTrue(processor.called);
+            assertEquals("package foo.bar;public class Baz {}", result
+                .getGeneratedSource("foo.bar.Baz"));
+            assertTrue(result.getGeneratedFiles().containsKey(
+                "foo/bar/Baz.java"));
+        } finally {
+            result.close();
+        }
+        assertTrue(result.isClosed());
+        try {
+            result.getGeneratedSource("foo.bar.Baz");
+            fail();
+        } catch (final IllegalStateException expected) {
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testClosedPreviousResult() throws Exception {
+        final Compilation compilation = createCompilation();
+        compilation.addCompilationUnit("Foo", "public class Foo {}");
+        final CompilationResult result = compilation.compile();
+        result.close();
+
+        final Compilation next = createCompilation();
+        next.addCompilationUnit("Bar", "public class Bar extends Foo {}");
+        try {
+            next.setPreviousResult(result);
+            fail();
+        } catch (final IllegalArgumentException expected) {
+        }
+        assertNull(next.previousResult);
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testConcurrentCompile() throws Exception {
+        final CompilerSession session = new CompilerSession();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<CompilationResult>> futures = newArrayList();
+            for (int i = 0; i < 8; ++i) {
+                final Compilation compilation = createCompilation();
+                compilation.setCompilerSession(session);
+                compilation.addProcessor(new TestProcessor());
+                compilation.addCompilationUnit("Foo" + i, "@"
+                        + Hoge.class.getName() + " public class Foo" + i
+                        + " {}");
+                futures.add(executor.submit(new Callable<CompilationResult>() {
+
+                    @Override
+                    public CompilationResult call() throws Exception {
+                        return compilation.compile();
+                    }
+
+                }));
+            }
+            for (final Future<CompilationResult> future : futures) {
+                final CompilationResult result = future.get();
+                try {
+                    assertTrue(result.getCompiledResult());
+                    assertEquals(
+                        "package foo.bar;public class Baz {}",
+                        result.getGeneratedSource("foo.bar.Baz"));
+                } finally {
+                    result.close();
+                }
+            }
+        } finally {
+            executor.shutdown();
+            session.close();
+        }
+    }
+
+    Compilation createCompilation() {
+        final Compilation compilation = new Compilation();
+        compilation.setLocale(Locale.JAPANESE);
+        compilation.setCharset(Charset.forName("UTF-8"));
+        compilation.addSourcePath(
+            new File("aptina-unit/src/test/java"),
+            new File("src/test/java"));
+        return compilation;
+    }
+
+}
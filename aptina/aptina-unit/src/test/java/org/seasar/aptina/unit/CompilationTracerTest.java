@@ -0,0 +1,92 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * @author koichik
+ */
+public class CompilationTracerTest extends TestCase {
+
+    /**
+     * @throws Exception
+     */
+    public void testTrace() throws Exception {
+        final CompilationTracer tracer = new CompilationTracer();
+        final Compilation compilation = new Compilation();
+        compilation.setLocale(Locale.JAPANESE);
+        compilation.setCharset(Charset.forName("UTF-8"));
+        compilation.addSourcePath(
+            new File("aptina-unit/src/test/java"),
+            new File("src/test/java"));
+        compilation.setTracer(tracer);
+        compilation.addProcessor(new TestProcessor());
+        compilation.addCompilationUnit(TestSource.class.getName());
+        compilation.compile().close();
+        assertTrue(tracer.getEventCount() > 0);
+
+        final StringWriter writer = new StringWriter();
+        tracer.write(writer);
+        final String json = writer.toString();
+        assertTrue(json, json.startsWith("{\"displayTimeUnit\":\"ms\","
+                + "\"traceEvents\":["));
+        assertTrue(json, json.contains("{\"name\":\"compile\",\"cat\":\"aptina\","));
+        assertTrue(json, json.contains("{\"name\":\"PARSE\",\"cat\":\"javac\","));
+        assertTrue(json, json.contains("{\"name\":\"ANALYZE\",\"cat\":\"javac\","));
+        assertTrue(json, json.contains("{\"name\":\""
+                + TestProcessor.class.getName() + "\",\"cat\":\"processor\","));
+        assertTrue(json, json.contains("\"method\":\"process\",\"round\":1,"));
+        assertTrue(json, json.endsWith("\n]}\n"));
+
+        tracer.clear();
+        assertEquals(0, tracer.getEventCount());
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testRecord() throws Exception {
+        final CompilationTracer tracer = new CompilationTracer();
+        tracer.record(
+            "a\"b\\c\n",
+            "test",
+            tracer.origin + 1234567,
+            tracer.origin + 1234567 + 1005,
+            "x",
+            1,
+            "y",
+            null,
+            "z",
+            "\u0001");
+        final StringWriter writer = new StringWriter();
+        tracer.write(writer);
+        final long tid = Thread.currentThread().getId();
+        assertEquals("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n"
+                + "{\"name\":\"a\\\"b\\\\c\\n\",\"cat\":\"test\",\"ph\":\"X\","
+                + "\"pid\":1,\"tid\":" + tid
+                + ",\"ts\":1234.567,\"dur\":1.005,"
+                + "\"args\":{\"x\":1,\"z\":\"\\u0001\"}}\n]}\n", writer
+            .toString());
+    }
+
+}
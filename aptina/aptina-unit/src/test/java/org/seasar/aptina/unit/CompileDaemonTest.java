@@ -0,0 +1,240 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.Diagnostic.Kind;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * @author koichik
+ */
+public class CompileDaemonTest extends TestCase {
+
+    CompileDaemon daemon;
+
+    File tokenFile;
+
+    File processorPath;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        tokenFile = File.createTempFile("aptina-unit", ".token");
+        processorPath = new File(TestProcessor.class
+            .getProtectionDomain()
+            .getCodeSource()
+            .getLocation()
+            .toURI());
+        daemon = new CompileDaemon(0, tokenFile, processorPath);
+        daemon.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        daemon.close();
+        super.tearDown();
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testCompile() throws Exception {
+        for (int i = 0; i < 2; ++i) {
+            final RemoteCompilation compilation = createCompilation();
+            compilation.addProcessor(TestProcessor.class);
+            compilation.addCompilationUnit(TestSource.class.getName());
+            compilation.addCompilationUnit("Foo", "@" + Hoge.class.getName()
+                    + " public class Foo {}");
+
+            final RemoteCompilationResult result = compilation.compile();
+            assertTrue(result.getCompiledResult());
+            assertEquals(1, result.getDiagnostics(Kind.NOTE).size());
+            assertTrue(result
+                .getDiagnostics(Kind.NOTE)
+                .get(0)
+                .getMessage(null)
+                .endsWith("hoge"));
+            assertEquals("package foo.bar;public class Baz {}", result
+                .getGeneratedSource("foo.bar.Baz"));
+            assertTrue(result.getGeneratedFiles().containsKey("hoge.txt"));
+            assertNotNull(result
+                .getClassLoader(getClass().getClassLoader())
+                .loadClass("Foo"));
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testError() throws Exception {
+        final RemoteCompilation compilation = createCompilation();
+        compilation.addProcessor("no.such.Processor");
+        compilation.addCompilationUnit(TestSource.class.getName());
+        try {
+            compilation.compile();
+            fail();
+        } catch (final IOException expected) {
+            assertTrue(expected.getMessage().contains(
+                "ClassNotFoundException"));
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testTokenFile() throws Exception {
+        assertEquals(tokenFile, daemon.getTokenFile());
+        assertEquals(daemon.token, RemoteProtocol.readToken(tokenFile));
+        assertEquals(RemoteProtocol.TOKEN_LENGTH * 2, daemon.token.length());
+        daemon.close();
+        assertFalse(tokenFile.exists());
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testUnauthorized() throws Exception {
+        final RemoteCompilation compilation = createCompilation();
+        compilation.setToken("invalid");
+        compilation.addProcessor(TestProcessor.class);
+        compilation.addCompilationUnit(TestSource.class.getName());
+        try {
+            compilation.compile();
+            fail();
+        } catch (final IOException expected) {
+            assertTrue(expected.getMessage().contains("authentication failed"));
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testOversizedToken() throws Exception {
+        final Socket socket = new Socket(RemoteProtocol.LOOPBACK_ADDRESS, daemon
+            .getPort());
+        try {
+            socket.setSoTimeout(10000);
+            final DataOutputStream out = new DataOutputStream(socket
+                .getOutputStream());
+            RemoteProtocol.writeHeader(out);
+            out.writeInt(RemoteProtocol.MAX_LENGTH);
+            out.flush();
+            final DataInputStream in = new DataInputStream(socket
+                .getInputStream());
+            assertEquals(RemoteProtocol.STATUS_ERROR, in.readInt());
+            assertEquals("authentication failed", RemoteProtocol
+                .readString(in));
+        } finally {
+            RemoteProtocol.closeSilently(socket);
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testReadTimeout() throws Exception {
+        daemon.setReadTimeout(100, TimeUnit.MILLISECONDS);
+        final Socket socket = new Socket(RemoteProtocol.LOOPBACK_ADDRESS, daemon
+            .getPort());
+        try {
+            socket.setSoTimeout(10000);
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            RemoteProtocol.closeSilently(socket);
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testProcessorPath() throws Exception {
+        RemoteCompilation compilation = createCompilation();
+        compilation.addProcessorPath(processorPath);
+        compilation.addProcessor(TestProcessor.class);
+        compilation.addCompilationUnit(TestSource.class.getName());
+        assertTrue(compilation.compile().getCompiledResult());
+
+        compilation = createCompilation();
+        compilation.addProcessorPath(processorPath.getParentFile());
+        compilation.addProcessor(TestProcessor.class);
+        compilation.addCompilationUnit(TestSource.class.getName());
+        try {
+            compilation.compile();
+            fail();
+        } catch (final IOException expected) {
+            assertTrue(expected.getMessage().contains(
+                "processor path not allowed"));
+        }
+
+        compilation = createCompilation();
+        compilation.addOption("-processorpath", processorPath.getPath());
+        compilation.addProcessor(TestProcessor.class);
+        compilation.addCompilationUnit(TestSource.class.getName());
+        try {
+            compilation.compile();
+            fail();
+        } catch (final IOException expected) {
+            assertTrue(expected.getMessage().contains("option not allowed"));
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testAddProcessor() throws Exception {
+        final RemoteCompilation compilation = createCompilation();
+        compilation.addProcessor(TestProcessor.class);
+        try {
+            compilation.addProcessor(TestProcessor.class, String.class);
+            fail();
+        } catch (final IllegalArgumentException expected) {
+        }
+        assertEquals(1, compilation.processors.size());
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testToLocale() throws Exception {
+        assertNull(CompileDaemon.toLocale(null));
+        assertEquals(Locale.JAPANESE, CompileDaemon.toLocale("ja"));
+        assertEquals(Locale.JAPAN, CompileDaemon.toLocale("ja_JP"));
+    }
+
+    RemoteCompilation createCompilation() {
+        final RemoteCompilation compilation = new RemoteCompilation(daemon
+            .getPort());
+        compilation.setTokenFile(tokenFile);
+        compilation.setLocale(Locale.JAPANESE);
+        compilation.setCharset(Charset.forName("UTF-8"));
+        final File sourcePath = new File("aptina-unit/src/test/java");
+        compilation.addSourcePath(sourcePath.exists() ? sourcePath : new File(
+            "src/test/java"));
+        return compilation;
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.StandardJavaFileManager;
+
+import junit.framework.TestCase;
+
+import static java.util.Arrays.*;
+import static java.util.Collections.*;
+
+/**
+ * 
+ * @author koichik
+ */
+public class CompilerSessionTest extends TestCase {
+
+    CompilerSession session;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        session = new CompilerSession();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        session.close();
+        super.tearDown();
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testReuse() throws Exception {
+        final Charset utf8 = Charset.forName("UTF-8");
+        final List<String> options = emptyList();
+        final StandardJavaFileManager fm1 = session.acquireFileManager(
+            Locale.JAPANESE,
+            utf8,
+            options);
+        final StandardJavaFileManager fm2 = session.acquireFileManager(
+            Locale.JAPANESE,
+            utf8,
+            options);
+        assertNotSame(fm1, fm2);
+
+        session.releaseFileManager(fm1);
+        assertSame(fm1, session.acquireFileManager(
+            Locale.JAPANESE,
+            utf8,
+            options));
+
+        session.releaseFileManager(fm2);
+        assertNotSame(fm2, session.acquireFileManager(
+            Locale.ENGLISH,
+            utf8,
+            options));
+        assertNotSame(fm2, session.acquireFileManager(
+            Locale.JAPANESE,
+            utf8,
+            asList("-g")));
+        assertSame(fm2, session.acquireFileManager(
+            Locale.JAPANESE,
+            utf8,
+            options));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testDiscardOnTimeout() throws Exception {
+        final AptinaTestCaseTest.SleepingProcessor processor = new AptinaTestCaseTest.SleepingProcessor();
+        final Compilation compilation = new Compilation();
+        compilation.setLocale(Locale.JAPANESE);
+        compilation.setCharset(Charset.forName("UTF-8"));
+        compilation.setCompilerSession(session);
+        compilation.setTimeout(1, TimeUnit.SECONDS);
+        compilation.addProcessor(processor);
+        compilation.addCompilationUnit("Foo", "public class Foo {}");
+        try {
+            compilation.compile();
+            fail();
+        } catch (final CompilationTimeoutException expected) {
+        }
+        if (processor.thread != null) {
+            processor.thread.join(10000);
+        }
+        assertTrue(session.leasedFileManagers.isEmpty());
+        assertTrue(session.idleFileManagers.isEmpty());
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testClose() throws Exception {
+        session.close();
+        try {
+            session.acquireFileManager(null, null, asList("-g"));
+            fail();
+        } catch (final IllegalStateException expected) {
+        }
+    }
+
+}
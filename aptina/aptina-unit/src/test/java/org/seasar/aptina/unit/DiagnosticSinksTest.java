@@ -0,0 +1,116 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import javax.tools.Diagnostic.Kind;
+
+import junit.framework.TestCase;
+
+import org.seasar.aptina.unit.CompilationCache.CachedDiagnostic;
+
+/**
+ * 
+ * @author koichik
+ */
+public class DiagnosticSinksTest extends TestCase {
+
+    ByteArrayOutputStream bytes;
+
+    PrintStream out;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        bytes = new ByteArrayOutputStream();
+        out = new PrintStream(bytes, true, "UTF-8");
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testOff() throws Exception {
+        final DiagnosticSink sink = DiagnosticSinks.off();
+        sink.report(createDiagnostic("hoge"));
+        sink.flush(true);
+        assertEquals(0, bytes.size());
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testSync() throws Exception {
+        final DiagnosticSink sink = DiagnosticSinks.sync(out);
+        sink.report(createDiagnostic("hoge"));
+        assertEquals("hoge", bytes.toString("UTF-8").trim());
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testBuffered() throws Exception {
+        final DiagnosticSink sink = DiagnosticSinks.buffered(out, 100);
+        for (int i = 0; i < 10; ++i) {
+            sink.report(createDiagnostic("hoge" + i));
+        }
+        sink.flush(false);
+        final String[] lines = bytes.toString("UTF-8").split("\\r?\\n");
+        assertEquals(10, lines.length);
+        for (int i = 0; i < 10; ++i) {
+            assertEquals("hoge" + i, lines[i]);
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testOnFailure() throws Exception {
+        final DiagnosticSink sink = DiagnosticSinks.onFailure(out, 2);
+        sink.report(createDiagnostic("hoge"));
+        sink.flush(false);
+        assertEquals(0, bytes.size());
+
+        sink.report(createDiagnostic("foo"));
+        sink.report(createDiagnostic("bar"));
+        sink.report(createDiagnostic("baz"));
+        sink.flush(true);
+        final String[] lines = bytes.toString("UTF-8").split("\\r?\\n");
+        assertEquals(3, lines.length);
+        assertEquals("... 1 diagnostics dropped", lines[0]);
+        assertEquals("bar", lines[1]);
+        assertEquals("baz", lines[2]);
+    }
+
+    Diagnostic<JavaFileObject> createDiagnostic(final String message) {
+        return new CachedDiagnostic(
+            Kind.NOTE,
+            null,
+            null,
+            0,
+            0,
+            0,
+            0,
+            0,
+            null,
+            message,
+            message);
+    }
+
+}
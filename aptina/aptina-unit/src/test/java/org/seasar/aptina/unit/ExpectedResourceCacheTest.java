@@ -0,0 +1,110 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+import static org.seasar.aptina.commons.util.IOUtils.*;
+
+/**
+ * 
+ * @author koichik
+ */
+public class ExpectedResourceCacheTest extends TestCase {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("aptina", ".txt");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testFile() throws Exception {
+        write("ほげ");
+        final ExpectedResourceCache cache = new ExpectedResourceCache(2);
+        final String content = cache.read(file, UTF8);
+        assertEquals("ほげ", content);
+        assertSame(content, cache.read(file, UTF8));
+        assertSame(content, cache.read(file.toURI().toURL(), UTF8));
+        assertEquals(2, cache.hits);
+        assertEquals(1, cache.misses);
+
+        assertNotSame(content, cache.read(file, Charset.forName("MS932")));
+        assertEquals(2, cache.misses);
+
+        write("ほげほげ");
+        file.setLastModified(file.lastModified() + 2000);
+        assertEquals("ほげほげ", cache.read(file, UTF8));
+        assertEquals(3, cache.misses);
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testResource() throws Exception {
+        final URL url = Thread.currentThread().getContextClassLoader().getResource(
+            "a.txt");
+        final ExpectedResourceCache cache = new ExpectedResourceCache(2);
+        final String content = cache.read(url, UTF8);
+        assertTrue(content.startsWith("abc"));
+        assertSame(content, cache.read(url, UTF8));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testMaxEntries() throws Exception {
+        write("foo");
+        final File file2 = File.createTempFile("aptina", ".txt");
+        try {
+            final ExpectedResourceCache cache = new ExpectedResourceCache(1);
+            cache.read(file, UTF8);
+            cache.read(file2, UTF8);
+            assertEquals(1, cache.entries.size());
+            cache.read(file, UTF8);
+            assertEquals(3, cache.misses);
+        } finally {
+            file2.delete();
+        }
+    }
+
+    void write(final String content) throws Exception {
+        final FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content.getBytes("UTF-8"));
+        } finally {
+            closeSilently(os);
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+import static org.seasar.aptina.commons.util.IOUtils.*;
+
+/**
+ * 
+ * @author koichik
+ */
+public class GoldenFilesTest extends TestCase {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("aptina", ".txt");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testMatches() throws Exception {
+        assertFalse(GoldenFiles.matches(file, "ほげ", UTF8));
+
+        final GoldenFiles goldenFiles = new GoldenFiles();
+        goldenFiles.add(file, "ほげ", UTF8);
+        assertEquals(1, goldenFiles.write());
+        assertTrue(GoldenFiles.matches(file, "ほげ", UTF8));
+        assertFalse(GoldenFiles.matches(file, "ほが", UTF8));
+        assertFalse(GoldenFiles.matches(file, "ほげ\n", UTF8));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testWrite() throws Exception {
+        final GoldenFiles goldenFiles = new GoldenFiles();
+        goldenFiles.add(file, "foo", UTF8);
+        goldenFiles.add(file, "bar", UTF8);
+        assertEquals(1, goldenFiles.write());
+        assertEquals("bar", readString(file, UTF8));
+        assertTrue(goldenFiles.pending.isEmpty());
+
+        goldenFiles.add(file, "bar", UTF8);
+        assertEquals(0, goldenFiles.write());
+
+        // 長さが同じで内容が異なる
+        goldenFiles.add(file, "baz", UTF8);
+        assertEquals(1, goldenFiles.write());
+        assertEquals("baz", readString(file, UTF8));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testIsSameContent() throws Exception {
+        final byte[] bytes = GoldenFiles.encode("ほげ", UTF8);
+        assertFalse(GoldenFiles.isSameContent(file, bytes));
+
+        final GoldenFiles goldenFiles = new GoldenFiles();
+        goldenFiles.add(file, "ほげ", UTF8);
+        goldenFiles.write();
+        assertTrue(GoldenFiles.isSameContent(file, bytes));
+        assertFalse(GoldenFiles.isSameContent(file, GoldenFiles.encode(
+            "ほが",
+            UTF8)));
+        assertFalse(GoldenFiles.isSameContent(file, GoldenFiles.encode(
+            "ほげ\n",
+            UTF8)));
+
+        goldenFiles.add(file, "", UTF8);
+        goldenFiles.write();
+        assertTrue(GoldenFiles.isSameContent(file, new byte[0]));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testToFile() throws Exception {
+        assertEquals(file.getAbsoluteFile(), GoldenFiles.toFile(file
+            .toURI()
+            .toURL()));
+        assertNull(GoldenFiles.toFile(new URL(
+            "http://example.com/foo")));
+    }
+
+}
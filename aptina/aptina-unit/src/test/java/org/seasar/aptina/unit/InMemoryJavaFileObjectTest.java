@@ -16,11 +16,14 @@
 package org.seasar.aptina.unit;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import javax.tools.JavaFileObject.Kind;
@@ -69,4 +72,64 @@ public class InMemoryJavaFileObjectTest extends TestCase {
         assertEquals("hoge hoge ほげ", reader.readLine());
     }
 
+    /**
+     * @throws Exception
+     */
+    public void testCharContentCache() throws Exception {
+        final InMemoryJavaFileObject fileObject = new InMemoryJavaFileObject(
+            new URI("/foo"),
+            Kind.SOURCE,
+            Charset.forName("UTF-8"));
+        Writer writer = fileObject.openWriter();
+        writer.write("hoge");
+        writer.close();
+
+        final CharSequence content = fileObject.getCharContent(true);
+        assertEquals("hoge", content.toString());
+        assertSame(content, fileObject.getCharContent(true));
+
+        final ByteBuffer buffer = fileObject.getContent();
+        assertTrue(buffer.isReadOnly());
+        assertEquals(4, buffer.remaining());
+        assertEquals(4, fileObject.openInputStream().available());
+
+        writer = fileObject.openWriter();
+        writer.write("ほげ");
+        writer.flush();
+        assertEquals("ほげ", fileObject.getCharContent(true).toString());
+        writer.write("ほげ");
+        writer.close();
+        assertEquals("ほげほげ", fileObject.getCharContent(true).toString());
+        assertEquals(4, buffer.remaining());
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testImmutableContent() throws Exception {
+        final InMemoryJavaFileObject fileObject = new InMemoryJavaFileObject(
+            new URI("/foo"),
+            Kind.OTHER,
+            Charset.forName("UTF-8"));
+        final OutputStream os = fileObject.openOutputStream();
+        os.write(new byte[] { 1, 2 });
+        final ByteBuffer writing = fileObject.getContent();
+        os.write(3);
+        assertEquals(2, writing.remaining());
+        os.close();
+
+        final ByteBuffer closed = fileObject.getContent();
+        final InMemoryJavaFileObject copy = fileObject.copy();
+        try {
+            os.write(4);
+            fail();
+        } catch (final IOException expected) {
+        }
+        os.close();
+        assertEquals(3, closed.remaining());
+        assertEquals(3, closed.get(2));
+        assertEquals(3, copy.getContent().remaining());
+        assertEquals(3, fileObject.getContent().remaining());
+    }
+
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.net.URI;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import javax.tools.Diagnostic.Kind;
+
+import junit.framework.TestCase;
+
+import org.seasar.aptina.unit.CompilationCache.CachedDiagnostic;
+
+/**
+ * 
+ * @author koichik
+ */
+public class IndexedDiagnosticCollectorTest extends TestCase {
+
+    /**
+     * @throws Exception
+     */
+    public void test() throws Exception {
+        final IndexedDiagnosticCollector collector = new IndexedDiagnosticCollector();
+        final Diagnostic<JavaFileObject> hoge = createDiagnostic(
+            null,
+            Kind.NOTE,
+            "hoge");
+        final Diagnostic<JavaFileObject> foo = createDiagnostic(
+            "file:/src/foo/Bar.java",
+            Kind.ERROR,
+            "foo");
+        final Diagnostic<JavaFileObject> bar = createDiagnostic(
+            "file:/src/foo/Bar.java",
+            Kind.WARNING,
+            "bar");
+        final Diagnostic<JavaFileObject> baz = createDiagnostic(
+            "file:/src/Bar.java",
+            Kind.ERROR,
+            "foo");
+        collector.report(hoge);
+        collector.report(foo);
+        collector.report(bar);
+        collector.report(baz);
+
+        assertEquals(4, collector.getDiagnostics().size());
+
+        assertEquals(3, collector.getDiagnostics("Bar").size());
+        assertEquals(2, collector.getDiagnostics("foo.Bar").size());
+        assertSame(foo, collector.getDiagnostics("foo.Bar").get(0));
+        assertSame(bar, collector.getDiagnostics("foo.Bar").get(1));
+        assertTrue(collector.getDiagnostics("oo.Bar").isEmpty());
+        assertTrue(collector.getDiagnostics("Baz").isEmpty());
+
+        assertEquals(1, collector.getDiagnostics(Kind.NOTE).size());
+        assertEquals(2, collector.getDiagnostics(Kind.ERROR).size());
+        assertTrue(collector.getDiagnostics(Kind.OTHER).isEmpty());
+
+        assertEquals(1, collector.getDiagnostics("foo.Bar", Kind.ERROR).size());
+        assertSame(foo, collector.getDiagnostics("foo.Bar", Kind.ERROR).get(0));
+        assertTrue(collector.getDiagnostics("foo.Bar", Kind.NOTE).isEmpty());
+
+        assertEquals(2, collector.getDiagnosticsWithCode("foo").size());
+        assertTrue(collector.getDiagnosticsWithCode("moge").isEmpty());
+    }
+
+    Diagnostic<JavaFileObject> createDiagnostic(final String uri,
+            final Kind kind, final String code) {
+        return new CachedDiagnostic(
+            kind,
+            uri == null ? null : URI.create(uri),
+            JavaFileObject.Kind.SOURCE,
+            0,
+            0,
+            0,
+            0,
+            0,
+            code,
+            code,
+            code).restore(null);
+    }
+
+}
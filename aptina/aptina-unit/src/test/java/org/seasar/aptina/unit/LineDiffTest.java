@@ -0,0 +1,129 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import static java.util.Arrays.*;
+
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+
+/**
+ * 
+ * @author koichik
+ */
+public class LineDiffTest extends TestCase {
+
+    /**
+     * @throws Exception
+     */
+    public void testEquals() throws Exception {
+        final LineDiff diff = new LineDiff(
+            asList("a", "b", "c"),
+            asList("a", "b", "c"));
+        assertTrue(diff.isEmpty());
+        assertEquals(-1, diff.getFirstDifference());
+        assertEquals("", diff.toUnifiedString(3));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testInsertAtTop() throws Exception {
+        final List<String> expected = newArrayList();
+        for (int i = 0; i < 5000; ++i) {
+            expected.add("line" + i);
+        }
+        final List<String> actual = newArrayList();
+        actual.add("inserted");
+        actual.addAll(expected);
+        final LineDiff diff = new LineDiff(expected, actual);
+        assertEquals(1, diff.getFirstDifference());
+        assertEquals(
+            "--- expected\n" + "+++ actual\n" + "@@ -1,3 +1,4 @@\n"
+                    + "+inserted\n" + " line0\n" + " line1\n" + " line2\n",
+            diff.toUnifiedString(3));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testHunks() throws Exception {
+        final List<String> expected = newArrayList();
+        for (int i = 0; i < 20; ++i) {
+            expected.add("line" + i);
+        }
+        final List<String> actual = newArrayList();
+        actual.addAll(expected);
+        actual.set(2, "changed2");
+        actual.remove(15);
+        final LineDiff diff = new LineDiff(expected, actual);
+        assertEquals(3, diff.getFirstDifference());
+        assertEquals("--- expected\n" + "+++ actual\n" + "@@ -1,6 +1,6 @@\n"
+                + " line0\n" + " line1\n" + "-line2\n" + "+changed2\n"
+                + " line3\n" + " line4\n" + " line5\n" + "@@ -13,7 +13,6 @@\n"
+                + " line12\n" + " line13\n" + " line14\n" + "-line15\n"
+                + " line16\n" + " line17\n" + " line18\n", diff
+            .toUnifiedString(3));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testMinimal() throws Exception {
+        final Random random = new Random(0);
+        for (int n = 0; n < 500; ++n) {
+            final List<String> expected = createRandomLines(random);
+            final List<String> actual = createRandomLines(random);
+            final LineDiff diff = new LineDiff(expected, actual);
+            int deleted = 0;
+            for (final boolean b : diff.deleted) {
+                deleted += b ? 1 : 0;
+            }
+            int inserted = 0;
+            for (final boolean b : diff.inserted) {
+                inserted += b ? 1 : 0;
+            }
+            final int lcs = lcs(expected, actual);
+            assertEquals(expected.size() - lcs, deleted);
+            assertEquals(actual.size() - lcs, inserted);
+        }
+    }
+
+    List<String> createRandomLines(final Random random) {
+        final List<String> lines = newArrayList();
+        final int size = random.nextInt(30);
+        for (int i = 0; i < size; ++i) {
+            lines.add(Integer.toString(random.nextInt(4)));
+        }
+        return lines;
+    }
+
+    int lcs(final List<String> a, final List<String> b) {
+        final int[][] table = new int[a.size() + 1][b.size() + 1];
+        for (int i = a.size() - 1; i >= 0; --i) {
+            for (int j = b.size() - 1; j >= 0; --j) {
+                table[i][j] = a.get(i).equals(b.get(j)) ? table[i + 1][j + 1] + 1
+                        : Math.max(table[i + 1][j], table[i][j + 1]);
+            }
+        }
+        return table[0][0];
+    }
+
+}
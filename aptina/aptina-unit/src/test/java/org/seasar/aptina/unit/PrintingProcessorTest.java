@@ -15,8 +15,15 @@
  */
 package org.seasar.aptina.unit;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.util.Locale;
+import java.util.regex.Pattern;
+
+import javax.lang.model.element.ElementKind;
+
+import org.seasar.aptina.unit.PrintingProcessor.Format;
 
 /**
  * 
@@ -29,7 +36,11 @@ public class PrintingProcessorTest extends AptinaTestCase {
         super.setUp();
         setLocale(Locale.JAPANESE);
         setCharset(Charset.forName("UTF-8"));
-        addSourcePath("aptina-unit/src/main/java", "src/main/java");
+        addSourcePath(
+            "aptina-unit/src/main/java",
+            "src/main/java",
+            "aptina-unit/src/test/java",
+            "src/test/java");
     }
 
     /**
@@ -41,4 +52,142 @@ public class PrintingProcessorTest extends AptinaTestCase {
         compile();
     }
 
+    /**
+     * @throws Exception
+     */
+    public void testBuffered() throws Exception {
+        final StringWriter expected = new StringWriter();
+        addProcessor(new PrintingProcessor(new PrintWriter(expected)));
+        addCompilationUnit(TestSource.class);
+        compile();
+
+        final StringWriter actual = new StringWriter();
+        final PrintingProcessor processor = new PrintingProcessor(
+            new PrintWriter(actual));
+        processor.setBuffered(true);
+        processors.clear();
+        addProcessor(processor);
+        addCompilationUnit(TestSource.class);
+        compile();
+        assertEquals(expected.toString(), actual.toString());
+        assertTrue(actual.toString(), actual.toString().contains(
+            "/**" + LINE_SEPARATOR + " *  " + LINE_SEPARATOR
+                    + " *  @author koichik" + LINE_SEPARATOR));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testJson() throws Exception {
+        final StringWriter writer = new StringWriter();
+        final PrintingProcessor processor = new PrintingProcessor(
+            new PrintWriter(writer));
+        processor.setFormat(Format.JSON);
+        processor.setBuffered(true);
+        addProcessor(processor);
+        addCompilationUnit(TestSource.class);
+        compile();
+
+        final String json = writer.toString().trim();
+        assertTrue(json, json.startsWith("[{\"kind\":\"CLASS\","
+                + "\"name\":\"org.seasar.aptina.unit.TestSource\","
+                + "\"doc\":\" \\n @author koichik\\n @param <T>\\n\","
+                + "\"children\":[{\"kind\":\"FIELD\",\"name\":\"aaa\","
+                + "\"children\":[]},"));
+        assertTrue(json, json.endsWith("]}]}]"));
+        assertEquals(json.indexOf('\n'), -1);
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testNdjson() throws Exception {
+        final StringWriter writer = new StringWriter();
+        final PrintingProcessor processor = new PrintingProcessor(
+            new PrintWriter(writer));
+        processor.setFormat(Format.NDJSON);
+        addProcessor(processor);
+        addCompilationUnit(TestSource.class);
+        compile();
+
+        final String[] lines = writer.toString().split(LINE_SEPARATOR);
+        assertEquals("{\"kind\":\"CLASS\","
+                + "\"name\":\"org.seasar.aptina.unit.TestSource\","
+                + "\"doc\":\" \\n @author koichik\\n @param <T>\\n\","
+                + "\"depth\":0}", lines[0]);
+        assertEquals(
+            "{\"kind\":\"FIELD\",\"name\":\"aaa\",\"depth\":1}",
+            lines[1]);
+        assertEquals(
+            "{\"kind\":\"PARAMETER\",\"name\":\"aaa\",\"depth\":2}",
+            lines[6]);
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testFilter() throws Exception {
+        final StringWriter writer = new StringWriter();
+        final PrintingProcessor processor = new PrintingProcessor(
+            new PrintWriter(writer));
+        processor.setFormat(Format.NDJSON);
+        processor.addInclude("*.Test?ource");
+        processor.addExclude("*.TestSource.set*");
+        processor.setKinds(ElementKind.CLASS, ElementKind.METHOD);
+        processor.setMaxDepth(1);
+        processor.setSkipDocComments(true);
+        addProcessor(processor);
+        addCompilationUnit(TestSource.class);
+        addCompilationUnit(Hoge.class);
+        compile();
+
+        assertEquals("{\"kind\":\"CLASS\","
+                + "\"name\":\"org.seasar.aptina.unit.TestSource\",\"depth\":0}"
+                + LINE_SEPARATOR
+                + "{\"kind\":\"METHOD\",\"name\":\"hoge()\",\"depth\":1}"
+                + LINE_SEPARATOR, writer.toString());
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testOptions() throws Exception {
+        final StringWriter writer = new StringWriter();
+        addProcessor(new PrintingProcessor(new PrintWriter(writer)));
+        addOption(
+            "-Aaptina.printing.format=ndjson",
+            "-Aaptina.printing.buffered",
+            "-Aaptina.printing.include=org.seasar.aptina.unit.TestSource",
+            "-Aaptina.printing.kinds=field, parameter",
+            "-Aaptina.printing.maxDepth=2",
+            "-Aaptina.printing.skipDocComments=true");
+        addCompilationUnit(TestSource.class);
+        compile();
+
+        final String[] lines = writer.toString().split(LINE_SEPARATOR);
+        assertEquals(
+            "{\"kind\":\"FIELD\",\"name\":\"aaa\",\"depth\":0}",
+            lines[0]);
+        assertEquals(
+            "{\"kind\":\"PARAMETER\",\"name\":\"aaa\",\"depth\":0}",
+            lines[3]);
+        assertEquals(9, lines.length);
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testToPattern() throws Exception {
+        final Pattern pattern = PrintingProcessor.toPattern("foo.*");
+        assertTrue(pattern.matcher("foo.Bar").matches());
+        assertFalse(pattern.matcher("fooBar").matches());
+        assertTrue(PrintingProcessor
+            .toPattern("*.B?r")
+            .matcher("foo.Bar")
+            .matches());
+        assertFalse(PrintingProcessor.toPattern("[a]").matcher("a").matches());
+    }
+
+    static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
 }
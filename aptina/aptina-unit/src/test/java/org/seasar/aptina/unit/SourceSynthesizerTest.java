@@ -0,0 +1,82 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.aptina.unit;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+import org.seasar.aptina.unit.SourceSynthesizer.Preset;
+
+/**
+ * 
+ * @author koichik
+ */
+public class SourceSynthesizerTest extends TestCase {
+
+    /**
+     * @throws Exception
+     */
+    public void testDeterministic() throws Exception {
+        final SourceSynthesizer synthesizer = new SourceSynthesizer(
+            42L,
+            Preset.BEAN_STATE);
+        assertEquals("synthetic.Synthetic3BeanState", synthesizer
+            .getClassName(3));
+        final String source = synthesizer.getSource(3).toString();
+        assertTrue(source, source.contains("@"
+                + SourceSynthesizer.BEAN_STATE_ANNOTATION_NAME));
+        assertTrue(source, source
+            .contains("public class Synthetic3BeanState"));
+        assertEquals(source, synthesizer.getSource(3).toString());
+        assertEquals(source, new SourceSynthesizer(42L, Preset.BEAN_STATE)
+            .getSource(3)
+            .toString());
+        assertFalse(source.equals(new SourceSynthesizer(
+            43L,
+            Preset.BEAN_STATE).getSource(3).toString()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testCompile() throws Exception {
+        final SourceSynthesizer synthesizer = new SourceSynthesizer(
+            1L,
+            Preset.PLAIN);
+        final Compilation compilation = new Compilation();
+        compilation.setLocale(Locale.JAPANESE);
+        compilation.setCharset(Charset.forName("UTF-8"));
+        compilation.setDiagnosticSink(DiagnosticSinks.off());
+        for (int i = 0; i < 200; ++i) {
+            compilation.addCompilationUnit(synthesizer.getClassName(i), synthesizer
+                .getSource(i));
+        }
+        final CompilationResult result = compilation.compile();
+        try {
+            assertTrue(result.getDiagnostics().toString(), result
+                .getCompiledResult());
+            assertTrue(result.getGeneratedFiles().containsKey(
+                "synthetic/Synthetic199.class"));
+            assertFalse(result.getGeneratedFiles().containsKey(
+                "synthetic/Synthetic199.java"));
+        } finally {
+            result.close();
+        }
+    }
+
+}
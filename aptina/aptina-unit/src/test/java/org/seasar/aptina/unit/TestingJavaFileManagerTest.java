@@ -16,6 +16,9 @@
 package org.seasar.aptina.unit;
 
 import java.io.File;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.List;
 
 import javax.tools.DiagnosticCollector;
 import javax.tools.FileObject;
@@ -32,6 +35,8 @@ import org.seasar.aptina.commons.util.IOUtils;
 
 import static java.util.Arrays.*;
 
+import static org.seasar.aptina.commons.util.CollectionUtils.*;
+
 /**
  * 
  * @author koichik
@@ -86,6 +91,42 @@ public class TestingJavaFileManagerTest extends TestCase {
             "UTF-8"));
     }
 
+    /**
+     * @throws Exception
+     */
+    public void testLazyLoadingOriginal() throws Exception {
+        final InMemoryJavaFileObject fo = InMemoryJavaFileObject.class
+            .cast(testingFileManager.getFileForOutput(
+                StandardLocation.CLASS_OUTPUT,
+                "",
+                "a.txt",
+                null));
+        assertNotNull(fo.original);
+        assertNull(fo.content);
+        assertEquals("abc\r\nあいう\r\n", IOUtils.readString(
+            fo.openInputStream(),
+            "UTF-8"));
+        assertNull(fo.original);
+        assertNotNull(fo.content);
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testOverwriteWithoutLoadingOriginal() throws Exception {
+        final InMemoryJavaFileObject fo = InMemoryJavaFileObject.class
+            .cast(testingFileManager.getFileForOutput(
+                StandardLocation.CLASS_OUTPUT,
+                "",
+                "a.txt",
+                null));
+        final OutputStream os = fo.openOutputStream();
+        assertNull(fo.original);
+        os.write(new byte[] { 'x', 'y', 'z' });
+        os.close();
+        assertEquals("xyz", IOUtils.readString(fo.openInputStream(), "UTF-8"));
+    }
+
     /**
      * @throws Exception
      */
@@ -102,4 +143,58 @@ public class TestingJavaFileManagerTest extends TestCase {
             Kind.SOURCE));
     }
 
+    /**
+     * @throws Exception
+     */
+    public void testList() throws Exception {
+        final JavaFileObject jfo = testingFileManager.getJavaFileForOutput(
+            StandardLocation.SOURCE_OUTPUT,
+            "foo.bar.Hoge",
+            Kind.SOURCE,
+            null);
+        testingFileManager.getFileForOutput(
+            StandardLocation.SOURCE_OUTPUT,
+            "foo.bar",
+            "hoge.txt",
+            null);
+
+        final List<JavaFileObject> files = toList(testingFileManager.list(
+            StandardLocation.SOURCE_OUTPUT,
+            "foo.bar",
+            EnumSet.of(Kind.SOURCE),
+            false));
+        assertEquals(1, files.size());
+        assertSame(jfo, files.get(0));
+        assertEquals("foo.bar.Hoge", testingFileManager.inferBinaryName(
+            StandardLocation.SOURCE_OUTPUT,
+            jfo));
+
+        assertEquals(2, toList(
+            testingFileManager.list(
+                StandardLocation.SOURCE_OUTPUT,
+                "foo",
+                EnumSet.of(Kind.SOURCE, Kind.OTHER),
+                true)).size());
+        assertTrue(toList(
+            testingFileManager.list(
+                StandardLocation.SOURCE_OUTPUT,
+                "foo",
+                EnumSet.of(Kind.SOURCE),
+                false)).isEmpty());
+        assertTrue(toList(
+            testingFileManager.list(
+                StandardLocation.CLASS_OUTPUT,
+                "foo.bar",
+                EnumSet.of(Kind.SOURCE),
+                false)).isEmpty());
+    }
+
+    List<JavaFileObject> toList(final Iterable<JavaFileObject> files) {
+        final List<JavaFileObject> result = newArrayList();
+        for (final JavaFileObject file : files) {
+            result.add(file);
+        }
+        return result;
+    }
+
 }